@@ -0,0 +1,261 @@
+package cn.ffcs.memory;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分块执行批处理，每块最多chunkSize条语句，避免驱动一次缓存整个批次。
+ *
+ * 某条语句失败（BatchUpdateException）时记录其下标并继续执行其余语句：
+ * <ul>
+ *     <li>commitPerChunk为true时，每块单独提交；块内有失败时回滚该块，去掉失败的语句后重新执行</li>
+ *     <li>否则按连接原有的auto-commit执行；auto-commit关闭时（整体事务）直接抛出异常，由调用方回滚</li>
+ * </ul>
+ */
+public class ChunkedBatch {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final int chunkSize;
+    private final boolean commitPerChunk;
+
+    public ChunkedBatch() {
+        this(DEFAULT_CHUNK_SIZE, false);
+    }
+
+    public ChunkedBatch(int chunkSize, boolean commitPerChunk) {
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        this.commitPerChunk = commitPerChunk;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isCommitPerChunk() {
+        return commitPerChunk;
+    }
+
+    /**
+     * 将一条语句加入批次
+     */
+    public interface StatementFiller {
+        void add(int index) throws SQLException;
+    }
+
+    /**
+     * @param conn      stmt所属的连接
+     * @param stmt      Statement或PreparedStatement
+     * @param count     语句条数
+     * @param filler    按下标将语句加入stmt的批次
+     * @return          每条语句的结果，失败的为Statement.EXECUTE_FAILED
+     */
+    public BatchResult execute(Connection conn, Statement stmt, int count, StatementFiller filler)
+            throws SQLException {
+        BatchResult result = new BatchResult(count);
+        boolean autoCommit = conn.getAutoCommit();
+        if (commitPerChunk && autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            for (int start = 0; start < count; start += chunkSize) {
+                List<Integer> chunk = new ArrayList<>();
+                for (int i = start; i < Math.min(start + chunkSize, count); i++) {
+                    chunk.add(i);
+                }
+                if (commitPerChunk) {
+                    executeTransactional(conn, stmt, chunk, filler, result);
+                } else if (conn.getAutoCommit()) {
+                    executeAutoCommit(stmt, chunk, filler, result);
+                } else {
+                    executeChunk(stmt, chunk, filler, result);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (commitPerChunk) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            if (commitPerChunk && autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+        return result;
+    }
+
+    private void executeChunk(Statement stmt, List<Integer> chunk, StatementFiller filler, BatchResult result)
+            throws SQLException {
+        for (int index : chunk) {
+            filler.add(index);
+        }
+        int[] counts = stmt.executeBatch();
+        for (int i = 0; i < counts.length && i < chunk.size(); i++) {
+            result.updateCounts[chunk.get(i)] = counts[i];
+        }
+    }
+
+    /**
+     * 每条语句已由auto-commit提交，失败后从未执行的语句继续
+     */
+    private void executeAutoCommit(Statement stmt, List<Integer> chunk, StatementFiller filler, BatchResult result)
+            throws SQLException {
+        while (!chunk.isEmpty()) {
+            try {
+                executeChunk(stmt, chunk, filler, result);
+                return;
+            } catch (BatchUpdateException e) {
+                stmt.clearBatch();
+                int[] counts = e.getUpdateCounts();
+                if (chunk.size() > 1 && allFailed(counts, chunk.size())) {
+                    // 驱动把批处理改写为一条多行语句时整体失败，没有写入任何行，逐条重新执行以找出失败的语句
+                    for (int index : chunk) {
+                        executeAutoCommit(stmt, Collections.singletonList(index), filler, result);
+                    }
+                    return;
+                }
+                if (counts == null || counts.length >= chunk.size()) {
+                    // 驱动执行了所有语句（或无法确定执行到哪条），不再重试
+                    recordFailures(chunk, counts, e, result);
+                    return;
+                }
+                // 驱动在第一条失败的语句处停止
+                for (int i = 0; i < counts.length; i++) {
+                    result.updateCounts[chunk.get(i)] = counts[i];
+                }
+                result.fail(chunk.get(counts.length), e);
+                chunk = chunk.subList(counts.length + 1, chunk.size());
+            }
+        }
+    }
+
+    /**
+     * 块内有失败时回滚该块，去掉失败的语句后重新执行，成功后提交
+     */
+    private void executeTransactional(Connection conn, Statement stmt, List<Integer> chunk, StatementFiller filler,
+                                      BatchResult result) throws SQLException {
+        while (!chunk.isEmpty()) {
+            try {
+                executeChunk(stmt, chunk, filler, result);
+                conn.commit();
+                return;
+            } catch (BatchUpdateException e) {
+                stmt.clearBatch();
+                conn.rollback();
+                int[] counts = e.getUpdateCounts();
+                List<Integer> remaining = new ArrayList<>();
+                if (chunk.size() > 1 && (counts == null || allFailed(counts, chunk.size()))) {
+                    // 无法确定失败的语句（如驱动把批处理改写为一条多行语句），逐条重新执行
+                    for (int index : chunk) {
+                        executeTransactional(conn, stmt, Collections.singletonList(index), filler, result);
+                    }
+                    return;
+                } else if (counts != null && counts.length < chunk.size()) {
+                    // 驱动在第一条失败的语句处停止
+                    result.fail(chunk.get(counts.length), e);
+                    remaining.addAll(chunk.subList(0, counts.length));
+                    remaining.addAll(chunk.subList(counts.length + 1, chunk.size()));
+                } else if (counts != null && containsFailure(counts)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (counts[i] == Statement.EXECUTE_FAILED) {
+                            result.fail(chunk.get(i), e);
+                        } else {
+                            remaining.add(chunk.get(i));
+                        }
+                    }
+                } else {
+                    // 无法确定失败的语句，整块记为失败
+                    recordFailures(chunk, null, e, result);
+                }
+                chunk = remaining;
+            }
+        }
+    }
+
+    private static boolean allFailed(int[] counts, int size) {
+        if (counts == null || counts.length < size) {
+            return false;
+        }
+        for (int count : counts) {
+            if (count != Statement.EXECUTE_FAILED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsFailure(int[] counts) {
+        for (int count : counts) {
+            if (count == Statement.EXECUTE_FAILED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void recordFailures(List<Integer> chunk, int[] counts, BatchUpdateException e,
+                                       BatchResult result) {
+        for (int i = 0; i < chunk.size(); i++) {
+            if (counts == null || i >= counts.length || counts[i] == Statement.EXECUTE_FAILED) {
+                result.fail(chunk.get(i), e);
+            } else {
+                result.updateCounts[chunk.get(i)] = counts[i];
+            }
+        }
+    }
+
+    /**
+     * 批处理结果：每条语句的更新条数，以及失败语句的下标和原因
+     */
+    public static class BatchResult {
+        private final int[] updateCounts;
+        private final List<Integer> failedIndexes = new ArrayList<>();
+        private final List<String> failureMessages = new ArrayList<>();
+
+        BatchResult(int count) {
+            this.updateCounts = new int[count];
+            Arrays.fill(updateCounts, Statement.SUCCESS_NO_INFO);
+        }
+
+        void fail(int index, SQLException e) {
+            updateCounts[index] = Statement.EXECUTE_FAILED;
+            failedIndexes.add(index);
+            failureMessages.add(e.getMessage());
+        }
+
+        /**
+         * 合并另一批的结果，indexes为该批每条语句在本批中的下标
+         */
+        void merge(BatchResult other, List<Integer> indexes) {
+            for (int i = 0; i < indexes.size(); i++) {
+                updateCounts[indexes.get(i)] = other.updateCounts[i];
+            }
+            for (int i = 0; i < other.failedIndexes.size(); i++) {
+                failedIndexes.add(indexes.get(other.failedIndexes.get(i)));
+                failureMessages.add(other.failureMessages.get(i));
+            }
+        }
+
+        public int[] getUpdateCounts() {
+            return updateCounts;
+        }
+
+        public List<Integer> getFailedIndexes() {
+            return failedIndexes;
+        }
+
+        public List<String> getFailureMessages() {
+            return failureMessages;
+        }
+
+        public boolean hasFailures() {
+            return !failedIndexes.isEmpty();
+        }
+    }
+}
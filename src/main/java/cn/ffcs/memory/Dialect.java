@@ -0,0 +1,96 @@
+package cn.ffcs.memory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据库方言：分页、IN列表长度限制、upsert语法、流式读取以及推荐的驱动参数。
+ *
+ * 内置MySQL、PostgreSQL、Oracle、H2和SQL Server，其他数据库可以实现该接口，
+ * 并在META-INF/services/cn.ffcs.memory.Dialect中注册（ServiceLoader），注册的方言优先于内置方言。
+ */
+public interface Dialect {
+
+    /**
+     * 方言名称，用于日志
+     */
+    String getName();
+
+    /**
+     * @param jdbcUrl   连接URL，用于在建立连接之前选择驱动参数
+     */
+    boolean matchesUrl(String jdbcUrl);
+
+    /**
+     * @param productName   DatabaseMetaData.getDatabaseProductName()，小写
+     */
+    boolean matchesProduct(String productName);
+
+    /**
+     * 为查询语句加上分页，pageNo从1开始
+     */
+    void pager(StringBuffer sql, List<Object> params, int pageSize, int pageNo);
+
+    /**
+     * IN列表的最大长度，超过时拆分为多个IN用or连接，0表示不限制
+     */
+    default int getMaxInListSize() {
+        return 0;
+    }
+
+    /**
+     * 是否使用序列生成主键，日期参数是否需要to_date（Oracle）
+     */
+    default boolean usesSequence() {
+        return false;
+    }
+
+    /**
+     * 生成upsert语句（存在则更新，不存在则插入），参数按columns的顺序绑定
+     *
+     * @param table     表名
+     * @param keys      判断记录是否存在的列（主键或唯一索引）
+     * @param columns   写入的列，包含keys
+     */
+    default String upsert(String table, List<String> keys, List<String> columns) {
+        throw new UnsupportedOperationException(getName() + "不支持upsert，请使用insert或update语句写入");
+    }
+
+    /**
+     * 设置语句以流的方式读取结果，而不是一次读入全部行。
+     * 如果这里关闭了auto-commit，调用方读取完成后提交并恢复auto-commit，否则连接池归还连接时会回滚查询的副作用
+     */
+    default void prepareStreaming(Connection conn, Statement stmt, int fetchSize) throws SQLException {
+        stmt.setFetchSize(fetchSize);
+    }
+
+    /**
+     * 加在查询语句（包括分页）之后的行锁子句，多个读取方可以并发读取不同的行，不支持时返回空字符串
+     *
+     * @param databaseMajorVersion  DatabaseMetaData.getDatabaseMajorVersion()
+     */
+    default String skipLocked(int databaseMajorVersion) {
+        return " for update";
+    }
+
+    /**
+     * 字符串列的=比较是否与String.equals一致（区分大小写，不忽略尾部空格），一致时可以在内存中比较。
+     * 默认返回false，例如MySQL和SQL Server的默认排序规则不区分大小写并忽略尾部空格
+     *
+     * @param column    VARCHAR等变长字符串列
+     */
+    default boolean comparesExactly(TableMetadata.Column column) {
+        return false;
+    }
+
+    /**
+     * 推荐的驱动参数（如批量插入改写），连接URL中已经指定的参数不会被覆盖
+     */
+    default Map<String, String> getDriverProperties() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,58 @@
+package cn.ffcs.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * 方言注册表：先查找通过ServiceLoader注册的方言，再查找内置方言，都不匹配时使用GenericDialect
+ */
+public final class Dialects {
+
+    private static final List<Dialect> DIALECTS;
+
+    static {
+        List<Dialect> dialects = new ArrayList<>();
+        for (Dialect dialect : ServiceLoader.load(Dialect.class)) {
+            dialects.add(dialect);
+        }
+        dialects.add(new MySQLDialect());
+        dialects.add(new PostgreSQLDialect());
+        dialects.add(new OracleDialect());
+        dialects.add(new SQLServerDialect());
+        dialects.add(new H2Dialect());
+        DIALECTS = Collections.unmodifiableList(dialects);
+    }
+
+    private static final Dialect GENERIC = new GenericDialect();
+
+    private Dialects() {
+    }
+
+    /**
+     * @param productName   DatabaseMetaData.getDatabaseProductName()
+     */
+    public static Dialect forProductName(String productName) {
+        String name = productName == null ? "" : productName.toLowerCase();
+        for (Dialect dialect : DIALECTS) {
+            if (dialect.matchesProduct(name)) {
+                return dialect;
+            }
+        }
+        return GENERIC;
+    }
+
+    /**
+     * @param jdbcUrl   连接URL
+     */
+    public static Dialect forUrl(String jdbcUrl) {
+        String url = jdbcUrl == null ? "" : jdbcUrl.toLowerCase();
+        for (Dialect dialect : DIALECTS) {
+            if (dialect.matchesUrl(url)) {
+                return dialect;
+            }
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,78 @@
+package cn.ffcs.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 未知数据库使用的方言，分页使用大多数数据库支持的limit ? offset ?，也是内置方言的基类
+ */
+public class GenericDialect implements Dialect {
+
+    @Override
+    public String getName() {
+        return "generic";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return false;
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return false;
+    }
+
+    @Override
+    public void pager(StringBuffer sql, List<Object> params, int pageSize, int pageNo) {
+        sql.append(" limit ? offset ?");
+        params.add(pageSize);
+        params.add(pageSize * (pageNo - 1));
+    }
+
+    protected static String insert(String table, List<String> columns) {
+        return String.format("insert into %s (%s) values (%s)", table, join(columns, "%s"),
+                questionMarks(columns.size()));
+    }
+
+    protected static List<String> nonKeys(List<String> keys, List<String> columns) {
+        List<String> nonKeys = new ArrayList<>(columns);
+        nonKeys.removeAll(keys);
+        return nonKeys;
+    }
+
+    /**
+     * MERGE语句（Oracle、SQL Server），source为参数组成的单行数据，别名为s
+     */
+    protected static String merge(String table, List<String> keys, List<String> columns, String source) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("merge into ").append(table).append(" t using ").append(source);
+        sql.append(" on (").append(join(keys, "t.%1$s=s.%1$s", " and ")).append(")");
+        String updates = join(nonKeys(keys, columns), "t.%1$s=s.%1$s");
+        if (!updates.isEmpty()) {
+            sql.append(" when matched then update set ").append(updates);
+        }
+        sql.append(" when not matched then insert (").append(join(columns, "%s")).append(") values (")
+                .append(join(columns, "s.%s")).append(")");
+        return sql.toString();
+    }
+
+    protected static String join(List<String> columns, String format) {
+        return join(columns, format, ",");
+    }
+
+    protected static String join(List<String> columns, String format, String separator) {
+        StringBuilder buf = new StringBuilder();
+        for (String column : columns) {
+            if (buf.length() > 0) {
+                buf.append(separator);
+            }
+            buf.append(String.format(format, column));
+        }
+        return buf.toString();
+    }
+
+    protected static String questionMarks(int n) {
+        return PreparedStatementHandler.getInstance().generateQuestionMarks(n);
+    }
+}
@@ -0,0 +1,38 @@
+package cn.ffcs.memory;
+
+import java.util.List;
+
+/**
+ * H2
+ */
+public class H2Dialect extends GenericDialect {
+
+    @Override
+    public String getName() {
+        return "h2";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return jdbcUrl.startsWith("jdbc:h2:");
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return productName.equals("h2");
+    }
+
+    @Override
+    public String upsert(String table, List<String> keys, List<String> columns) {
+        return String.format("merge into %s (%s) key (%s) values (%s)", table, join(columns, "%s"),
+                join(keys, "%s"), questionMarks(columns.size()));
+    }
+
+    /**
+     * IGNORECASE=TRUE时建的列为VARCHAR_IGNORECASE
+     */
+    @Override
+    public boolean comparesExactly(TableMetadata.Column column) {
+        return column.getTypeName() == null || !column.getTypeName().toUpperCase().contains("IGNORECASE");
+    }
+}
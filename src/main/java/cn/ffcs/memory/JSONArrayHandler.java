@@ -1,17 +1,22 @@
 package cn.ffcs.memory;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
+import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,38 +55,10 @@ public class JSONArrayHandler implements ResultSetHandler<ArrayNode> {
                         columnName = underscore2Camel(columnName);
                     }
                     Object value = rs.getObject(columnName);
-                    if (value == null) {
-                        object.putNull(columnName);
-                    } else if (value instanceof Date) {
-                        // object.put(columnName, ((Date) value).getTime());
+                    if (value instanceof Date) {
                         value = rs.getTimestamp(columnName);
-                        object.put(columnName, sdf.format((Date) value));
-                    } else if (value instanceof Clob) {
-                        Clob clob = (Clob) value;
-                        object.put(columnName, clob.getSubString((long) 1, (int) clob.length()));
-                    } else if (value instanceof Integer) {
-                        object.put(columnName, (Integer) value);
-                    } else if (value instanceof String) {
-                        object.put(columnName, (String) value);
-                    } else if (value instanceof Boolean) {
-                        object.put(columnName, (Boolean) value);
-                    } else if (value instanceof Long) {
-                        object.put(columnName, (Long) value);
-                    } else if (value instanceof Double) {
-                        object.put(columnName, (Double) value);
-                    } else if (value instanceof Float) {
-                        object.put(columnName, (Float) value);
-                    } else if (value instanceof BigDecimal) {
-                        object.put(columnName, (BigDecimal) value);
-                    } else if (value instanceof Byte) {
-                        object.put(columnName, (Byte) value);
-                    } else if (value instanceof byte[]) {
-                        object.put(columnName, (byte[]) value);
-                    } else {
-                        throw new IllegalArgumentException("Unmappable object type: " + value.getClass());
                     }
-
-
+                    put(object, columnName, value);
                 }
                 array.add(object);
             }
@@ -91,6 +68,80 @@ public class JSONArrayHandler implements ResultSetHandler<ArrayNode> {
         }
     }
 
+    /**
+     * 将一行已经读取出来的数据转换为JSON，列名和值按位置对应
+     */
+    public JsonNode toJSON(String[] columnNames, Object[] values) {
+        if (columnNames.length == 1) {
+            return values[0] == null ? mapper.getNodeFactory().nullNode()
+                    : mapper.getNodeFactory().textNode(values[0].toString());
+        }
+        ObjectNode object = mapper.createObjectNode();
+        try {
+            for (int i = 0; i < columnNames.length; i++) {
+                String columnName = camel ? underscore2Camel(columnNames[i]) : columnNames[i];
+                put(object, columnName, values[i]);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return object;
+    }
+
+    private void put(ObjectNode object, String columnName, Object value) throws SQLException {
+        if (value == null) {
+            object.putNull(columnName);
+        } else if (value instanceof Date) {
+            // object.put(columnName, ((Date) value).getTime());
+            object.put(columnName, sdf.format((Date) value));
+        } else if (value instanceof Clob) {
+            object.put(columnName, readClob((Clob) value));
+        } else if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            object.put(columnName, blob.getBytes(1, (int) blob.length()));
+        } else if (value instanceof Map) {
+            // 超长的LOB值由调用方替换为描述信息(长度、是否截断等)
+            object.set(columnName, mapper.valueToTree(value));
+        } else if (value instanceof Integer) {
+            object.put(columnName, (Integer) value);
+        } else if (value instanceof String) {
+            object.put(columnName, (String) value);
+        } else if (value instanceof Boolean) {
+            object.put(columnName, (Boolean) value);
+        } else if (value instanceof Long) {
+            object.put(columnName, (Long) value);
+        } else if (value instanceof Double) {
+            object.put(columnName, (Double) value);
+        } else if (value instanceof Float) {
+            object.put(columnName, (Float) value);
+        } else if (value instanceof BigDecimal) {
+            object.put(columnName, (BigDecimal) value);
+        } else if (value instanceof Byte) {
+            object.put(columnName, (Byte) value);
+        } else if (value instanceof byte[]) {
+            object.put(columnName, (byte[]) value);
+        } else {
+            throw new IllegalArgumentException("Unmappable object type: " + value.getClass());
+        }
+    }
+
+    /**
+     * 通过字符流读取CLOB，避免getSubString对长度的int截断
+     */
+    static String readClob(Clob clob) throws SQLException {
+        StringBuilder buf = new StringBuilder();
+        char[] chars = new char[8192];
+        try (Reader reader = clob.getCharacterStream()) {
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                buf.append(chars, 0, read);
+            }
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        return buf.toString();
+    }
+
     private String underscore2Camel(String underscore) {
         StringBuffer buf = new StringBuffer();
         underscore = underscore.toLowerCase();
@@ -45,8 +45,7 @@ public class JSONObjectHandler implements ResultSetHandler<ObjectNode> {
                         value = rs.getTimestamp(columnName);
                         object.put(columnName, dateFormat.format((Date) value));
                     } else if (value instanceof Clob) {
-                        Clob clob = (Clob) value;
-                        object.put(columnName, clob.getSubString((long) 1, (int) clob.length()));
+                        object.put(columnName, JSONArrayHandler.readClob((Clob) value));
                     } else if (value instanceof Integer) {
                         object.put(columnName, (Integer) value);
                     } else if (value instanceof String) {
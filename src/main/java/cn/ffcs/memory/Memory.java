@@ -5,37 +5,57 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 
 public class Memory {
 
+    /**
+     * 超过该长度的字符串和字节数组以流的方式绑定（Oracle的VARCHAR2最多4000字节）
+     */
+    public static final int DEFAULT_STREAM_THRESHOLD = 4000;
+
+    /**
+     * 以{"$base64": "..."}形式传入的参数按二进制流绑定
+     */
+    public static final String BASE64_KEY = "$base64";
+
     private DataSource ds;
-    private boolean sequence;
+    private int streamThreshold = DEFAULT_STREAM_THRESHOLD;
+    private volatile ChunkedBatch chunkedBatch = new ChunkedBatch();
+    private final MetadataRegistry metadata;
+    private final Dialect dialect;
+    private final UpsertStatements upsertStatements;
+    private final StatementCache statementCache;
     private PreparedStatementHandler psh;
 
+    /**
+     * 方言（分页、是否使用序列做主键等）取自该连接池共用的{@link MetadataRegistry}，只在第一次创建时读取
+     */
     public Memory(DataSource ds) {
-        this.ds = ds;
-        this.psh = PreparedStatementHandler.getInstance();
-        sequence();
+        this(ds, 0);
     }
 
     /**
-     * 判断是否使用序列（Oracle使用序列做主键，MySQL使用自增主键)
+     * @param statementCacheSize    每个物理连接缓存的PreparedStatement数，0表示不缓存，见{@link StatementCache}
      */
-    private void sequence() {
-        Connection conn = this.getConnection();
-        try {
-            sequence = conn.getMetaData().getDatabaseProductName().toLowerCase().contains("oracle");
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            this.close(conn);
-        }
+    public Memory(DataSource ds, int statementCacheSize) {
+        this.ds = ds;
+        this.statementCache = new StatementCache(statementCacheSize);
+        this.psh = PreparedStatementHandler.getInstance();
+        this.metadata = MetadataRegistry.forDataSource(ds);
+        this.dialect = metadata.getDialect();
+        this.upsertStatements = new UpsertStatements(dialect);
     }
 
     public <T> T query(StringBuffer sql, ResultSetHandler<T> rsh,
@@ -63,7 +83,7 @@ public class Memory {
         ResultSet rs = null;
         T result = null;
         try {
-            sql = psh.adjust(sequence, sql, params);
+            sql = psh.adjust(dialect.usesSequence(), sql, params);
             stmt = conn.prepareStatement(sql);
             this.fillStatement(stmt, params);
             rs = stmt.executeQuery();
@@ -94,7 +114,7 @@ public class Memory {
         PreparedStatement stmt = null;
         int rows = 0;
         try {
-            sql = psh.adjust(sequence, sql, params);
+            sql = psh.adjust(dialect.usesSequence(), sql, params);
             stmt = conn.prepareStatement(sql);
             this.fillStatement(stmt, params);
             rows = stmt.executeUpdate();
@@ -111,29 +131,170 @@ public class Memory {
         return this.batch(this.getConnection(), sql, params);
     }
 
+    /**
+     * 分块执行批处理。commitPerChunk为false时所有语句在一个事务中执行，任何失败都会回滚；
+     * 为true时每块单独提交，失败的语句被跳过，结果中对应的值为Statement.EXECUTE_FAILED
+     */
     public int[] batch(Connection conn, String sql, Object[][] params) {
+        try {
+            return executeBatch(conn, sql, params, !chunkedBatch.isCommitPerChunk()).getUpdateCounts();
+        } finally {
+            close(conn);
+        }
+    }
+
+    /**
+     * 执行批处理，不关闭连接
+     *
+     * @param transaction   是否在一个事务中执行所有语句，任何失败都会回滚；否则按auto-commit（或commitPerChunk）执行，
+     *                      失败的语句记录在结果中，其余语句照常提交
+     */
+    private ChunkedBatch.BatchResult executeBatch(Connection conn, String sql, Object[][] params,
+                                                  boolean transaction) {
         PreparedStatement stmt = null;
-        int[] rows = null;
+        ChunkedBatch.BatchResult rows = null;
+        ChunkedBatch batch = this.chunkedBatch;
         try {
-            conn.setAutoCommit(false);
-            sql = psh.adjustSQL(sequence, sql, params[0]);
+            if (transaction) {
+                conn.setAutoCommit(false);
+            }
+            sql = psh.adjustSQL(dialect.usesSequence(), sql, params[0]);
             stmt = conn.prepareStatement(sql);
-            for (int i = 0; i < params.length; i++) {
+            final PreparedStatement ps = stmt;
+            rows = batch.execute(conn, stmt, params.length, i -> {
                 psh.adjustParams(params[i]);
-                this.fillStatement(stmt, params[i]);
-                stmt.addBatch();
+                this.fillStatement(ps, params[i]);
+                ps.addBatch();
+            });
+            if (transaction) {
+                conn.commit();
             }
-            rows = stmt.executeBatch();
-            conn.commit();
-            conn.setAutoCommit(true);
         } catch (SQLException e) {
+            if (transaction) {
+                rollback(conn);
+            }
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            if (transaction) {
+                rollback(conn);
+            }
+            throw e;
         } finally {
-            close(stmt, conn);
+            // 无论成功与否都恢复auto-commit，否则连接会以事务状态归还连接池
+            if (transaction) {
+                resetAutoCommit(conn);
+            }
+            close(stmt, null);
         }
         return rows;
     }
 
+    public ChunkedBatch.BatchResult upsert(String table, List<String> keys, List<Map<String, Object>> rows) {
+        return upsert(this.getConnection(), table, keys, rows);
+    }
+
+    /**
+     * 批量upsert：keys对应的记录存在则更新，否则插入。MySQL使用on duplicate key update，PostgreSQL使用on conflict，
+     * Oracle、SQL Server和H2使用merge。列相同的行使用同一条语句分块批量执行，结果按rows的顺序返回。
+     * 失败的行不影响其他行：commitPerChunk为false时按auto-commit执行，失败的行记录在结果中
+     */
+    public ChunkedBatch.BatchResult upsert(Connection conn, String table, List<String> keys,
+                                           List<Map<String, Object>> rows) {
+        // 按列分组，缺少的列不能当作null写入，否则会覆盖已有的值
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            List<String> columns = new ArrayList<>(rows.get(i).keySet());
+            if (groupKeys(keys, columns) == null) {
+                close(conn);
+                throw new IllegalArgumentException("第" + i + "行缺少主键列: " + keys);
+            }
+            groups.computeIfAbsent(columns, k -> new ArrayList<>()).add(i);
+        }
+        // 执行前生成所有语句，方言不支持upsert时不写入任何行
+        List<String> statements = new ArrayList<>(groups.size());
+        try {
+            for (List<String> columns : groups.keySet()) {
+                statements.add(upsertStatements.get(table, groupKeys(keys, columns), columns));
+            }
+        } catch (RuntimeException e) {
+            close(conn);
+            throw e;
+        }
+
+        ChunkedBatch.BatchResult result = new ChunkedBatch.BatchResult(rows.size());
+        TableMetadata tableMetadata = tableMetadata(table);
+        try {
+            int statement = 0;
+            for (Map.Entry<List<String>, List<Integer>> group : groups.entrySet()) {
+                List<String> columns = group.getKey();
+                List<Integer> indexes = group.getValue();
+                Object[][] params = new Object[indexes.size()][];
+                for (int i = 0; i < indexes.size(); i++) {
+                    Map<String, Object> row = rows.get(indexes.get(i));
+                    params[i] = new Object[columns.size()];
+                    for (int j = 0; j < columns.size(); j++) {
+                        params[i][j] = coerce(tableMetadata, columns.get(j), row.get(columns.get(j)));
+                    }
+                }
+                result.merge(executeBatch(conn, statements.get(statement++), params, false), indexes);
+            }
+        } catch (RuntimeException e) {
+            invalidateOnSchemaError(table, e.getCause());
+            throw e;
+        } finally {
+            close(conn);
+        }
+        return result;
+    }
+
+    /**
+     * 按不区分大小写的列名在columns中找到keys（如从元数据读到的大写主键列名），返回columns中的写法，缺少时返回null。
+     * keys和columns的写法必须一致，否则方言会把主键列也放进update部分
+     */
+    private static List<String> groupKeys(List<String> keys, List<String> columns) {
+        List<String> groupKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String match = null;
+            for (String column : columns) {
+                if (column.equals(key)) {
+                    match = column;
+                    break;
+                } else if (match == null && column.equalsIgnoreCase(key)) {
+                    match = column;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            groupKeys.add(match);
+        }
+        return groupKeys;
+    }
+
+    public void setChunkedBatch(ChunkedBatch chunkedBatch) {
+        this.chunkedBatch = chunkedBatch;
+    }
+
+    public ChunkedBatch getChunkedBatch() {
+        return chunkedBatch;
+    }
+
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void resetAutoCommit(Connection conn) {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public <T> int create(Class<T> cls, T bean) {
         return this.create(this.getConnection(), cls, bean);
     }
@@ -168,7 +329,7 @@ public class Memory {
                  * 非自定义主键，则ID作为主键且使用序列或自增主键
                  */
                 if (!customKey && name.equals("id")) {
-                    if (sequence) {
+                    if (dialect.usesSequence()) {
                         columns += "id,";
                         questionMarks += table + "_SEQ.NEXTVAL,";
                     }
@@ -185,13 +346,13 @@ public class Memory {
             String sql = String.format("insert into %s (%s) values (%s)",
                     table, columns, questionMarks);
 
-            sql = psh.adjust(sequence, sql, params);
+            sql = psh.adjust(dialect.usesSequence(), sql, params);
 
             /**
              * 如果使用非自定义主键，则返回主键ID的值
              */
             if (!customKey) {
-                if (sequence) {
+                if (dialect.usesSequence()) {
                     String[] generatedColumns = {"id"};
                     stmt = conn.prepareStatement(sql, generatedColumns);
                 } else {
@@ -258,9 +419,10 @@ public class Memory {
             String columns = "", questionMarks = "";
             Object[] params = new Object[keys.length];
 
+            TableMetadata tableMetadata = tableMetadata(tableName);
             int j = 0;
             for (Object columnName : keys) {
-                Object value = data.get(columnName);
+                Object value = coerce(tableMetadata, columnName.toString(), data.get(columnName));
                 /**
                  * 非自定义主键，则ID作为主键且使用序列或自增主键
                  */
@@ -273,7 +435,7 @@ public class Memory {
             questionMarks = questionMarks.substring(0, questionMarks.length() - 1);
             String sql = String.format("insert into %s (%s) values (%s)", tableName, columns, questionMarks);
 
-            sql = psh.adjust(sequence, sql, params);
+            sql = psh.adjust(dialect.usesSequence(), sql, params);
 
             /**
              * 如果使用非自定义主键，则返回主键ID的值
@@ -286,6 +448,7 @@ public class Memory {
                 rows = stmt.executeUpdate();
             } catch (SQLException e) {
                 psh.print(sql, params);
+                invalidateOnSchemaError(tableName, e);
                 throw new RuntimeException(e);
             }
         } catch (IllegalArgumentException e) {
@@ -326,7 +489,7 @@ public class Memory {
         for (PropertyDescriptor pd : pds) {
             String name = pd.getName();
             if (!customKey && name.equals("id")) {
-                if (sequence) {
+                if (dialect.usesSequence()) {
                     columns += "id,";
                     questionMarks += table + "_SEQ.NEXTVAL,";
                 }
@@ -511,33 +674,105 @@ public class Memory {
 
     public void pager(StringBuffer sql, List<Object> params, int pageSize,
                       int pageNo) {
-        psh.pager(sequence, sql, params, pageSize, pageNo);
+        dialect.pager(sql, params, pageSize, pageNo);
     }
 
     public <T> void in(StringBuffer sql, List<Object> params, String operator,
                        String field, List<T> values) {
-        psh.in(sequence, sql, params, operator, field, values);
+        psh.in(dialect.getMaxInListSize(), sql, params, operator, field, values);
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return  该连接池共用的元数据缓存
+     */
+    public MetadataRegistry getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * 表结构变化（DDL）后清除所有表的元数据，已缓存的语句在各连接下次使用时重新预编译
+     */
+    public void invalidateSchema() {
+        metadata.invalidateAll();
+        statementCache.invalidate();
+    }
+
+    /**
+     * @return  该Memory借出的连接使用的语句缓存
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * @return  表的元数据，表不存在或读取失败时为null（此时不转换参数，由数据库报告错误）
+     */
+    private TableMetadata tableMetadata(String table) {
+        try {
+            TableMetadata tableMetadata = metadata.getTable(table);
+            return tableMetadata.exists() ? tableMetadata : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Object coerce(TableMetadata tableMetadata, String column, Object value) {
+        return tableMetadata == null ? value : tableMetadata.coerce(column, value);
+    }
+
+    /**
+     * 表、列不存在等错误可能是表结构被修改了，清除该表的元数据缓存
+     */
+    private void invalidateOnSchemaError(String table, Throwable e) {
+        if (e instanceof SQLException && MetadataRegistry.isSchemaError((SQLException) e)) {
+            metadata.invalidate(table);
+            statementCache.invalidate();
+        }
     }
 
+    /**
+     * @return  从连接池借出的连接，启用语句缓存时prepareStatement使用缓存
+     */
     public Connection getConnection() {
         try {
-            return this.ds.getConnection();
+            return statementCache.wrap(this.ds.getConnection());
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    public void setStreamThreshold(int streamThreshold) {
+        this.streamThreshold = streamThreshold;
+    }
+
     private void fillStatement(PreparedStatement stmt, Object... params) {
         if (params == null)
             return;
         try {
             for (int i = 0; i < params.length; i++) {
+                Object param = params[i];
                 // hack oracle's bug (version <= 9)
-                if (sequence && params[i] == null) {
+                if (dialect.usesSequence() && param == null) {
                     stmt.setNull(i + 1, Types.VARCHAR);
 
+                } else if (param instanceof String && ((String) param).length() > streamThreshold) {
+                    // 大文本以字符流绑定，驱动不需要再复制一份
+                    String text = (String) param;
+                    stmt.setCharacterStream(i + 1, new StringReader(text), text.length());
+                } else if (param instanceof byte[] && ((byte[]) param).length > streamThreshold) {
+                    byte[] bytes = (byte[]) param;
+                    stmt.setBinaryStream(i + 1, new ByteArrayInputStream(bytes), bytes.length);
+                } else if (isBase64(param)) {
+                    // 边读边解码，不生成完整的byte[]
+                    String base64 = (String) ((Map) param).get(BASE64_KEY);
+                    stmt.setBinaryStream(i + 1, Base64.getDecoder().wrap(new AsciiInputStream(base64)),
+                            decodedLength(base64));
                 } else {
-                    stmt.setObject(i + 1, params[i]);
+                    stmt.setObject(i + 1, param);
                 }
             }
         } catch (SQLException e) {
@@ -545,6 +780,49 @@ public class Memory {
         }
     }
 
+    private static boolean isBase64(Object param) {
+        return param instanceof Map && ((Map) param).size() == 1
+                && ((Map) param).get(BASE64_KEY) instanceof String;
+    }
+
+    private static long decodedLength(String base64) {
+        int length = base64.length();
+        int padding = 0;
+        while (padding < 2 && length - padding > 0 && base64.charAt(length - padding - 1) == '=') {
+            padding++;
+        }
+        return (long) length / 4 * 3 - padding;
+    }
+
+    /**
+     * 按ASCII读取字符串，用于base64解码
+     */
+    private static class AsciiInputStream extends InputStream {
+        private final String text;
+        private int pos = 0;
+
+        AsciiInputStream(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read() {
+            return pos < text.length() ? text.charAt(pos++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= text.length()) {
+                return -1;
+            }
+            int n = Math.min(len, text.length() - pos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) text.charAt(pos++);
+            }
+            return n;
+        }
+    }
+
     private void close(ResultSet rs, Statement stmt, Connection conn) {
         try {
             if (rs != null) {
@@ -0,0 +1,227 @@
+package cn.ffcs.memory;
+
+import javax.sql.DataSource;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每个DataSource共用一个元数据缓存：数据库产品、方言，以及用到时才读取的表元数据（列、主键、索引）。
+ * 同一个连接池上创建的多个Memory不再各自借用连接查询DatabaseMetaData。
+ *
+ * 表结构可能被修改，执行DDL或出现表、列不存在之类的错误（SQLState 42xxx）时调用{@link #invalidate(String)}或
+ * {@link #invalidateAll()}，下次使用时重新读取
+ */
+public class MetadataRegistry {
+
+    /**
+     * DataSource关闭并被回收后，对应的缓存也随之回收
+     */
+    private static final Map<DataSource, MetadataRegistry> REGISTRIES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    // 弱引用，否则WeakHashMap的值引用键，DataSource永远不会被回收
+    private final WeakReference<DataSource> ds;
+    private volatile Dialect dialect;
+    private volatile int databaseMajorVersion;
+    private final ConcurrentMap<String, TableMetadata> tables = new ConcurrentHashMap<>();
+
+    private MetadataRegistry(DataSource ds) {
+        this.ds = new WeakReference<>(ds);
+    }
+
+    /**
+     * @param ds    连接池
+     * @return      该连接池的元数据缓存，第一次调用时创建
+     */
+    public static MetadataRegistry forDataSource(DataSource ds) {
+        return REGISTRIES.computeIfAbsent(ds, MetadataRegistry::new);
+    }
+
+    /**
+     * 连接池关闭时移除其缓存
+     */
+    public static void remove(DataSource ds) {
+        REGISTRIES.remove(ds);
+    }
+
+    /**
+     * @return  根据数据库产品名称选择的方言，第一次调用时借用一个连接读取
+     */
+    public Dialect getDialect() {
+        if (dialect == null) {
+            loadProduct();
+        }
+        return dialect;
+    }
+
+    /**
+     * @return  DatabaseMetaData.getDatabaseMajorVersion()
+     */
+    public int getDatabaseMajorVersion() {
+        if (dialect == null) {
+            loadProduct();
+        }
+        return databaseMajorVersion;
+    }
+
+    private synchronized void loadProduct() {
+        if (dialect != null) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            databaseMajorVersion = metaData.getDatabaseMajorVersion();
+            dialect = Dialects.forProductName(metaData.getDatabaseProductName());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param table 表名，可以带schema（schema.table），不区分大小写
+     * @return      表的元数据，第一次使用时读取；表不存在时{@link TableMetadata#exists()}为false，且不缓存
+     */
+    public TableMetadata getTable(String table) {
+        String key = table.toUpperCase(Locale.ROOT);
+        TableMetadata metadata = tables.get(key);
+        if (metadata == null) {
+            // 不在computeIfAbsent中读取，避免查询数据库时阻塞其他表
+            metadata = loadTable(table);
+            if (!metadata.exists()) {
+                return metadata;
+            }
+            TableMetadata existing = tables.putIfAbsent(key, metadata);
+            if (existing != null) {
+                metadata = existing;
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * 表结构变化后清除该表的缓存
+     */
+    public void invalidate(String table) {
+        if (table != null) {
+            tables.remove(table.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * 清除所有表的缓存，方言和数据库版本保留
+     */
+    public void invalidateAll() {
+        tables.clear();
+    }
+
+    /**
+     * @return  错误是否可能由表结构变化引起（表、列不存在等，SQLState以42开头）
+     */
+    public static boolean isSchemaError(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next.getSQLState() != null && next.getSQLState().startsWith("42")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return  语句是否为DDL，执行后需要清除缓存
+     */
+    public static boolean isDDL(String sql) {
+        String statement = sql.trim().toLowerCase(Locale.ROOT);
+        return statement.startsWith("create") || statement.startsWith("alter") || statement.startsWith("drop")
+                || statement.startsWith("rename") || statement.startsWith("truncate");
+    }
+
+    private TableMetadata loadTable(String table) {
+        String schema = null;
+        String name = table;
+        int dot = table.lastIndexOf('.');
+        if (dot > 0) {
+            schema = table.substring(0, dot);
+            name = table.substring(dot + 1);
+        }
+        try (Connection conn = getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            // 各数据库保存表名的大小写不同，依次尝试原样、大写和小写
+            String[][] candidates = {{schema, name},
+                    {schema == null ? null : schema.toUpperCase(Locale.ROOT), name.toUpperCase(Locale.ROOT)},
+                    {schema == null ? null : schema.toLowerCase(Locale.ROOT), name.toLowerCase(Locale.ROOT)}};
+            for (String[] candidate : candidates) {
+                TableMetadata metadata = readTable(conn, metaData, candidate[0], candidate[1]);
+                if (metadata.exists()) {
+                    return metadata;
+                }
+            }
+            return new TableMetadata(name);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        DataSource dataSource = ds.get();
+        if (dataSource == null) {
+            throw new SQLException("DataSource已被回收");
+        }
+        return dataSource.getConnection();
+    }
+
+    private static TableMetadata readTable(Connection conn, DatabaseMetaData metaData, String schema, String name)
+            throws SQLException {
+        TableMetadata metadata = new TableMetadata(name);
+        String catalog = conn.getCatalog();
+        try (ResultSet rs = metaData.getColumns(catalog, schema, name, null)) {
+            while (rs.next()) {
+                metadata.addColumn(new TableMetadata.Column(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"),
+                        rs.getString("TYPE_NAME"), rs.getInt("COLUMN_SIZE"),
+                        rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls));
+            }
+        }
+        if (!metadata.exists()) {
+            return metadata;
+        }
+
+        // getPrimaryKeys按列名排序，按KEY_SEQ恢复主键中的顺序
+        String[] primaryKey = new String[0];
+        try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, name)) {
+            while (rs.next()) {
+                int seq = rs.getInt("KEY_SEQ");
+                if (seq > primaryKey.length) {
+                    primaryKey = Arrays.copyOf(primaryKey, seq);
+                }
+                primaryKey[seq - 1] = rs.getString("COLUMN_NAME");
+            }
+        }
+        for (String column : primaryKey) {
+            if (column != null) {
+                metadata.addPrimaryKeyColumn(column);
+            }
+        }
+
+        try (ResultSet rs = metaData.getIndexInfo(catalog, schema, name, false, true)) {
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (indexName != null && column != null) {
+                    metadata.addIndexColumn(indexName, !rs.getBoolean("NON_UNIQUE"), column);
+                }
+            }
+        } catch (SQLException e) {
+            // 部分数据库或没有权限时无法读取索引，不影响列和主键
+        }
+        return metadata;
+    }
+}
@@ -0,0 +1,72 @@
+package cn.ffcs.memory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MySQL和MariaDB
+ */
+public class MySQLDialect extends GenericDialect {
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return jdbcUrl.startsWith("jdbc:mysql:") || jdbcUrl.startsWith("jdbc:mariadb:");
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return productName.contains("mysql") || productName.contains("mariadb");
+    }
+
+    @Override
+    public void pager(StringBuffer sql, List<Object> params, int pageSize, int pageNo) {
+        sql.append(" limit ?, ?");
+        params.add(pageSize * (pageNo - 1));
+        params.add(pageSize);
+    }
+
+    @Override
+    public String upsert(String table, List<String> keys, List<String> columns) {
+        String updates = join(nonKeys(keys, columns), "%1$s=values(%1$s)");
+        // 只有主键列时保持原值，避免语法错误
+        return insert(table, columns) + " on duplicate key update "
+                + (updates.isEmpty() ? String.format("%1$s=%1$s", keys.get(0)) : updates);
+    }
+
+    /**
+     * Connector/J只有fetchSize为Integer.MIN_VALUE时才逐行读取，否则会读入全部结果
+     */
+    @Override
+    public void prepareStreaming(Connection conn, Statement stmt, int fetchSize) throws SQLException {
+        stmt.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    /**
+     * skip locked从MySQL 8.0开始支持
+     */
+    @Override
+    public String skipLocked(int databaseMajorVersion) {
+        return databaseMajorVersion >= 8 ? " for update skip locked" : " for update";
+    }
+
+    /**
+     * 批处理改写为多行insert，缓存预编译语句
+     */
+    @Override
+    public Map<String, String> getDriverProperties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("rewriteBatchedStatements", "true");
+        properties.put("cachePrepStmts", "true");
+        properties.put("prepStmtCacheSize", "250");
+        return properties;
+    }
+}
@@ -0,0 +1,77 @@
+package cn.ffcs.memory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Oracle，使用序列做主键，rownum分页（兼容12c以前的版本）
+ */
+public class OracleDialect extends GenericDialect {
+
+    @Override
+    public String getName() {
+        return "oracle";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return jdbcUrl.startsWith("jdbc:oracle:");
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return productName.contains("oracle");
+    }
+
+    @Override
+    public void pager(StringBuffer sql, List<Object> params, int pageSize, int pageNo) {
+        String format = "select * from (select t.*, rownum rn from (%s) t where rownum <= ?) where rn >= ?";
+        sql.replace(0, sql.length(), String.format(format, sql));
+
+        params.add(pageSize * pageNo);
+        params.add(pageSize * (pageNo - 1) + 1);
+    }
+
+    /**
+     * 解决ORA-01795问题
+     */
+    @Override
+    public int getMaxInListSize() {
+        return 1000;
+    }
+
+    @Override
+    public boolean usesSequence() {
+        return true;
+    }
+
+    /**
+     * VARCHAR2按非填充方式比较，区分大小写
+     */
+    @Override
+    public boolean comparesExactly(TableMetadata.Column column) {
+        return true;
+    }
+
+    @Override
+    public String upsert(String table, List<String> keys, List<String> columns) {
+        return merge(table, keys, columns, "(select " + join(columns, "? %s") + " from dual) s");
+    }
+
+    /**
+     * rownum分页的子查询不能加for update（ORA-02014）
+     */
+    @Override
+    public String skipLocked(int databaseMajorVersion) {
+        return "";
+    }
+
+    /**
+     * 驱动默认每次只读取10行
+     */
+    @Override
+    public Map<String, String> getDriverProperties() {
+        return Collections.singletonMap("defaultRowPrefetch", "1000");
+    }
+}
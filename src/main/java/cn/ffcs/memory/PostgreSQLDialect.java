@@ -0,0 +1,69 @@
+package cn.ffcs.memory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PostgreSQL，不支持MySQL的limit ?, ?
+ */
+public class PostgreSQLDialect extends GenericDialect {
+
+    @Override
+    public String getName() {
+        return "postgresql";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return jdbcUrl.startsWith("jdbc:postgresql:");
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return productName.contains("postgresql");
+    }
+
+    @Override
+    public String upsert(String table, List<String> keys, List<String> columns) {
+        String updates = join(nonKeys(keys, columns), "%1$s=excluded.%1$s");
+        return insert(table, columns) + " on conflict (" + join(keys, "%s") + ")"
+                + (updates.isEmpty() ? " do nothing" : " do update set " + updates);
+    }
+
+    /**
+     * 驱动只有在事务中才使用游标分批读取，事务由调用方在读取完成后提交
+     */
+    @Override
+    public void prepareStreaming(Connection conn, Statement stmt, int fetchSize) throws SQLException {
+        conn.setAutoCommit(false);
+        stmt.setFetchSize(fetchSize);
+    }
+
+    /**
+     * citext不区分大小写
+     */
+    @Override
+    public boolean comparesExactly(TableMetadata.Column column) {
+        return !"citext".equalsIgnoreCase(column.getTypeName());
+    }
+
+    @Override
+    public String skipLocked(int databaseMajorVersion) {
+        return " for update skip locked";
+    }
+
+    /**
+     * 批处理改写为多行insert，默认分批读取结果
+     */
+    @Override
+    public Map<String, String> getDriverProperties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("reWriteBatchedInserts", "true");
+        properties.put("defaultRowFetchSize", "1000");
+        return properties;
+    }
+}
@@ -19,26 +19,11 @@ public final class PreparedStatementHandler {
 		return psh;
 	}
 
-	public void pager(boolean sequence, StringBuffer sql, List<Object> params,
-			int pageSize, int pageNo) {
-	
-		if (sequence) {
-			String format = "select * from (select t.*, rownum rn from (%s) t where rownum <= ?) where rn >= ?";
-			sql.replace(0, sql.length(), String.format(format, sql));
-			
-			params.add(pageSize * pageNo);
-			params.add(pageSize * (pageNo - 1) + 1);
-		} else {
-			sql.append(" limit ?, ?");
-			params.add(pageSize * (pageNo - 1));
-			params.add(pageSize);
-		}
-	}
-
 	/**
 	 * operator: and/or/where
+	 * maxInListSize: IN列表的最大长度，0表示不限制
 	 */
-	public <T> void in(boolean sequence, StringBuffer sql, List<Object> params, String operator,
+	public <T> void in(int maxInListSize, StringBuffer sql, List<Object> params, String operator,
 			String field, List<T> values){
 		if (values == null || values.size() == 0) {
 			throw new NullPointerException(); // 抛空指针异常，避免执行非预期的动作
@@ -47,14 +32,14 @@ public final class PreparedStatementHandler {
 		sql.append(" ");
 		sql.append(operator);
 		
-		if (sequence) {
+		if (maxInListSize > 0 && values.size() > maxInListSize) {
 			sql.append("(");
 			int size = values.size();
-			int period = 1000;
+			int period = maxInListSize;
 	
 			int n = (size % period == 0) ? size / period :  size / period + 1; 		
 			
-			// 解决ORA-01795问题
+			// 解决ORA-01795等IN列表长度限制问题
 			for (int i = 0; i < n; i++) {
 				sql.append(" ");
 				if (i > 0) {
@@ -96,6 +81,12 @@ public final class PreparedStatementHandler {
 		return buf.toString();
 	}
 
+	/* java.util.Date格式化为字符串绑定；java.sql的日期时间类型（如按列类型转换得到的参数）驱动可以直接绑定 */
+	private static boolean isUtilDate(Object value) {
+		return value instanceof Date && !(value instanceof java.sql.Timestamp)
+				&& !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time);
+	}
+
 	/* 调整语句 */
 	public String adjustSQL(boolean sequence, String sql, Object... params) {
 		if (!sequence)
@@ -105,7 +96,7 @@ public final class PreparedStatementHandler {
 		boolean found = false; // 包含时间参数
 		for (int i = 0; i < cols; i++) {
 			Object value = params[i];
-			if (value instanceof Date) {
+			if (isUtilDate(value)) {
 				args[i] = "to_date(?,'yyyy-mm-dd hh24:mi:ss')";
 				found = true;
 			} else {
@@ -125,7 +116,7 @@ public final class PreparedStatementHandler {
 			Object value = params[i];
 			if (value == null)
 				continue;
-			if (value instanceof Date) {
+			if (isUtilDate(value)) {
 				params[i] = sdfThreadLocal.get().format(value);
 			} else if (value.getClass().isEnum()) {
 				params[i] = params[i].toString();
@@ -145,7 +136,7 @@ public final class PreparedStatementHandler {
 			Object value = params[i];
 			if (value == null)
 				continue;
-			if (value instanceof Date) {
+			if (isUtilDate(value)) {
 				if (sequence) {
 					args[i] = "to_date(?,'yyyy-mm-dd hh24:mi:ss')";
 					found = true;
@@ -0,0 +1,51 @@
+package cn.ffcs.memory;
+
+import java.util.List;
+
+/**
+ * SQL Server 2012及以上版本
+ */
+public class SQLServerDialect extends GenericDialect {
+
+    @Override
+    public String getName() {
+        return "sqlserver";
+    }
+
+    @Override
+    public boolean matchesUrl(String jdbcUrl) {
+        return jdbcUrl.startsWith("jdbc:sqlserver:");
+    }
+
+    @Override
+    public boolean matchesProduct(String productName) {
+        return productName.contains("microsoft sql server");
+    }
+
+    /**
+     * offset ... fetch必须和order by一起使用
+     */
+    @Override
+    public void pager(StringBuffer sql, List<Object> params, int pageSize, int pageNo) {
+        if (!sql.toString().toLowerCase().contains("order by")) {
+            sql.append(" order by (select null)");
+        }
+        sql.append(" offset ? rows fetch next ? rows only");
+        params.add(pageSize * (pageNo - 1));
+        params.add(pageSize);
+    }
+
+    /**
+     * SQL Server使用表提示(READPAST, UPDLOCK)，不支持for update子句
+     */
+    @Override
+    public String skipLocked(int databaseMajorVersion) {
+        return "";
+    }
+
+    @Override
+    public String upsert(String table, List<String> keys, List<String> columns) {
+        String source = "(values (" + questionMarks(columns.size()) + ")) as s (" + join(columns, "%s") + ")";
+        return merge(table, keys, columns, source) + ";";
+    }
+}
@@ -0,0 +1,377 @@
+package cn.ffcs.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按物理连接缓存PreparedStatement（LRU）。HikariCP没有语句缓存，Oracle、PostgreSQL每次prepareStatement都要在服务端
+ * 重新解析，轮询和批量写入的语句每分钟会被重复预编译上千次。
+ *
+ * {@link #wrap(Connection)}包装从连接池借出的连接：prepareStatement按SQL和结果集选项（类型、并发、自动生成的键）
+ * 查找该物理连接上缓存的语句，关闭语句时只清除参数并放回缓存。语句在物理连接上创建，连接归还连接池时不会被关闭。
+ * 放回缓存时恢复查询超时、fetchSize和maxRows的默认值，其他属性会保留，同一条SQL应以相同的方式使用。
+ *
+ * 超过每个连接的上限时关闭最久未使用的语句；物理连接被连接池淘汰后，下次有新的物理连接时移除其缓存。
+ * 表结构变化（DDL）后调用{@link #invalidate()}，各连接下次使用时关闭已缓存的语句
+ */
+public class StatementCache {
+
+    private final int maxStatements;
+    private final ConcurrentMap<Connection, ConnectionStatements> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxStatements 每个物理连接缓存的语句数，0表示不缓存
+     */
+    public StatementCache(int maxStatements) {
+        this.maxStatements = Math.max(0, maxStatements);
+    }
+
+    public boolean isEnabled() {
+        return maxStatements > 0;
+    }
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    /**
+     * @param pooled    从连接池借出的连接
+     * @return          使用语句缓存的连接，关闭时归还pooled；不缓存时原样返回
+     */
+    public Connection wrap(Connection pooled) throws SQLException {
+        if (!isEnabled() || pooled == null) {
+            return pooled;
+        }
+        Connection physical = physical(pooled);
+        ConnectionStatements statements = connections.get(physical);
+        if (statements == null) {
+            // 出现新的物理连接，说明连接池可能淘汰了旧连接
+            removeClosed();
+            statements = connections.computeIfAbsent(physical, ConnectionStatements::new);
+        }
+        return (Connection) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(pooled, statements));
+    }
+
+    /**
+     * 表结构变化后，已缓存的语句在各连接下次使用时关闭（不能在其他线程使用连接时关闭）
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * 连接池关闭时清空缓存，语句随物理连接关闭
+     */
+    public void clear() {
+        connections.clear();
+    }
+
+    /**
+     * @return  命中、未命中和淘汰的次数，命中率，以及当前缓存的连接数和语句数
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        int statementCount = 0;
+        for (ConnectionStatements statements : connections.values()) {
+            statementCount += statements.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxStatements", maxStatements);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("connections", connections.size());
+        stats.put("statements", statementCount);
+        return stats;
+    }
+
+    private static Connection physical(Connection pooled) {
+        try {
+            if (pooled.isWrapperFor(Connection.class)) {
+                Connection physical = pooled.unwrap(Connection.class);
+                if (physical != null) {
+                    return physical;
+                }
+            }
+        } catch (SQLException e) {
+            // 不是包装的连接
+        }
+        return pooled;
+    }
+
+    private void removeClosed() {
+        Iterator<Map.Entry<Connection, ConnectionStatements>> it = connections.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Connection, ConnectionStatements> entry = it.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            } catch (SQLException e) {
+                closed = true;
+            }
+            if (closed) {
+                it.remove();
+                entry.getValue().closeAll();
+            }
+        }
+    }
+
+    private static String cacheKey(Method method, Object[] args) {
+        StringBuilder key = new StringBuilder((String) args[0]).append('\u0000');
+        for (int i = 1; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof int[]) {
+                key.append(Arrays.toString((int[]) arg));
+            } else if (arg instanceof String[]) {
+                key.append(Arrays.toString((String[]) arg));
+            } else {
+                key.append(arg);
+            }
+            key.append(',');
+        }
+        return key.toString();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 一个物理连接上缓存的语句，按最近使用排序
+     */
+    private class ConnectionStatements {
+        private final Connection physical;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private int entriesGeneration = generation.get();
+
+        ConnectionStatements(Connection physical) {
+            this.physical = physical;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return  可用的缓存语句，没有时预编译一条并加入缓存；同一条SQL正在使用时返回不缓存的语句
+         */
+        synchronized Entry acquire(String key, Method method, Object[] args) throws Throwable {
+            if (entriesGeneration != generation.get()) {
+                entriesGeneration = generation.get();
+                closeUnused();
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && !entry.inUse && !entry.statement.isClosed()) {
+                entry.inUse = true;
+                hits.increment();
+                return entry;
+            }
+            misses.increment();
+            // 在物理连接上预编译，连接归还连接池时语句不会被关闭
+            PreparedStatement statement = (PreparedStatement) invoke(physical, method, args);
+            if (entry != null && entry.inUse) {
+                return new Entry(null, statement);
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            entry = new Entry(key, statement);
+            entry.inUse = true;
+            entries.put(key, entry);
+            evict();
+            return entry;
+        }
+
+        synchronized void release(Entry entry, boolean reusable) {
+            entry.inUse = false;
+            if (!reusable) {
+                entries.remove(entry.key, entry);
+                closeQuietly(entry.statement);
+            }
+        }
+
+        /**
+         * 关闭最久未使用且不在使用中的语句，直到不超过上限
+         */
+        private void evict() {
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > maxStatements && it.hasNext()) {
+                Entry eldest = it.next();
+                if (!eldest.inUse) {
+                    it.remove();
+                    closeQuietly(eldest.statement);
+                    evictions.increment();
+                }
+            }
+        }
+
+        private void closeUnused() {
+            entries.values().removeIf(entry -> {
+                if (entry.inUse) {
+                    return false;
+                }
+                closeQuietly(entry.statement);
+                return true;
+            });
+        }
+
+        synchronized void closeAll() {
+            for (Entry entry : entries.values()) {
+                closeQuietly(entry.statement);
+            }
+            entries.clear();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // 物理连接已关闭时语句也已关闭
+        }
+    }
+
+    /**
+     * 缓存的语句，key为null时不在缓存中，关闭时真正关闭
+     */
+    private static class Entry {
+        private final String key;
+        private final PreparedStatement statement;
+        private boolean inUse;
+
+        Entry(String key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * 包装的连接：prepareStatement使用缓存，其余方法（包括close）交给连接池的连接
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection pooled;
+        private final ConnectionStatements statements;
+
+        ConnectionHandler(Connection pooled, ConnectionStatements statements) {
+            this.pooled = pooled;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("prepareStatement".equals(method.getName()) && args != null && args[0] instanceof String) {
+                Entry entry = statements.acquire(cacheKey(method, args), method, args);
+                return Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class},
+                        new StatementHandler((Connection) proxy, statements, entry));
+            }
+            if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName()) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            return StatementCache.invoke(pooled, method, args);
+        }
+    }
+
+    /**
+     * 包装的语句：close时清除参数并放回缓存
+     */
+    private static class StatementHandler implements InvocationHandler {
+        private final Connection connection;
+        private final ConnectionStatements statements;
+        private final Entry entry;
+        private boolean closed = false;
+
+        StatementHandler(Connection connection, ConnectionStatements statements, Entry entry) {
+            this.connection = connection;
+            this.statements = statements;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.statement.isClosed();
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return args != null && proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (closed) {
+                        throw new SQLException("Statement已关闭");
+                    }
+                    return StatementCache.invoke(entry.statement, method, args);
+            }
+        }
+
+        private void release() {
+            if (entry.key == null) {
+                closeQuietly(entry.statement);
+                return;
+            }
+            boolean reusable;
+            try {
+                // 关闭未关闭的结果集，清除参数和批处理，并恢复超时、fetchSize和maxRows的默认值，
+                // 以免下一个请求沿用上一个请求的设置（例如StatementWatchdog设置的超时）
+                closeResultSet(entry.statement);
+                entry.statement.clearParameters();
+                entry.statement.clearBatch();
+                entry.statement.clearWarnings();
+                entry.statement.setQueryTimeout(0);
+                entry.statement.setFetchSize(0);
+                entry.statement.setMaxRows(0);
+                reusable = !entry.statement.isClosed();
+            } catch (SQLException e) {
+                reusable = false;
+            }
+            statements.release(entry, reusable);
+        }
+
+        private static void closeResultSet(PreparedStatement statement) {
+            try {
+                ResultSet rs = statement.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+            } catch (SQLException e) {
+                // 部分驱动在结果集关闭后调用getResultSet会报错
+            }
+        }
+    }
+}
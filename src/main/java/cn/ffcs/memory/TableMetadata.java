@@ -0,0 +1,250 @@
+package cn.ffcs.memory;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 表的元数据：列（类型、长度、是否可为null）、主键和索引，由{@link MetadataRegistry}从DatabaseMetaData读取并缓存。
+ * 列名查找不区分大小写
+ */
+public class TableMetadata {
+
+    /**
+     * JDBC读取TIMESTAMP时输出的格式（yyyy-MM-dd'T'HH:mm:ss.SSSZ），写回时也能识别
+     */
+    private static final DateTimeFormatter JDBC_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    private final String name;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private final List<String> primaryKey = new ArrayList<>();
+    private final Map<String, Index> indexes = new LinkedHashMap<>();
+
+    TableMetadata(String name) {
+        this.name = name;
+    }
+
+    void addColumn(Column column) {
+        columns.put(column.name.toUpperCase(Locale.ROOT), column);
+    }
+
+    void addPrimaryKeyColumn(String column) {
+        primaryKey.add(column);
+    }
+
+    void addIndexColumn(String indexName, boolean unique, String column) {
+        indexes.computeIfAbsent(indexName, k -> new Index(indexName, unique)).columns.add(column);
+    }
+
+    /**
+     * @return  表名（数据库中保存的大小写）
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return  表是否存在（是否读到了列）
+     */
+    public boolean exists() {
+        return !columns.isEmpty();
+    }
+
+    /**
+     * @param column    列名，不区分大小写
+     * @return          列的元数据，不存在时为null
+     */
+    public Column getColumn(String column) {
+        return column == null ? null : columns.get(column.toUpperCase(Locale.ROOT));
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(new ArrayList<>(columns.values()));
+    }
+
+    /**
+     * @return  主键列，按主键中的顺序
+     */
+    public List<String> getPrimaryKey() {
+        return Collections.unmodifiableList(primaryKey);
+    }
+
+    public List<Index> getIndexes() {
+        return Collections.unmodifiableList(new ArrayList<>(indexes.values()));
+    }
+
+    /**
+     * @param column    列名，不区分大小写
+     * @return          是否为主键或某个索引的第一列（可以用于按该列排序、范围查询）
+     */
+    public boolean isIndexed(String column) {
+        if (!primaryKey.isEmpty() && primaryKey.get(0).equalsIgnoreCase(column)) {
+            return true;
+        }
+        for (Index index : indexes.values()) {
+            if (!index.columns.isEmpty() && index.columns.get(0).equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按列的类型转换参数：VANTIQ传来的日期时间、数字和布尔值通常是字符串，部分驱动（如PostgreSQL）不会自动转换。
+     * 无法转换或列不存在时原样返回，由数据库报告错误
+     *
+     * @param column    列名
+     * @param value     参数
+     */
+    public Object coerce(String column, Object value) {
+        Column metadata = getColumn(column);
+        if (metadata == null || !(value instanceof String)) {
+            return value;
+        }
+        String text = ((String) value).trim();
+        try {
+            switch (metadata.type) {
+                case Types.TIMESTAMP:
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    return parseTimestamp(text);
+                case Types.DATE:
+                    return text.length() == 10 ? Date.valueOf(LocalDate.parse(text))
+                            : new Date(parseTimestamp(text).getTime());
+                case Types.TIME:
+                case Types.TIME_WITH_TIMEZONE:
+                    return Time.valueOf(LocalTime.parse(text));
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return new BigDecimal(text);
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    if ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+                        return Boolean.valueOf(text);
+                    }
+                    return value;
+                default:
+                    return value;
+            }
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    private static Timestamp parseTimestamp(String text) {
+        try {
+            return Timestamp.from(OffsetDateTime.parse(text).toInstant());
+        } catch (DateTimeParseException e) {
+            // 不带时区或使用其他时区格式
+        }
+        try {
+            return Timestamp.from(OffsetDateTime.parse(text, JDBC_TIMESTAMP).toInstant());
+        } catch (DateTimeParseException e) {
+            // 不带时区
+        }
+        try {
+            return Timestamp.from(Instant.parse(text));
+        } catch (DateTimeParseException e) {
+            // 本地时间
+        }
+        if (text.indexOf('T') > 0) {
+            return Timestamp.valueOf(LocalDateTime.parse(text));
+        }
+        return Timestamp.valueOf(text);
+    }
+
+    @Override
+    public String toString() {
+        return "TableMetadata{" + name + ", columns=" + columns.size() + ", primaryKey=" + primaryKey
+                + ", indexes=" + indexes.keySet() + '}';
+    }
+
+    /**
+     * 列的元数据
+     */
+    public static class Column {
+        private final String name;
+        private final int type;
+        private final String typeName;
+        private final int size;
+        private final boolean nullable;
+
+        Column(String name, int type, String typeName, int size, boolean nullable) {
+            this.name = name;
+            this.type = type;
+            this.typeName = typeName;
+            this.size = size;
+            this.nullable = nullable;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return  java.sql.Types中的类型
+         */
+        public int getType() {
+            return type;
+        }
+
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isNullable() {
+            return nullable;
+        }
+    }
+
+    /**
+     * 索引
+     */
+    public static class Index {
+        private final String name;
+        private final boolean unique;
+        private final List<String> columns = new ArrayList<>();
+
+        Index(String name, boolean unique) {
+            this.name = name;
+            this.unique = unique;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(columns);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cn.ffcs.memory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 缓存方言生成的upsert语句，同一表、主键和列的语句只生成一次
+ */
+final class UpsertStatements {
+
+    private final Dialect dialect;
+    private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+
+    UpsertStatements(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * @param table     表名
+     * @param keys      判断记录是否存在的列（主键或唯一索引）
+     * @param columns   写入的列，包含keys，参数按此顺序绑定
+     */
+    String get(String table, List<String> keys, List<String> columns) {
+        String cacheKey = table + '|' + keys + '|' + columns;
+        return cache.computeIfAbsent(cacheKey, k -> dialect.upsert(table, keys, columns));
+    }
+}
@@ -0,0 +1,274 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP endpoint on localhost (the adminPort option of the source config) to watch and steer the connector
+ * without reconfiguring the source, which may rebuild the connection pool:
+ * <pre>
+ * GET  /status                     pool, tasks, scheduled jobs and their lag, load progress, running statements
+ * GET  /statements                 the running statements
+ * POST /statements/cancel?id=12    cancels a running statement
+ * POST /load/pause                 stops reading pages of the loadTable
+ * POST /load/resume
+ * POST /poll?pollTime=5000         changes the rate of the pollQuery
+ * POST /bundleSize?size=100        changes the bundle size of query messages without a bundleFactor
+ * POST /caches/flush               drops the metadata, statement, coalescer and mirror caches
+ * GET  /traces                     the slow traces, see {@link Tracer}
+ * </pre>
+ * Every response is JSON. The endpoint only listens on the loopback address, it has no authentication.
+ *
+ * So that web pages opened on the same machine cannot reach it, requests whose Host header is not localhost (or a
+ * loopback address) with the bound port are refused, which defeats DNS rebinding, and POST requests must carry the
+ * {@value #REQUEST_HEADER} header: a browser does not send a custom header across origins without a preflight
+ * request, which this endpoint never approves.
+ * <pre>
+ * curl -X POST -H "X-JDBC-Admin: 1" http://127.0.0.1:8099/load/pause
+ * </pre>
+ */
+public class AdminServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdminServer.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String GET = "GET";
+    private static final String POST = "POST";
+
+    // Header every POST request must have, see the class comment
+    public static final String REQUEST_HEADER = "X-JDBC-Admin";
+
+    private static final Set<String> LOCAL_HOSTS = new HashSet<>(Arrays.asList("localhost", "127.0.0.1", "[::1]"));
+
+    private final JDBCConnector connector;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts listening on the port of the loopback address.
+     * @param connector     The connector to watch
+     * @param port          The port
+     * @throws IOException  If the port could not be bound
+     */
+    public AdminServer(JDBCConnector connector, int port) throws IOException {
+        this.connector = connector;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "jdbcAdmin");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        LOG.info("Admin endpoint listening on {}", server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops listening, requests that are being answered are given a second to complete.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                sendError(exchange, 403, "The Host header must be localhost:" + getPort() + ".");
+                return;
+            }
+            if (POST.equals(method) && exchange.getRequestHeaders().getFirst(REQUEST_HEADER) == null) {
+                sendError(exchange, 403, "POST requests must have the " + REQUEST_HEADER + " header.");
+                return;
+            }
+            switch (path) {
+                case "/status":
+                    if (allow(exchange, method, GET)) {
+                        send(exchange, 200, connector.getStatus());
+                    }
+                    break;
+                case "/statements":
+                    if (allow(exchange, method, GET)) {
+                        send(exchange, 200, connector.getRunningStatements());
+                    }
+                    break;
+                case "/statements/cancel":
+                    if (allow(exchange, method, POST)) {
+                        Long id = longParam(exchange, params, "id");
+                        if (id == null) {
+                            break;
+                        }
+                        if (StatementWatchdog.getInstance().cancel(id)) {
+                            LOG.info("Cancelled statement {} through the admin endpoint", id);
+                            send(exchange, 200, result("cancelled", id));
+                        } else {
+                            sendError(exchange, 404, "No statement " + id + " is running.");
+                        }
+                    }
+                    break;
+                case "/load/pause":
+                case "/load/resume":
+                    if (allow(exchange, method, POST)) {
+                        TableLoader loader = connector.getTableLoader();
+                        if (loader == null) {
+                            sendError(exchange, 404, "The source has no loadTable.");
+                        } else if (path.endsWith("pause")) {
+                            loader.pause();
+                            send(exchange, 200, result("paused", true));
+                        } else {
+                            loader.resume();
+                            send(exchange, 200, result("paused", false));
+                        }
+                    }
+                    break;
+                case "/poll":
+                    if (allow(exchange, method, POST)) {
+                        Long pollTime = longParam(exchange, params, "pollTime");
+                        if (pollTime == null) {
+                            break;
+                        }
+                        if (pollTime <= 0) {
+                            sendError(exchange, 400, "pollTime must be greater than 0.");
+                        } else if (connector.setPollTime(pollTime)) {
+                            send(exchange, 200, result("pollTime", pollTime));
+                        } else {
+                            sendError(exchange, 404, "The source has no pollQuery.");
+                        }
+                    }
+                    break;
+                case "/bundleSize":
+                    if (allow(exchange, method, POST)) {
+                        Long size = longParam(exchange, params, "size");
+                        if (size == null) {
+                            break;
+                        }
+                        if (size < 0 || size > Integer.MAX_VALUE) {
+                            sendError(exchange, 400, "size must be 0 (all rows in one response) or more.");
+                        } else {
+                            connector.setDefaultBundleSize(size.intValue());
+                            send(exchange, 200, result("defaultBundleSize", size));
+                        }
+                    }
+                    break;
+                case "/caches/flush":
+                    if (allow(exchange, method, POST)) {
+                        connector.flushCaches();
+                        send(exchange, 200, result("flushed", true));
+                    }
+                    break;
+                case "/traces":
+                    if (allow(exchange, method, GET)) {
+                        Tracer tracer = connector.getTracer();
+                        send(exchange, 200, tracer == null ? Collections.emptyList() : tracer.dump());
+                    }
+                    break;
+                default:
+                    sendError(exchange, 404, "Unknown path " + path);
+            }
+        } catch (Exception e) {
+            LOG.error("The admin request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            // Nothing can be sent if the response had already started
+            if (exchange.getResponseCode() < 0) {
+                sendError(exchange, 500, e.toString());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return  true if the Host header names this endpoint by a loopback name, with the bound port
+     */
+    private boolean isLocalHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        int colon = host.lastIndexOf(':');
+        // No port, or the colon of an IPv6 address
+        if (colon < 0 || host.indexOf(']', colon) >= 0) {
+            return false;
+        }
+        return LOCAL_HOSTS.contains(host.substring(0, colon).toLowerCase(Locale.ROOT))
+                && host.substring(colon + 1).equals(Integer.toString(getPort()));
+    }
+
+    private static boolean allow(HttpExchange exchange, String method, String allowed) throws IOException {
+        if (allowed.equals(method)) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", allowed);
+        sendError(exchange, 405, "Use " + allowed + ".");
+        return false;
+    }
+
+    private static Long longParam(HttpExchange exchange, Map<String, String> params, String name) throws IOException {
+        try {
+            return Long.parseLong(params.get(name));
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "The parameter " + name + " must be a number.");
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static Map<String, Object> result(String key, Object value) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put(key, value);
+        return result;
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        send(exchange, code, result("error", message));
+    }
+
+    private static void send(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] json = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+}
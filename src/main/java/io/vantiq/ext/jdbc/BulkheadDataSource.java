@@ -0,0 +1,192 @@
+package io.vantiq.ext.jdbc;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Counts the connections taken from the pool against the quota of the {@link Workload} of the borrowing thread, see
+ * {@link Bulkheads}. A thread that already holds a connection is not held back by its quota, so that the metadata
+ * lookups made while running a statement cannot deadlock on a quota of one.
+ *
+ * Connections are also refused while the {@link CircuitBreaker} is open, and connections that could not be taken
+ * from the pool are reported to it.
+ */
+class BulkheadDataSource implements DataSource {
+
+    // Number of connections held by the thread that were counted against a quota
+    private static final ThreadLocal<AtomicInteger> HELD = ThreadLocal.withInitial(AtomicInteger::new);
+
+    private final DataSource ds;
+    private final long timeout;
+    private volatile Bulkheads bulkheads;
+    private volatile CircuitBreaker circuitBreaker;
+
+    /**
+     * @param ds        The connection pool
+     * @param timeout   The time (in milliseconds) to wait for room in a quota, like the pool waits for a connection
+     */
+    BulkheadDataSource(DataSource ds, long timeout) {
+        this.ds = ds;
+        this.timeout = timeout;
+    }
+
+    void setBulkheads(Bulkheads bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            return getQuotaConnection();
+        }
+        boolean trial = breaker.acquire();
+        try {
+            Connection conn = getQuotaConnection();
+            breaker.succeeded(trial);
+            return conn;
+        } catch (SQLException | RuntimeException e) {
+            breaker.failed(e);
+            breaker.released(trial);
+            throw e;
+        }
+    }
+
+    private Connection getQuotaConnection() throws SQLException {
+        Bulkheads localBulkheads = bulkheads;
+        Workload workload = Workload.current();
+        AtomicInteger held = HELD.get();
+        if (localBulkheads == null || workload == null || held.get() > 0) {
+            return ds.getConnection();
+        }
+
+        try {
+            if (!localBulkheads.acquireConnection(workload, timeout)) {
+                throw new SQLTransientConnectionException("The " + workload.name().toLowerCase() + " work of the "
+                        + "source used all of its connections for " + timeout + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection.", e);
+        }
+        Connection conn;
+        try {
+            conn = ds.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            localBulkheads.releaseConnection(workload);
+            throw e;
+        }
+        held.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(BulkheadDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new QuotaHandler(conn, localBulkheads, workload, held));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return ds.getConnection(username, password);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(ds) ? iface.cast(ds) : ds.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(ds) || ds.isWrapperFor(iface);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return ds.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        ds.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        ds.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return ds.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return ds.getParentLogger();
+    }
+
+    /**
+     * Gives the room back to the quota when the connection is closed, once even if it is closed several times or on
+     * another thread.
+     */
+    private static class QuotaHandler implements InvocationHandler {
+        private final Connection conn;
+        private final Bulkheads bulkheads;
+        private final Workload workload;
+        private final AtomicInteger held;
+        private boolean released = false;
+
+        QuotaHandler(Connection conn, Bulkheads bulkheads, Workload workload, AtomicInteger held) {
+            this.conn = conn;
+            this.bulkheads = bulkheads;
+            this.workload = workload;
+            this.held = held;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName()) && args == null) {
+                try {
+                    conn.close();
+                } finally {
+                    release();
+                }
+                return null;
+            }
+            if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName()) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            held.decrementAndGet();
+            bulkheads.releaseConnection(workload);
+        }
+    }
+}
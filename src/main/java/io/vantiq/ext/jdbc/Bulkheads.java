@@ -0,0 +1,214 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps interactive queries, publishes and background jobs (polls, loads, the outbox and the mirror) from starving each
+ * other (the queryConnections, publishConnections and backgroundConnections options of the source config). Each
+ * {@link Workload} runs on its own {@link TaskExecutor}, and a class with a connection quota never holds more pooled
+ * connections than its quota, so that a table load cannot take the connections queries are waiting for.
+ *
+ * Background jobs also give way to queries: with a queryLatencyTarget, the background quota is halved each second the
+ * 99th percentile of the recent query latencies (from arrival to response) is over the target, down to one
+ * connection, and raised by one again each second it is well under the target.
+ */
+public class Bulkheads {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Bulkheads.class);
+
+    // Number of recent query latencies the 99th percentile is taken over
+    private static final int LATENCY_WINDOW = 200;
+
+    // Minimum number of latencies recorded before the background quota is adjusted
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    // Time (in milliseconds) between two adjustments of the background quota
+    private static final long ADJUST_INTERVAL = 1000;
+
+    private final Map<Workload, TaskExecutor> executors = new EnumMap<>(Workload.class);
+    private final Map<Workload, Quota> quotas = new EnumMap<>(Workload.class);
+    private final long queryLatencyTarget;
+
+    // Guarded by latencies
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+    private long lastAdjust = System.currentTimeMillis();
+
+    /**
+     * @param poolSize              The size of the connection pool, and the threads of a class without a quota
+     * @param connections           The connection quota of each class, a class without one is not limited
+     * @param maxQueuedTasks        The tasks of each class that may wait for a free thread
+     * @param executionMode         The mode of the executors, see {@link TaskExecutor}
+     * @param queryLatencyTarget    The 99th percentile latency (in milliseconds) of queries background jobs give way
+     *                              to, 0 to keep the background quota fixed
+     */
+    public Bulkheads(int poolSize, Map<Workload, Integer> connections, int maxQueuedTasks, String executionMode,
+                     long queryLatencyTarget) {
+        this.queryLatencyTarget = queryLatencyTarget;
+        for (Workload workload : Workload.values()) {
+            Integer quota = connections.get(workload);
+            boolean limited = quota != null && quota > 0;
+            String name = "jdbc" + workload.name().charAt(0) + workload.name().substring(1).toLowerCase();
+            executors.put(workload, new TaskExecutor(name, limited ? quota : poolSize, maxQueuedTasks, executionMode));
+            if (limited) {
+                quotas.put(workload, new Quota(quota));
+            } else if (workload == Workload.BACKGROUND && queryLatencyTarget > 0) {
+                // Give the background jobs a quota they can be throttled by
+                quotas.put(workload, new Quota(poolSize));
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the executor of its class, marking the thread with the class while it runs.
+     * @param workload  The class of the task
+     * @param task      The task to run
+     * @throws RejectedExecutionException   If the queue of the class is full
+     */
+    public void execute(Workload workload, Runnable task) throws RejectedExecutionException {
+        executors.get(workload).execute(() -> {
+            try (Workload.Scope scope = workload.enter()) {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Waits until the class may take another connection from the pool.
+     * @param workload  The class of the work borrowing the connection
+     * @param timeout   The maximum time (in milliseconds) to wait
+     * @return          false if the quota had no room before the timeout
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public boolean acquireConnection(Workload workload, long timeout) throws InterruptedException {
+        Quota quota = quotas.get(workload);
+        return quota == null || quota.acquire(timeout);
+    }
+
+    /**
+     * Gives back a connection taken with {@link #acquireConnection(Workload, long)}.
+     */
+    public void releaseConnection(Workload workload) {
+        Quota quota = quotas.get(workload);
+        if (quota != null) {
+            quota.release();
+        }
+    }
+
+    /**
+     * Records the latency of a query, and adjusts the background quota once per second if the source has a
+     * queryLatencyTarget.
+     * @param latency   The time (in milliseconds) from the arrival of the query message to its response
+     */
+    public void recordQueryLatency(long latency) {
+        Quota background = quotas.get(Workload.BACKGROUND);
+        if (queryLatencyTarget <= 0 || background == null) {
+            return;
+        }
+        long p99;
+        synchronized (latencies) {
+            latencies[nextLatency] = latency;
+            nextLatency = (nextLatency + 1) % latencies.length;
+            latencyCount = Math.min(latencyCount + 1, latencies.length);
+            long now = System.currentTimeMillis();
+            if (latencyCount < MIN_LATENCY_SAMPLES || now - lastAdjust < ADJUST_INTERVAL) {
+                return;
+            }
+            lastAdjust = now;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            p99 = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        }
+
+        int limit = background.getLimit();
+        if (p99 > queryLatencyTarget && limit > 1) {
+            background.setLimit(Math.max(1, limit / 2));
+            LOG.info("Query p99 latency {} ms is over the target of {} ms, background jobs may use {} connections",
+                    p99, queryLatencyTarget, background.getLimit());
+        } else if (p99 < queryLatencyTarget * 0.8 && limit < background.max) {
+            background.setLimit(limit + 1);
+        }
+    }
+
+    /**
+     * @return  The tasks and the connections in use of each class, and its quota
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Workload workload : Workload.values()) {
+            TaskExecutor executor = executors.get(workload);
+            Map<String, Object> workloadStats = new LinkedHashMap<>();
+            workloadStats.put("activeTasks", executor.getActiveTasks());
+            workloadStats.put("queuedTasks", executor.getQueuedTasks());
+            Quota quota = quotas.get(workload);
+            if (quota != null) {
+                workloadStats.put("connections", quota.getInUse());
+                workloadStats.put("connectionLimit", quota.getLimit());
+            }
+            stats.put(workload.name().toLowerCase(), workloadStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that are already queued or running are allowed to finish.
+     */
+    public void shutdown() {
+        for (TaskExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The number of connections a class may hold, which can be lowered and raised while connections are held.
+     */
+    private static class Quota {
+        private final int max;
+        private int limit;
+        private int inUse = 0;
+
+        Quota(int max) {
+            this.max = max;
+            this.limit = max;
+        }
+
+        synchronized boolean acquire(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (inUse >= limit) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            inUse++;
+            return true;
+        }
+
+        synchronized void release() {
+            inUse--;
+            notifyAll();
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized void setLimit(int limit) {
+            this.limit = limit;
+            notifyAll();
+        }
+
+        synchronized int getInUse() {
+            return inUse;
+        }
+    }
+}
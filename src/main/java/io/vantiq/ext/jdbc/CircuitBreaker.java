@@ -0,0 +1,276 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stops sending work to a database that is down (the breakerFailureRate option of the source config), so that during
+ * a failover requests fail at once instead of each waiting for the connection pool to time out, and scheduled jobs
+ * stop firing into the dead pool.
+ *
+ * Connections that could not be taken from the pool, and statements that failed on a broken connection or timed out,
+ * count as failures. Once breakerMinCalls connections were requested in the last ten seconds and the share of failures
+ * reaches breakerFailureRate, the breaker opens: connections are refused with a {@link CircuitOpenException} without
+ * asking the pool. After breakerOpenTime milliseconds it lets a few trial requests through (half-open). The first trial
+ * that gets a connection closes the breaker, a failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_MIN_CALLS = 20;
+    public static final long DEFAULT_OPEN_TIME = 1000;
+
+    public static final String CLOSED = "closed";
+    public static final String OPEN = "open";
+    public static final String HALF_OPEN = "halfOpen";
+
+    // The failure rate is taken over this many buckets of one second
+    private static final int WINDOW_BUCKETS = 10;
+    private static final long BUCKET_MILLIS = 1000;
+
+    // Requests let through at once while half-open
+    private static final int MAX_TRIALS = 3;
+
+    // The last failure recorded by each thread, so that an error is not counted again by the method it is rethrown to
+    private static final ThreadLocal<Throwable> LAST_FAILURE = new ThreadLocal<>();
+
+    private final double failureRate;
+    private final int minCalls;
+    private final long openTime;
+
+    // All guarded by this
+    private final int[] calls = new int[WINDOW_BUCKETS];
+    private final int[] failures = new int[WINDOW_BUCKETS];
+    private long currentBucket;
+    private String state = CLOSED;
+    private long openUntil = 0;
+    private int trials = 0;
+    private long openedAt = 0;
+    private long opens = 0;
+    private long rejected = 0;
+
+    /**
+     * @param failureRate   The share of failed requests (0 to 1) that opens the breaker
+     * @param minCalls      The requests needed in the window before the breaker may open
+     * @param openTime      The time (in milliseconds) requests are refused before the first trial
+     */
+    public CircuitBreaker(double failureRate, int minCalls, long openTime) {
+        this.failureRate = failureRate;
+        this.minCalls = Math.max(1, minCalls);
+        this.openTime = openTime;
+        this.currentBucket = System.currentTimeMillis() / BUCKET_MILLIS;
+    }
+
+    /**
+     * @return  true if this breaker has the same settings, and can be kept when the source is reconfigured
+     */
+    public boolean hasSettings(double failureRate, int minCalls, long openTime) {
+        return this.failureRate == failureRate && this.minCalls == Math.max(1, minCalls) && this.openTime == openTime;
+    }
+
+    /**
+     * Asks to take a connection from the pool.
+     * @return  true if the request is a half-open trial, which must be passed to {@link #succeeded(boolean)} or
+     *          {@link #failed(Throwable)}
+     * @throws CircuitOpenException If the breaker refuses the request
+     */
+    public synchronized boolean acquire() throws CircuitOpenException {
+        long now = System.currentTimeMillis();
+        if (OPEN.equals(state) && now >= openUntil) {
+            state = HALF_OPEN;
+            trials = 0;
+            LOG.info("Letting trial requests through to the database");
+        }
+        if (OPEN.equals(state) || (HALF_OPEN.equals(state) && trials >= MAX_TRIALS)) {
+            rejected++;
+            throw new CircuitOpenException("The database is unavailable, the request was refused without trying it. "
+                    + "The next trial is in " + Math.max(0, openUntil - now) + " ms.");
+        }
+        if (HALF_OPEN.equals(state)) {
+            trials++;
+            return true;
+        }
+        calls[bucket(now)]++;
+        return false;
+    }
+
+    /**
+     * Records that a connection was taken from the pool. A trial closes the breaker.
+     * @param trial The value returned by {@link #acquire()}
+     */
+    public synchronized void succeeded(boolean trial) {
+        if (trial && HALF_OPEN.equals(state)) {
+            state = CLOSED;
+            clearWindow();
+            LOG.info("The database is available again after {} ms", System.currentTimeMillis() - openedAt);
+        }
+    }
+
+    /**
+     * Gives back the place of a trial that did not get a connection, so that another trial can be let through if
+     * the error did not count as a failure.
+     * @param trial The value returned by {@link #acquire()}
+     */
+    public synchronized void released(boolean trial) {
+        if (trial && trials > 0) {
+            trials--;
+        }
+    }
+
+    /**
+     * Records an error of a request if it shows that the database is down or too slow, and opens the breaker if the
+     * failures reached the failure rate. An error is only counted once, however often it is rethrown.
+     * @param e The error
+     */
+    public void failed(Throwable e) {
+        if (!isFailure(e) || LAST_FAILURE.get() == e) {
+            return;
+        }
+        LAST_FAILURE.set(e);
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (HALF_OPEN.equals(state)) {
+                open(now, "a trial request failed: " + e.getMessage());
+                return;
+            }
+            if (OPEN.equals(state)) {
+                return;
+            }
+            int bucket = bucket(now);
+            failures[bucket]++;
+            int totalCalls = 0;
+            int totalFailures = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                totalCalls += calls[i];
+                totalFailures += failures[i];
+            }
+            if (totalCalls >= minCalls && totalFailures >= failureRate * totalCalls) {
+                open(now, totalFailures + " of the last " + totalCalls + " requests failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return  true while requests are refused, scheduled jobs skip their runs meanwhile
+     */
+    public synchronized boolean isRejecting() {
+        return (OPEN.equals(state) && System.currentTimeMillis() < openUntil)
+                || (HALF_OPEN.equals(state) && trials >= MAX_TRIALS);
+    }
+
+    public synchronized String getState() {
+        return state;
+    }
+
+    /**
+     * @return  The state, the requests and failures in the window, and the number of opens and refused requests
+     */
+    public synchronized Map<String, Object> getStats() {
+        bucket(System.currentTimeMillis());
+        int totalCalls = 0;
+        int totalFailures = 0;
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            totalCalls += calls[i];
+            totalFailures += failures[i];
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("calls", totalCalls);
+        stats.put("failures", totalFailures);
+        stats.put("failureRate", failureRate);
+        stats.put("opens", opens);
+        stats.put("rejected", rejected);
+        if (!CLOSED.equals(state)) {
+            stats.put("openedAt", openedAt);
+        }
+        return stats;
+    }
+
+    /**
+     * @return  true if the error is a connection that could not be taken or broke, or a statement that timed out
+     */
+    static boolean isFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return false;
+            }
+            if (cause instanceof QueryTimeoutException || cause instanceof SQLTimeoutException
+                    || cause instanceof SQLTransientConnectionException
+                    || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("08")) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return  true if the error, or one of its causes, is a request refused by an open breaker
+     */
+    public static boolean isCircuitOpen(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void open(long now, String reason) {
+        if (CLOSED.equals(state)) {
+            openedAt = now;
+            LOG.warn("Refusing requests to the database for {} ms because {}", openTime, reason);
+        } else {
+            LOG.info("The database is still unavailable, refusing requests for another {} ms", openTime);
+        }
+        state = OPEN;
+        openUntil = now + openTime;
+        trials = 0;
+        opens++;
+    }
+
+    /**
+     * @return  The index of the current bucket, clearing the buckets that have passed since the last request
+     */
+    private int bucket(long now) {
+        long bucket = now / BUCKET_MILLIS;
+        if (bucket - currentBucket >= WINDOW_BUCKETS) {
+            clearWindow();
+        } else {
+            for (long b = currentBucket + 1; b <= bucket; b++) {
+                calls[(int) (b % WINDOW_BUCKETS)] = 0;
+                failures[(int) (b % WINDOW_BUCKETS)] = 0;
+            }
+        }
+        currentBucket = Math.max(currentBucket, bucket);
+        return (int) (currentBucket % WINDOW_BUCKETS);
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            calls[i] = 0;
+            failures[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package io.vantiq.ext.jdbc;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of taking a connection from the pool while the {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends SQLTransientConnectionException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
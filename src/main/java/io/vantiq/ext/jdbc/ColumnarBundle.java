@@ -0,0 +1,232 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bundle of query results stored column by column, used for the "columnar" response format.
+ *
+ * Integer and floating point columns are read with getLong/getDouble/wasNull into primitive arrays with a null
+ * bitmap, and TIMESTAMP columns as epoch milliseconds, so numeric data is never boxed. Every other column is read
+ * like in the row format. The bundle is sent as
+ * <pre>
+ * {"columns": ["id", "value", ...], "rowCount": 2, "data": {"id": [1, 2], "value": [0.5, null], ...}}
+ * </pre>
+ * where the arrays are written straight from the primitive arrays.
+ */
+public class ColumnarBundle {
+
+    private final String[] columnNames;
+    private final Column[] columns;
+    private int rowCount = 0;
+
+    /**
+     * @param columnNames   The names of the columns
+     * @param columnTypes   The {@link Types} of the columns
+     * @param capacity      The expected number of rows, the arrays grow if more are added
+     */
+    public ColumnarBundle(String[] columnNames, int[] columnTypes, int capacity) {
+        this.columnNames = columnNames;
+        this.columns = new Column[columnNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (columnTypes[i]) {
+                case Types.BIGINT:
+                case Types.INTEGER:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    columns[i] = new LongColumn(capacity);
+                    break;
+                case Types.DOUBLE:
+                case Types.FLOAT:
+                case Types.REAL:
+                    columns[i] = new DoubleColumn(capacity);
+                    break;
+                case Types.TIMESTAMP:
+                    columns[i] = new TimestampColumn(capacity);
+                    break;
+                default:
+                    columns[i] = new ObjectColumn(capacity, columnTypes[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Appends the current row of the ResultSet.
+     * @param rs        The ResultSet, positioned on the row
+     * @param reader    Reads the columns that are not stored as primitives
+     */
+    public void readRow(ResultSet rs, ValueReader reader) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].read(rs, i + 1, rowCount, reader);
+        }
+        rowCount++;
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * @return  The bundle in the form it is sent back to VANTIQ
+     */
+    public Map<String, Object> toResponse() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            data.put(columnNames[i], columns[i]);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("columns", columnNames);
+        response.put("rowCount", rowCount);
+        response.put("data", data);
+        return response;
+    }
+
+    /**
+     * Reads the value of a column that is not stored as a primitive, the same way as for the row format.
+     */
+    public interface ValueReader {
+        Object read(ResultSet rs, int column, int columnType) throws SQLException;
+    }
+
+    /**
+     * Handles the bundles of a columnar query as they are filled.
+     */
+    public interface BundleHandler {
+        void accept(ColumnarBundle bundle, boolean last) throws IOException;
+    }
+
+    private abstract static class Column implements JsonSerializable {
+        abstract void read(ResultSet rs, int column, int row, ValueReader reader) throws SQLException;
+
+        @Override
+        public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+                throws IOException {
+            serialize(gen, serializers);
+        }
+    }
+
+    private abstract class PrimitiveColumn extends Column {
+        final BitSet nulls = new BitSet();
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartArray();
+            for (int row = 0; row < rowCount; row++) {
+                if (nulls.get(row)) {
+                    gen.writeNull();
+                } else {
+                    writeValue(gen, row);
+                }
+            }
+            gen.writeEndArray();
+        }
+
+        abstract void writeValue(JsonGenerator gen, int row) throws IOException;
+    }
+
+    private class LongColumn extends PrimitiveColumn {
+        long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[Math.max(capacity, 1)];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row, ValueReader reader) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getLong(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void writeValue(JsonGenerator gen, int row) throws IOException {
+            gen.writeNumber(values[row]);
+        }
+    }
+
+    private class DoubleColumn extends PrimitiveColumn {
+        double[] values;
+
+        DoubleColumn(int capacity) {
+            values = new double[Math.max(capacity, 1)];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row, ValueReader reader) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getDouble(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void writeValue(JsonGenerator gen, int row) throws IOException {
+            gen.writeNumber(values[row]);
+        }
+    }
+
+    private class TimestampColumn extends LongColumn {
+        TimestampColumn(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row, ValueReader reader) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            Timestamp timestamp = rs.getTimestamp(column);
+            if (timestamp == null) {
+                nulls.set(row);
+            } else {
+                values[row] = timestamp.getTime();
+            }
+        }
+    }
+
+    private class ObjectColumn extends Column {
+        final int columnType;
+        final List<Object> values;
+
+        ObjectColumn(int capacity, int columnType) {
+            this.columnType = columnType;
+            this.values = new ArrayList<>(capacity);
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row, ValueReader reader) throws SQLException {
+            values.add(reader.read(rs, column, columnType));
+        }
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartArray();
+            for (Object value : values) {
+                serializers.defaultSerializeValue(value, gen);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
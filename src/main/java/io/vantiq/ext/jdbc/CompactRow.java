@@ -0,0 +1,229 @@
+package io.vantiq.ext.jdbc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A row of a query result, stored as a flat array of values that share the {@link RowSchema} of the result instead
+ * of a HashMap with its own table and entry objects per row.
+ *
+ * The row behaves like the HashMap rows it replaces: columns whose value is null are not part of the map, and of
+ * several columns with the same name (as in <code>SELECT a.x, b.x</code>) the last one that is not null is visible, so
+ * the row serializes to the same JSON. Columns of the schema can be updated, any other keys are kept in a separate
+ * map that is only allocated when needed.
+ */
+public class CompactRow extends AbstractMap<String, Object> {
+
+    private final RowSchema schema;
+    private final Object[] values;
+    private Map<String, Object> extra = null;
+
+    /**
+     * @param schema    The schema shared by all rows of the result
+     * @param values    The values of the row, in the order of the columns of the schema
+     */
+    public CompactRow(RowSchema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @param index     The position of the column in the schema
+     * @return          The value of the column, which may be null
+     */
+    public Object getValue(int index) {
+        return values[index];
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            index = visibleIndex(index);
+            return index >= 0 ? values[index] : null;
+        }
+        return extra == null ? null : extra.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            return visibleIndex(index) >= 0;
+        }
+        return extra != null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = remove(key);
+            values[index] = value;
+            return previous;
+        }
+        if (extra == null) {
+            extra = new LinkedHashMap<>();
+        }
+        return extra.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = get(key);
+            for (; index >= 0; index = schema.previousSameName(index)) {
+                values[index] = null;
+            }
+            return previous;
+        }
+        return extra == null ? null : extra.remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (isVisible(i)) {
+                size++;
+            }
+        }
+        return extra == null ? size : size + extra.size();
+    }
+
+    /**
+     * @param last  The position of the last column with a name
+     * @return      The position of the last column with that name that is not null, or -1
+     */
+    private int visibleIndex(int last) {
+        int index = last;
+        while (index >= 0 && values[index] == null) {
+            index = schema.previousSameName(index);
+        }
+        return index;
+    }
+
+    /**
+     * @return  true if the column is not null, and no later column with the same name is either
+     */
+    private boolean isVisible(int index) {
+        if (values[index] == null) {
+            return false;
+        }
+        for (int next = schema.nextSameName(index); next >= 0; next = schema.nextSameName(next)) {
+            if (values[next] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactRow.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the visible columns of the schema, then over the extra keys.
+     */
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int next = advance(0);
+        private Iterator<Entry<String, Object>> extraIterator = null;
+
+        private int advance(int from) {
+            while (from < values.length && !isVisible(from)) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < values.length) {
+                return true;
+            }
+            if (extraIterator == null && extra != null) {
+                extraIterator = extra.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < values.length) {
+                int index = next;
+                next = advance(next + 1);
+                return new ColumnEntry(index);
+            }
+            return extraIterator.next();
+        }
+    }
+
+    private class ColumnEntry implements Entry<String, Object> {
+        private final int index;
+
+        ColumnEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.getColumnName(index);
+        }
+
+        @Override
+        public Object getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -8,18 +8,23 @@
 
 package io.vantiq.ext.jdbc;
 
+import cn.ffcs.memory.ChunkedBatch;
+import cn.ffcs.memory.Dialect;
+import cn.ffcs.memory.Dialects;
 import cn.ffcs.memory.Memory;
+import cn.ffcs.memory.MetadataRegistry;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,13 +47,25 @@ public class JDBC {
     // Timeout (in milliseconds) specifying how long ds.getConnection() will wait for a connection before timing out
     private static final int CONNECTION_POOL_TIMEOUT = 5000;
 
+    // Number of rows fetched from the database at a time when reading query results
+    private static final int STREAMING_FETCH_SIZE = 1000;
+
+    // Number of rows read between checks of the request deadline
+    private static final int DEADLINE_CHECK_ROWS = 1000;
+
     // Used if asynchronous publish/query handling has been specified
     private HikariDataSource ds;
+    private BulkheadDataSource bulkheadDs;
     private Memory memory;
 
-    DateFormat dfTimestamp  = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-    DateFormat dfDate       = new SimpleDateFormat("yyyy-MM-dd");
-    DateFormat dfTime       = new SimpleDateFormat("HH:mm:ss.SSSZ");
+    // Replaced when the source is reconfigured, the pool is kept if only these settings changed
+    private volatile LobReader lobReader;
+    private volatile ChunkedBatch chunkedBatch;
+
+    // SimpleDateFormat is not thread safe, and queries run concurrently on the TaskExecutor
+    static final ThreadLocal<DateFormat> dfTimestamp  = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ"));
+    static final ThreadLocal<DateFormat> dfDate       = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    static final ThreadLocal<DateFormat> dfTime       = ThreadLocal.withInitial(() -> new SimpleDateFormat("HH:mm:ss.SSSZ"));
 
     /**
      * The method used to setup the connection to the SQL Database, using the values retrieved from the source config.
@@ -69,35 +86,119 @@ public class JDBC {
         if (password != null) {
             connectionPoolConfig.setPassword(password);
         }
+
+        // Let the dialect turn on the fast paths of its driver (batch rewriting, fetch sizes), unless the dbURL
+        // already sets them
+        Dialect dialect = Dialects.forUrl(dbURL);
+        for (Map.Entry<String, String> property : dialect.getDriverProperties().entrySet()) {
+            if (!dbURL.contains(property.getKey() + "=")) {
+                connectionPoolConfig.addDataSourceProperty(property.getKey(), property.getValue());
+            }
+        }
         ds = new HikariDataSource(connectionPoolConfig);
         ds.setConnectionTimeout(CONNECTION_POOL_TIMEOUT);
 
         // Setting max pool size (should always match number of active threads for publish and query)
         ds.setMaximumPoolSize(config.getPoolSize());
 
-        memory = new Memory(ds);
+        // Connections are taken through the bulkheads, so that every class of work stays within its quota
+        bulkheadDs = new BulkheadDataSource(ds, CONNECTION_POOL_TIMEOUT);
+        memory = new Memory(bulkheadDs, config.getStatementCacheSize());
+        applySettings(config);
+    }
+
+    /**
+     * Applies the settings of the source config that do not require a new connection pool.
+     * @param config    The source config
+     */
+    public void applySettings(JDBCConnectorConfig config) {
+        lobReader = new LobReader(config.getLobMode(), config.getLobInlineLimit());
+        chunkedBatch = new ChunkedBatch(config.getBatchChunkSize(), config.isCommitPerChunk());
+        memory.setChunkedBatch(chunkedBatch);
+        // An open breaker is kept, unless its settings changed
+        CircuitBreaker breaker = bulkheadDs.getCircuitBreaker();
+        if (config.getBreakerFailureRate() <= 0) {
+            bulkheadDs.setCircuitBreaker(null);
+        } else if (breaker == null || !breaker.hasSettings(config.getBreakerFailureRate(), config.getBreakerMinCalls(),
+                config.getBreakerOpenTime())) {
+            bulkheadDs.setCircuitBreaker(new CircuitBreaker(config.getBreakerFailureRate(),
+                    config.getBreakerMinCalls(), config.getBreakerOpenTime()));
+        }
     }
     
     /**
      * The method used to execute the provided query, triggered by a SELECT on the respective source from VANTIQ.
      * @param sqlQuery          A String representation of the query, retrieved from the WITH clause from VANTIQ.
-     * @return                  A HashMap Array containing all of the data retrieved by the query, (empty HashMap 
+     * @return                  A Map Array containing all of the data retrieved by the query, (empty Map
+     *                          Array if nothing was returned)
+     * @throws VantiqSQLException
+     */
+    public Map[] processQuery(String sqlQuery) throws VantiqSQLException {
+        return processQuery(sqlQuery, 0);
+    }
+
+    /**
+     * Executes the provided query, cancelling it if it has not completed by the deadline.
+     * @param sqlQuery          A String representation of the query, retrieved from the WITH clause from VANTIQ.
+     * @param deadline          The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     * @return                  A Map Array containing all of the data retrieved by the query, (empty Map
      *                          Array if nothing was returned)
+     * @throws QueryTimeoutException    If the query was cancelled because the deadline passed
      * @throws VantiqSQLException
      */
-    public HashMap[] processQuery(String sqlQuery) throws VantiqSQLException {
-        HashMap[] rsArray = null;
+    public Map[] processQuery(String sqlQuery, long deadline) throws VantiqSQLException {
+        SpillableResult result = new SpillableResult();
+        processQuery(sqlQuery, deadline, result);
+        return result.toArray();
+    }
 
-        try (Connection conn = ds.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sqlQuery)) {
-            rsArray = createMapFromResults(rs);
+    /**
+     * Executes the provided query and adds the rows to the result, which spills them to disk once they exceed its
+     * memory budget.
+     * @param sqlQuery          A String representation of the query, retrieved from the WITH clause from VANTIQ.
+     * @param deadline          The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     * @param result            The result the rows are added to
+     * @throws QueryTimeoutException    If the query was cancelled because the deadline passed
+     * @throws VantiqSQLException
+     */
+    public void processQuery(String sqlQuery, long deadline, SpillableResult result) throws VantiqSQLException {
+        processQuery(sqlQuery, deadline, result, null);
+    }
+
+    /**
+     * Same as {@link #processQuery(String, long, SpillableResult)}, but sends the chunks of large LOB values to the
+     * sink when the lobMode is "chunk".
+     * @param sqlQuery          A String representation of the query, retrieved from the WITH clause from VANTIQ.
+     * @param deadline          The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     * @param result            The result the rows are added to
+     * @param lobSink           Receives the chunks of large LOB values, or null to truncate them
+     * @throws QueryTimeoutException    If the query was cancelled because the deadline passed
+     * @throws VantiqSQLException
+     */
+    public void processQuery(String sqlQuery, long deadline, SpillableResult result, LobReader.Sink lobSink)
+            throws VantiqSQLException {
+        StatementWatchdog.Watch watch = null;
+
+        try (Connection conn = getConnection();
+             Statement stmt = createQueryStatement(conn, sqlQuery)) {
+            boolean autoCommit = conn.getAutoCommit();
+            memory.getDialect().prepareStreaming(conn, stmt, STREAMING_FETCH_SIZE);
+            boolean completed = false;
+            try {
+                watch = StatementWatchdog.getInstance().watch(stmt, deadline, sqlQuery);
+                try (ResultSet rs = executeQuery(stmt, sqlQuery)) {
+                    readResults(rs, deadline, result, lobSink);
+                } finally {
+                    watch.disarm();
+                }
+                completed = true;
+            } finally {
+                endStreaming(conn, autoCommit, completed);
+            }
         } catch (SQLException e) {
             // Handle errors for JDBC
-            reportSQLError(e);
+            reportSQLError(e, watch);
         }
-
-        return rsArray;
     }
     
     /**
@@ -107,47 +208,125 @@ public class JDBC {
      * @throws VantiqSQLException
      */
     public int processPublish(String sqlQuery) throws VantiqSQLException {
+        return processPublish(sqlQuery, 0);
+    }
+
+    /**
+     * Executes the provided update, cancelling it if it has not completed by the deadline.
+     * @param sqlQuery          A String representation of the query, retrieved from the PUBLISH message.
+     * @param deadline          The time (in epoch milliseconds) by which the update must complete, 0 for no deadline
+     * @return                  The integer value that is returned by the executeUpdate() method representing the row count.
+     * @throws QueryTimeoutException    If the update was cancelled because the deadline passed
+     * @throws VantiqSQLException
+     */
+    public int processPublish(String sqlQuery, long deadline) throws VantiqSQLException {
         int publishSuccess = -1;
+        StatementWatchdog.Watch watch = null;
 
-        try (Connection conn = ds.getConnection();
+        try (Connection conn = checkout();
              Statement stmt = conn.createStatement()) {
-            publishSuccess = stmt.executeUpdate(sqlQuery);
+            watch = StatementWatchdog.getInstance().watch(stmt, deadline, sqlQuery);
+            Trace trace = Trace.current();
+            long execute = trace.begin();
+            try {
+                publishSuccess = stmt.executeUpdate(sqlQuery);
+            } finally {
+                watch.disarm();
+                trace.end(Trace.EXECUTE, execute);
+            }
+            if (MetadataRegistry.isDDL(sqlQuery)) {
+                memory.invalidateSchema();
+            }
         } catch (SQLException e) {
+            // The cached table metadata and statements may be stale if the statement failed on a missing table or column
+            if (MetadataRegistry.isSchemaError(e)) {
+                memory.invalidateSchema();
+            }
             // Handle errors for JDBC
-            reportSQLError(e);
+            reportSQLError(e, watch);
         }
 
         return publishSuccess;
     }
 
     public int processInsert(String table, Map data) {
-        return memory.create(table, data);
+        Trace trace = Trace.current();
+        long execute = trace.begin();
+        try {
+            return memory.create(table, data);
+        } finally {
+            trace.end(Trace.EXECUTE, execute);
+        }
+    }
+
+    /**
+     * Inserts the rows, or updates the existing rows with the same key, in one batch using the upsert syntax of the
+     * database (see {@link Memory#upsert(String, List, List)}).
+     * @param table     The table the rows are written to
+     * @param keys      The columns of the primary key (or of a unique index) identifying existing rows
+     * @param rows      The rows, each of which must contain all of the key columns
+     * @return          The update count of each row, and the indexes of the rows that failed
+     */
+    public ChunkedBatch.BatchResult processUpsert(String table, List<String> keys, List<Map<String, Object>> rows) {
+        Trace trace = Trace.current();
+        long execute = trace.begin();
+        try {
+            return memory.upsert(table, keys, rows);
+        } finally {
+            trace.end(Trace.EXECUTE, execute);
+        }
     }
 
     /**
      * The method used to execute the provided list of queries, triggered by a PUBLISH on the respective VANTIQ source. These queries
-     * are processed as a batch.
+     * are processed as a batch, in chunks of batchChunkSize queries.
+     * @param queryList             The list of queries to be processed as a batch.
+     * @return                      The update count of each query, and the indexes of the queries that failed
+     * @throws VantiqSQLException
+     * @throws ClassCastException
+     */
+    public ChunkedBatch.BatchResult processBatchPublish(List queryList) throws VantiqSQLException, ClassCastException {
+        return processBatchPublish(queryList, 0);
+    }
+
+    /**
+     * Executes the provided list of queries as a batch, cancelling it if it has not completed by the deadline. A
+     * failing query does not stop the batch, the others are still executed (and committed, with commitPerChunk).
      * @param queryList             The list of queries to be processed as a batch.
-     * @return
+     * @param deadline              The time (in epoch milliseconds) by which the batch must complete, 0 for no deadline
+     * @return                      The update count of each query, and the indexes of the queries that failed
+     * @throws QueryTimeoutException    If the batch was cancelled because the deadline passed
      * @throws VantiqSQLException
      * @throws ClassCastException
      */
-    public int[] processBatchPublish(List queryList) throws VantiqSQLException, ClassCastException {
-        int[] publishSuccess = null;
+    public ChunkedBatch.BatchResult processBatchPublish(List queryList, long deadline)
+            throws VantiqSQLException, ClassCastException {
+        ChunkedBatch.BatchResult publishSuccess = null;
+        StatementWatchdog.Watch watch = null;
 
-        try (Connection conn = ds.getConnection();
+        try (Connection conn = checkout();
              Statement stmt = conn.createStatement()) {
 
-            // Adding queries into batch
-            for (int i = 0; i < queryList.size(); i++) {
-                stmt.addBatch((String) queryList.get(i));
+            // Executing the batch, one chunk at a time
+            watch = StatementWatchdog.getInstance().watch(stmt, deadline,
+                    "batch of " + queryList.size() + " statements");
+            Trace trace = Trace.current();
+            long execute = trace.begin();
+            try {
+                publishSuccess = chunkedBatch.execute(conn, stmt, queryList.size(), i -> {
+                    // The watchdog only cancels the chunk running at the deadline, don't start another one
+                    if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                        throw new SQLTimeoutException("The deadline passed before the batch completed.");
+                    }
+                    stmt.addBatch((String) queryList.get(i));
+                });
+            } finally {
+                watch.disarm();
+                trace.end(Trace.EXECUTE, execute);
             }
-
-            // Executing the batch
-            publishSuccess = stmt.executeBatch();
         } catch (SQLException e) {
             // Handle errors for JDBC
-            reportSQLError(e);
+            reportSQLError(e, watch);
         }
 
         return publishSuccess;
@@ -156,68 +335,224 @@ public class JDBC {
     /**
      * Method used to create a map out of the output ResultSet. Map is needed in order to send the data back to VANTIQ
      * @param queryResults   A ResultSet containing return value from executeQuery()
-     * @return               A HashMap Array containing all of the rows from the ResultSet, each converted to a HashMap,
-     *                       (or an empty HashMap Array if the ResultSet was empty).
+     * @return               A Map Array containing all of the rows from the ResultSet, each converted to a
+     *                       {@link CompactRow}, (or an empty Map Array if the ResultSet was empty).
+     * @throws VantiqSQLException
+     */
+    Map[] createMapFromResults(ResultSet queryResults) throws VantiqSQLException {
+        return createMapFromResults(queryResults, 0);
+    }
+
+    /**
+     * Same as {@link #createMapFromResults(ResultSet)}, but stops reading rows once the deadline has passed.
+     * @param queryResults   A ResultSet containing return value from executeQuery()
+     * @param deadline       The time (in epoch milliseconds) by which all rows must be read, 0 for no deadline
+     * @return               A Map Array containing all of the rows from the ResultSet
+     * @throws QueryTimeoutException    If the deadline passed before all rows were read
      * @throws VantiqSQLException
      */
-    HashMap[] createMapFromResults(ResultSet queryResults) throws VantiqSQLException {
-        ArrayList<HashMap> rows = new ArrayList<HashMap>();
+    Map[] createMapFromResults(ResultSet queryResults, long deadline) throws VantiqSQLException {
+        SpillableResult result = new SpillableResult();
         try {
-            if (!queryResults.next()) { 
-                return rows.toArray(new HashMap[rows.size()]);
-            } else {
-                ResultSetMetaData md = queryResults.getMetaData(); 
-                int columns = md.getColumnCount();
-                
-                // Iterate over rows of Result Set and create a map for each row
-                do {
-                    HashMap row = new HashMap(columns);
-                    for (int i=1; i<=columns; ++i) {
-                        // Check column type to retrieve data in appropriate manner
-                        int columnType = md.getColumnType(i);
-                        switch (columnType) {
-                            case Types.DECIMAL:
-                                if (queryResults.getBigDecimal(i) != null) {
-                                    row.put(md.getColumnName(i), queryResults.getBigDecimal(i));
-                                }
-                                break;
-                            case Types.DATE:
-                                Date rowDate = queryResults.getDate(i);
-                                if (rowDate != null) {
-                                    row.put(md.getColumnName(i), dfDate.format(rowDate));
-                                }
-                                break;
-                            case Types.TIME:
-                                Time rowTime = queryResults.getTime(i);
-                                if (rowTime != null) {
-                                    row.put(md.getColumnName(i), dfTime.format(rowTime));
-                                }
-                                break;
-                            case Types.TIMESTAMP:
-                                Timestamp rowTimestamp = queryResults.getTimestamp(i);
-                                if (rowTimestamp != null) {
-                                    row.put(md.getColumnName(i), dfTimestamp.format(rowTimestamp));
-                                }
-                                break;
-                            default:
-                                // If none of the initial cases are met, the data will be converted to a String via getObject()
-                                if(queryResults.getObject(i) != null) {
-                                    row.put(md.getColumnName(i), queryResults.getObject(i));
-                                }
-                                break;
-                        }
-                    }
-                    // Add each row map to the list of rows
-                    rows.add(row);
-                } while(queryResults.next());
-            }
+            readResults(queryResults, deadline, result, null);
         } catch (SQLException e) {
             reportSQLError(e);
         }
-        HashMap[] rowsArray = rows.toArray(new HashMap[rows.size()]);
-        return rowsArray;
+        return result.toArray();
+    }
+
+    /**
+     * Converts each row of the ResultSet to a {@link CompactRow} and adds it to the result.
+     * @param queryResults   A ResultSet containing return value from executeQuery()
+     * @param deadline       The time (in epoch milliseconds) by which all rows must be read, 0 for no deadline
+     * @param result         The result the rows are added to
+     * @param lobSink        Receives the chunks of large LOB values, or null to truncate them
+     * @throws QueryTimeoutException    If the deadline passed before all rows were read
+     * @throws VantiqSQLException       If the result could not be spilled to disk
+     * @throws SQLException
+     */
+    void readResults(ResultSet queryResults, long deadline, SpillableResult result, LobReader.Sink lobSink)
+            throws VantiqSQLException, SQLException {
+        // Moving to the next row is timed as the fetch phase of the trace, building the row as the map phase
+        Trace trace = Trace.current();
+        long fetch = trace.begin();
+        boolean hasNext = queryResults.next();
+        trace.end(Trace.FETCH, fetch);
+        if (hasNext) {
+            ResultSetMetaData md = queryResults.getMetaData(); 
+            int columns = md.getColumnCount();
+
+            // The column names and types are the same for every row, look them up once
+            String[] columnNames = new String[columns];
+            int[] columnTypes = new int[columns];
+            for (int i = 1; i <= columns; ++i) {
+                columnNames[i - 1] = md.getColumnName(i);
+                columnTypes[i - 1] = md.getColumnType(i);
+            }
+            RowSchema schema = new RowSchema(columnNames);
+
+            // Iterate over rows of Result Set and create a compact row for each of them
+            do {
+                long map = trace.begin();
+                Object[] values = new Object[columns];
+                for (int i=1; i<=columns; ++i) {
+                    values[i - 1] = readValue(queryResults, i, columnTypes[i - 1], lobSink);
+                }
+                // Add each row to the result, null values are left out of the row like they were of HashMap rows
+                result.add(new CompactRow(schema, values));
+                trace.end(Trace.MAP, map);
+
+                // The statement can no longer be cancelled once all rows are on the client, check here instead
+                if (deadline > 0 && result.size() % DEADLINE_CHECK_ROWS == 0
+                        && System.currentTimeMillis() > deadline) {
+                    throw new QueryTimeoutException("The deadline passed while the query results were being read.");
+                }
+
+                fetch = trace.begin();
+                hasNext = queryResults.next();
+                trace.end(Trace.FETCH, fetch);
+            } while (hasNext);
+        }
     }
     
+    /**
+     * Reads a column of the current row, checking the column type to retrieve the data in the appropriate manner.
+     * @param queryResults  The ResultSet, positioned on the row
+     * @param column        The index of the column, starting from 1
+     * @param columnType    The {@link Types} of the column
+     * @param lobSink       Receives the chunks of large LOB values, or null to truncate them
+     * @return              The value sent to VANTIQ for the column, or null
+     * @throws SQLException
+     */
+    Object readValue(ResultSet queryResults, int column, int columnType, LobReader.Sink lobSink) throws SQLException {
+        if (LobReader.isLob(columnType)) {
+            return lobReader.read(queryResults, column, columnType, lobSink);
+        }
+        switch (columnType) {
+            case Types.DECIMAL:
+                return queryResults.getBigDecimal(column);
+            case Types.DATE:
+                Date rowDate = queryResults.getDate(column);
+                return rowDate == null ? null : dfDate.get().format(rowDate);
+            case Types.TIME:
+                Time rowTime = queryResults.getTime(column);
+                return rowTime == null ? null : dfTime.get().format(rowTime);
+            case Types.TIMESTAMP:
+                Timestamp rowTimestamp = queryResults.getTimestamp(column);
+                return rowTimestamp == null ? null : dfTimestamp.get().format(rowTimestamp);
+            default:
+                // If none of the initial cases are met, the data will be converted to a String via getObject()
+                return queryResults.getObject(column);
+        }
+    }
+
+    /**
+     * Executes the provided query and hands its results to the handler in {@link ColumnarBundle}s, for the "columnar"
+     * response format.
+     * @param sqlQuery          A String representation of the query, retrieved from the WITH clause from VANTIQ.
+     * @param deadline          The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     * @param bundleSize        The number of rows per bundle, 0 to return all rows in one bundle
+     * @param handler           Called once per bundle, not called at all if the query returned no rows
+     * @param lobSink           Receives the chunks of large LOB values, or null to truncate them
+     * @throws QueryTimeoutException    If the query was cancelled because the deadline passed
+     * @throws VantiqSQLException
+     * @throws IOException              If the handler failed to send a bundle
+     */
+    public void processColumnarQuery(String sqlQuery, long deadline, int bundleSize,
+                                     ColumnarBundle.BundleHandler handler, LobReader.Sink lobSink)
+            throws VantiqSQLException, IOException {
+        StatementWatchdog.Watch watch = null;
+
+        try (Connection conn = getConnection();
+             Statement stmt = createQueryStatement(conn, sqlQuery)) {
+            boolean autoCommit = conn.getAutoCommit();
+            memory.getDialect().prepareStreaming(conn, stmt, STREAMING_FETCH_SIZE);
+            boolean completed = false;
+            try {
+                watch = StatementWatchdog.getInstance().watch(stmt, deadline, sqlQuery);
+                try (ResultSet rs = executeQuery(stmt, sqlQuery)) {
+                    ResultSetMetaData md = rs.getMetaData();
+                    int columns = md.getColumnCount();
+                    String[] columnNames = new String[columns];
+                    int[] columnTypes = new int[columns];
+                    for (int i = 1; i <= columns; ++i) {
+                        columnNames[i - 1] = md.getColumnName(i);
+                        columnTypes[i - 1] = md.getColumnType(i);
+                    }
+
+                    int capacity = bundleSize > 0 ? bundleSize : DEADLINE_CHECK_ROWS;
+                    Trace trace = Trace.current();
+                    long fetch = trace.begin();
+                    boolean hasNext = rs.next();
+                    trace.end(Trace.FETCH, fetch);
+                    long rowsRead = 0;
+                    while (hasNext) {
+                        ColumnarBundle bundle = new ColumnarBundle(columnNames, columnTypes, capacity);
+                        do {
+                            long map = trace.begin();
+                            bundle.readRow(rs, (r, column, columnType) -> readValue(r, column, columnType, lobSink));
+                            trace.end(Trace.MAP, map);
+                            fetch = trace.begin();
+                            hasNext = rs.next();
+                            trace.end(Trace.FETCH, fetch);
+                            rowsRead++;
+                            if (deadline > 0 && rowsRead % DEADLINE_CHECK_ROWS == 0
+                                    && System.currentTimeMillis() > deadline) {
+                                throw new QueryTimeoutException(
+                                        "The deadline passed while the query results were being read.");
+                            }
+                        } while (hasNext && (bundleSize <= 0 || bundle.size() < bundleSize));
+                        long send = trace.begin();
+                        handler.accept(bundle, !hasNext);
+                        trace.end(Trace.SEND, send);
+                    }
+                } finally {
+                    watch.disarm();
+                }
+                completed = true;
+            } finally {
+                endStreaming(conn, autoCommit, completed);
+            }
+        } catch (SQLException e) {
+            // Handle errors for JDBC
+            reportSQLError(e, watch);
+        }
+    }
+
+    /**
+     * Ends the transaction the dialect may have started to stream the results (see
+     * {@link cn.ffcs.memory.Dialect#prepareStreaming}), and restores auto-commit. The transaction is committed once the
+     * results were read, so that the side effects of the query are kept, and rolled back if the query failed.
+     * @param conn          The connection of the query
+     * @param autoCommit    The auto-commit of the connection before the results were streamed
+     * @param completed     Whether the results were read without error
+     * @throws SQLException If the transaction of a completed query could not be committed
+     */
+    private static void endStreaming(Connection conn, boolean autoCommit, boolean completed) throws SQLException {
+        if (!autoCommit || conn.getAutoCommit()) {
+            return;
+        }
+        if (completed) {
+            try {
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return;
+        }
+        // The error of the query is the one reported, not the state of its aborted transaction
+        try {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            LOG.debug("Could not roll back the transaction of a failed query.", e);
+        }
+    }
+
+    public LobReader getLobReader() {
+        return lobReader;
+    }
+
     /**
      * Method used to try and reconnect if database connection was lost. Used for synchronous processing (connection pool handles this internally).
      * @throws VantiqSQLException
@@ -239,13 +574,121 @@ public class JDBC {
      * @throws VantiqSQLException
      */
     public void reportSQLError(SQLException e) throws VantiqSQLException {
+        reportSQLError(e, null);
+    }
+
+    /**
+     * Method used to throw the VantiqSQLException, or a {@link QueryTimeoutException} if the statement failed because
+     * it timed out or was cancelled by the watchdog.
+     * @param e     The SQLException caught by the calling method
+     * @param watch The watchdog of the failed statement, or null if it was not watched
+     * @throws VantiqSQLException
+     */
+    public void reportSQLError(SQLException e, StatementWatchdog.Watch watch) throws VantiqSQLException {
+        if (watch != null && watch.isCancelled()) {
+            throw new VantiqSQLException(this.getClass().getCanonicalName() + ": The statement was cancelled through "
+                    + "the admin endpoint: " + e.getMessage());
+        }
+        if (e instanceof CircuitOpenException) {
+            throw new VantiqSQLException(this.getClass().getCanonicalName() + ": " + e.getMessage(), e);
+        }
+        CircuitBreaker breaker = bulkheadDs.getCircuitBreaker();
+        if (e instanceof SQLTimeoutException || (watch != null && watch.hasFired())) {
+            QueryTimeoutException timeout = new QueryTimeoutException(this.getClass().getCanonicalName() + ": The "
+                    + "statement was cancelled because it did not complete before its deadline: " + e.getMessage(), e);
+            if (breaker != null) {
+                breaker.failed(timeout);
+            }
+            throw timeout;
+        }
+        if (breaker != null) {
+            breaker.failed(e);
+        }
         String message = this.getClass().getCanonicalName() + ": A database error occurred: " + e.getMessage() +
                 " SQL State: " + e.getSQLState() + ", Error Code: " + e.getErrorCode();
         throw new VantiqSQLException(message);
     }
 
     public DataSource getDataSource() {
-        return ds;
+        return bulkheadDs;
+    }
+
+    /**
+     * @param bulkheads The quotas the connections are taken within, null to take them freely
+     */
+    public void setBulkheads(Bulkheads bulkheads) {
+        bulkheadDs.setBulkheads(bulkheads);
+    }
+
+    /**
+     * @return  The breaker refusing connections while the database is down, or null if the source has none
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return bulkheadDs.getCircuitBreaker();
+    }
+
+    /**
+     * @return  The number of active, idle and total connections of the pool, and the threads waiting for one
+     */
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maximumPoolSize", ds.getMaximumPoolSize());
+        HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+        if (pool != null) {
+            stats.put("active", pool.getActiveConnections());
+            stats.put("idle", pool.getIdleConnections());
+            stats.put("total", pool.getTotalConnections());
+            stats.put("waiting", pool.getThreadsAwaitingConnection());
+        }
+        return stats;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    /**
+     * @return  A connection from the pool, whose prepared statements are cached when the statementCacheSize option is set
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        return memory.getStatementCache().wrap(checkout());
+    }
+
+    /**
+     * Takes a connection from the pool, timed as the checkout phase of the current {@link Trace}.
+     */
+    private Connection checkout() throws SQLException {
+        Trace trace = Trace.current();
+        long checkout = trace.begin();
+        Connection conn = bulkheadDs.getConnection();
+        trace.end(Trace.CHECKOUT, checkout);
+        return conn;
+    }
+
+    /**
+     * Queries are prepared through the statement cache when it is enabled, so that a repeated query such as the
+     * pollQuery is only parsed once per connection. Queries holding a '?' are run as plain statements, since the driver
+     * would take it for a parameter.
+     */
+    private Statement createQueryStatement(Connection conn, String sqlQuery) throws SQLException {
+        if (memory.getStatementCache().isEnabled() && sqlQuery.indexOf('?') < 0) {
+            return conn.prepareStatement(sqlQuery);
+        }
+        return conn.createStatement();
+    }
+
+    private static ResultSet executeQuery(Statement stmt, String sqlQuery) throws SQLException {
+        Trace trace = Trace.current();
+        long execute = trace.begin();
+        try {
+            if (stmt instanceof PreparedStatement) {
+                return ((PreparedStatement) stmt).executeQuery();
+            }
+            return stmt.executeQuery(sqlQuery);
+        } finally {
+            trace.end(Trace.EXECUTE, execute);
+        }
     }
 
     /**
@@ -262,6 +705,8 @@ public class JDBC {
         }
         // Close connection pool if open
         if (ds != null) {
+            MetadataRegistry.remove(bulkheadDs);
+            memory.getStatementCache().clear();
             ds.close();
         }
     }
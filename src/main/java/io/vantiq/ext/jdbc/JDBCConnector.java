@@ -1,8 +1,6 @@
 package io.vantiq.ext.jdbc;
 
-import cn.ffcs.memory.JSONArrayHandler;
-import cn.ffcs.memory.Memory;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import cn.ffcs.memory.ChunkedBatch;
 import io.vantiq.ext.jdbc.handler.*;
 import io.vantiq.extjsdk.ConnectorConfig;
 import io.vantiq.extjsdk.ExtensionServiceMessage;
@@ -11,9 +9,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static io.vantiq.extjsdk.ConnectorConstants.CONNECTOR_CONNECT_TIMEOUT;
 import static io.vantiq.extjsdk.ConnectorConstants.RECONNECT_INTERVAL;
@@ -25,11 +28,56 @@ public class JDBCConnector implements Closeable {
 
     private ExtensionWebSocketClient vantiqClient = null;
     private Timer scheduledTimer = null;
-    private JDBC jdbc    = null;
+    private Runnable pollJob = null;
+    private long pollTime = 0;
+    private TableLoader tableLoader = null;
+    private Timer mirrorTimer = null;
+    private volatile TableMirror tableMirror = null;
+    private final AtomicReference<JDBCHandle> jdbcHandle = new AtomicReference<>();
+    private volatile TaskExecutor taskExecutor = null;
+    private volatile Bulkheads bulkheads = null;
+    private volatile QueryCoalescer queryCoalescer = null;
+    private volatile Tracer tracer = null;
+    private volatile SendLimiter sendLimiter = null;
+    private final Map<String, JobStats> jobStats = new ConcurrentHashMap<>();
+    private AdminServer adminServer = null;
+    private JDBCConnectorConfig config = null;
     private ConnectorConfig connectionInfo;
 
     private final int DEFAULT_BUNDLE_SIZE = 500;
-    private final String SYNCH_LOCK = "synchLock";
+
+    // Bundle size of query messages without a bundleFactor, can be changed through the admin endpoint
+    private volatile int defaultBundleSize = DEFAULT_BUNDLE_SIZE;
+
+    // Option of query and publish messages overriding the queryTimeout of the source, in milliseconds
+    private static final String QUERY_TIMEOUT = "queryTimeout";
+
+    // Option of query messages overriding the maxResultMemory of the source, in bytes
+    private static final String MAX_RESULT_MEMORY = "maxResultMemory";
+
+    // Option of multi-query messages lowering the number of their queries run at once
+    private static final String PARALLELISM = "parallelism";
+
+    // Value of the "format" option of query messages asking for a column oriented response
+    private static final String FORMAT_COLUMNAR = "columnar";
+
+    // Value of the "control" property of publish messages creating the outbox table and its triggers
+    private static final String CONTROL_INSTALL_OUTBOX = "installOutbox";
+
+    // Value of the "control" property of publish messages discarding the load checkpoint and loading the table again
+    private static final String CONTROL_RESTART_LOAD = "restartLoad";
+
+    // Value of the "control" property of publish messages clearing the cached table metadata after a schema change
+    private static final String CONTROL_REFRESH_METADATA = "refreshMetadata";
+
+    // Value of the "control" property of query messages replying with the hit rate and size of the statement cache
+    private static final String CONTROL_STATEMENT_CACHE_STATS = "statementCacheStats";
+
+    // Value of the "control" property of query messages replying with the slow traces kept by the tracer
+    private static final String CONTROL_TRACES = "traces";
+
+    // Maximum time (in milliseconds) a replaced connection pool is given to finish in-flight work before it is closed
+    private static final int DRAIN_TIMEOUT = 30000;
 
 
     public JDBCConnector() { }
@@ -73,27 +121,68 @@ public class JDBCConnector implements Closeable {
      * @param message   The Query message.
      */
     public void executeQuery(ExtensionServiceMessage message) {
+        executeQuery(message, getDeadline(message));
+    }
+
+    /**
+     * Same as {@link #executeQuery(ExtensionServiceMessage)}, but cancels the query if it has not completed by the
+     * deadline and replies with a queryTimeout error.
+     * @param message   The Query message.
+     * @param deadline  The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     */
+    public void executeQuery(ExtensionServiceMessage message, long deadline) {
         Map<String, ?> request = (Map<String, ?>) message.getObject();
         String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
 
-        // Getting local copy of JDBC class
-        JDBC localJDBC = null;
-        synchronized (SYNCH_LOCK) {
-            localJDBC = jdbc;
-        }
-        if (localJDBC == null) {
+        // Hold a reference on the JDBC instance so that it is not closed while the query is running
+        JDBCHandle handle = acquireJdbc();
+        if (handle == null) {
             if (vantiqClient != null) {
                 vantiqClient.sendQueryError(replyAddress, this.getClass().getName() + ".closed",
                         "JDBC connection closed before operation could complete.", null);
             }
+            return;
         }
 
         // Gather query results and send the appropriate response, or send a query error if an exception is caught
+        Trace trace = startTrace("query");
+        Trace.Scope scope = trace.activate();
         try {
-            if (request.get("query") instanceof String) {
+            if (CONTROL_STATEMENT_CACHE_STATS.equals(request.get("control"))) {
+                sendQueryResponse(200, replyAddress,
+                        new Map[]{handle.getJdbc().getMemory().getStatementCache().getStats()});
+            } else if (CONTROL_TRACES.equals(request.get("control"))) {
+                Tracer localTracer = tracer;
+                List<Map<String, Object>> traces = localTracer == null ? Collections.emptyList() : localTracer.dump();
+                sendDataFromQuery(traces.toArray(new Map[0]), message);
+            } else if (request.get("query") instanceof String) {
                 String queryString = (String) request.get("query");
-                HashMap[] queryArray = localJDBC.processQuery(queryString);
-                sendDataFromQuery(queryArray, message);
+                if (FORMAT_COLUMNAR.equals(request.get("format"))) {
+                    sendColumnarQuery(handle.getJdbc(), queryString, deadline, message);
+                    return;
+                }
+                TableMirror mirror = tableMirror;
+                Map[] mirrored = mirror == null ? null : mirror.lookup(queryString);
+                if (mirrored != null) {
+                    sendDataFromQuery(mirrored, message);
+                    return;
+                }
+                QueryCoalescer coalescer = queryCoalescer;
+                // Chunks of large LOB values only go to the message that ran the query, so those are not shared
+                if (coalescer != null && !handle.getJdbc().getLobReader().isChunking()) {
+                    executeCoalescedQuery(coalescer, handle.getJdbc(), queryString, deadline, message);
+                    return;
+                }
+                try (SpillableResult result = createResult(request)) {
+                    // Chunks of large LOB values are sent ahead of the rows that reference them
+                    handle.getJdbc().processQuery(queryString, deadline, result,
+                            chunk -> sendQueryResponse(100, replyAddress, chunk));
+                    sendDataFromQuery(result, message);
+                }
+            } else if (request.get("queries") instanceof Map) {
+                Map<String, Object> response = new MultiQuery(handle.getJdbc(), getParallelism(request))
+                        .execute((Map<String, ?>) request.get("queries"), deadline, () -> createResult(request));
+                sendQueryResponse(200, replyAddress, response);
             } else {
                 LOG.error("Query could not be executed because query was not a String.");
                 vantiqClient.sendQueryError(replyAddress, this.getClass().getName() + ".queryNotString",
@@ -101,6 +190,61 @@ public class JDBCConnector implements Closeable {
                                 + "not a string.", null);
             }
         } catch (Exception e) {
+            sendQueryFailure(e, message);
+        } finally {
+            handle.release();
+            scope.close();
+            trace.finish();
+        }
+    }
+
+    /**
+     * Runs the query through the {@link QueryCoalescer}, which either runs it and sends the result to every message
+     * with the same query that arrived meanwhile, or leaves this message to such a query.
+     */
+    private void executeCoalescedQuery(QueryCoalescer coalescer, JDBC localJDBC, String queryString, long deadline,
+                                       ExtensionServiceMessage message) {
+        Map<String, ?> request = (Map<String, ?>) message.getObject();
+        coalescer.execute(queryString, message, () -> {
+            SpillableResult result = createResult(request);
+            try {
+                localJDBC.processQuery(queryString, deadline, result, null);
+                return result;
+            } catch (Exception e) {
+                result.close();
+                throw e;
+            }
+        }, new QueryCoalescer.Delivery() {
+            @Override
+            public void send(SpillableResult result, ExtensionServiceMessage waiting) throws Exception {
+                sendDataFromQuery(result, waiting);
+            }
+
+            @Override
+            public void fail(Exception e, ExtensionServiceMessage waiting) {
+                sendQueryFailure(e, waiting);
+            }
+        });
+    }
+
+    /**
+     * Replies to a Query message with the error that made its query fail.
+     * @param e         The error
+     * @param message   The Query message
+     */
+    private void sendQueryFailure(Exception e, ExtensionServiceMessage message) {
+        Map<String, ?> request = (Map<String, ?>) message.getObject();
+        String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
+        if (CircuitBreaker.isCircuitOpen(e)) {
+            LOG.debug("Query was refused because the database is unavailable. Request was: {}", request.get("query"));
+            vantiqClient.sendQueryError(replyAddress, this.getClass().getName() + ".circuitOpen",
+                    e.getMessage(), null);
+        } else if (e instanceof QueryTimeoutException) {
+            LOG.warn("Query was cancelled because it did not complete before its deadline. Request was: {}",
+                    request.get("query"));
+            vantiqClient.sendQueryError(replyAddress, this.getClass().getName() + ".queryTimeout",
+                    "The query was cancelled because it did not complete before its deadline: " + e.getMessage(), null);
+        } else {
             LOG.error("An unexpected error occurred when executing the requested query.", e);
             LOG.error("Request was: {}", request);
             vantiqClient.sendQueryError(replyAddress, Exception.class.getCanonicalName(),
@@ -115,34 +259,157 @@ public class JDBCConnector implements Closeable {
      * @param message   The Query message.
      */
     public void executePublish(ExtensionServiceMessage message) {
+        executePublish(message, getDeadline(message));
+    }
+
+    /**
+     * Same as {@link #executePublish(ExtensionServiceMessage)}, but cancels the statement if it has not completed by
+     * the deadline.
+     * @param message   The Publish message.
+     * @param deadline  The time (in epoch milliseconds) by which the statement must complete, 0 for no deadline
+     */
+    public void executePublish(ExtensionServiceMessage message, long deadline) {
         Map<String, ?> request = (Map<String, ?>) message.getObject();
 
+        JDBCHandle handle = acquireJdbc();
+        if (handle == null) {
+            LOG.error("Publish could not be executed because the JDBC connection is closed. Request was: {}", request);
+            return;
+        }
+
         // Gather query results, or send a query error if an exception is caught
+        Trace trace = startTrace("publish");
+        Trace.Scope scope = trace.activate();
         try {
-            if (request.containsKey("table") && request.containsKey("data")) {
+            JDBC localJDBC = handle.getJdbc();
+            if (CONTROL_INSTALL_OUTBOX.equals(request.get("control"))) {
+                installOutbox(localJDBC, (List<String>) request.get("tables"));
+            } else if (CONTROL_RESTART_LOAD.equals(request.get("control"))) {
+                restartLoad();
+            } else if (CONTROL_REFRESH_METADATA.equals(request.get("control"))) {
+                localJDBC.getMemory().invalidateSchema();
+            } else if (request.containsKey("table") && request.get("data") instanceof List) {
+                String table = (String) request.get("table");
+                List<String> keys;
+                if (request.get("key") == null) {
+                    // Without a key, the rows are matched on the primary key of the table
+                    keys = localJDBC.getMemory().getMetadata().getTable(table).getPrimaryKey();
+                } else {
+                    keys = request.get("key") instanceof List ? (List<String>) request.get("key")
+                            : Collections.singletonList((String) request.get("key"));
+                }
+                List<Map<String, Object>> rows = (List<Map<String, Object>>) request.get("data");
+                if (keys.isEmpty() || rows.isEmpty()) {
+                    LOG.error("Upsert could not be executed because the data was empty, or no key was given and the "
+                            + "table has no primary key. Request was: {}", request);
+                } else {
+                    ChunkedBatch.BatchResult result = localJDBC.processUpsert(table, keys, rows);
+                    if (result.hasFailures()) {
+                        sendBatchFailures(rows.size(), result);
+                    }
+                }
+            } else if (request.containsKey("table") && request.containsKey("data")) {
                 String table = (String)request.get("table");
                 Map data = (Map)request.get("data");
-                int result = jdbc.processInsert(table, data);
+                int result = localJDBC.processInsert(table, data);
             } else if (request.get("query") instanceof String) {
                 String queryString = (String) request.get("query");
-                int data = jdbc.processPublish(queryString);
+                int data = localJDBC.processPublish(queryString, deadline);
                 LOG.trace("The returned integer value from Publish Query is the following: ", data);
             } else if (request.get("query") instanceof List) {
                 List queryArray = (List) request.get("query");
-                int[] data = jdbc.processBatchPublish(queryArray);
-                LOG.trace("The returned integer array from Publish Query is the following: ", data);
+                ChunkedBatch.BatchResult data = localJDBC.processBatchPublish(queryArray, deadline);
+                LOG.trace("The returned integer array from Publish Query is the following: ", data.getUpdateCounts());
+                if (data.hasFailures()) {
+                    sendBatchFailures(queryArray.size(), data);
+                }
             } else {
                 LOG.error("Query could not be executed because query was not a String or a List");
             }
+        } catch (QueryTimeoutException e) {
+            LOG.error("Publish was cancelled because it did not complete before its deadline. Request was: {}",
+                    request, e);
+        } catch (UnsupportedOperationException e) {
+            LOG.error("Publish could not be executed: {}. Request was: {}", e.getMessage(), request);
         } catch (ClassCastException e) {
             LOG.error("Could not execute requested query. This is most likely because the query list did not contain Strings.", e);
             LOG.error("Request was: {}", request);
         } catch (Exception e) {
-            LOG.error("An unexpected error occurred when executing the requested query.", e);
-            LOG.error("Request was: {}", request);
+            if (CircuitBreaker.isCircuitOpen(e)) {
+                LOG.warn("Publish was refused because the database is unavailable. Request was: {}", request);
+            } else {
+                LOG.error("An unexpected error occurred when executing the requested query.", e);
+                LOG.error("Request was: {}", request);
+            }
+        } finally {
+            // Reused query results and mirrored tables may no longer match what was written
+            QueryCoalescer coalescer = queryCoalescer;
+            if (coalescer != null) {
+                coalescer.invalidate();
+            }
+            TableMirror mirror = tableMirror;
+            if (mirror != null) {
+                mirror.markStale();
+            }
+            handle.release();
+            scope.close();
+            trace.finish();
         }
     }
 
+    /**
+     * Creates the outbox table of the source and the triggers writing the changes of the given tables to it.
+     * @param jdbc      The JDBC object of the source
+     * @param tables    The tables to capture, may be null to only create the outbox table
+     * @throws VantiqSQLException   If one of the statements failed
+     */
+    private void installOutbox(JDBC jdbc, List<String> tables) throws VantiqSQLException {
+        JDBCConnectorConfig localConfig = config;
+        if (localConfig == null || localConfig.getOutboxTable() == null) {
+            LOG.error("The outbox could not be installed because the source has no outboxTable.");
+            return;
+        }
+        new OutboxCapture(localConfig.getOutboxTable(), localConfig.getOutboxBatchSize(), localConfig.isOutboxDelete())
+                .install(jdbc, tables == null ? Collections.emptyList() : tables);
+    }
+
+    /**
+     * Discards the checkpoint of the running table load and loads the table again from the beginning.
+     */
+    public void restartLoad() {
+        TableLoader loader = tableLoader;
+        if (loader == null) {
+            LOG.error("The load could not be restarted because the source has no loadTable.");
+            return;
+        }
+        loader.restart();
+    }
+
+    /**
+     * Reports the queries (or upserted rows) of a batch publish that failed, as a notification of the form
+     * <pre>
+     * {"batchFailures": [{"index": 3, "message": "..."}], "batchSize": 1000}
+     * </pre>
+     * where index is the position of the query (or row) in the published list. The others have been executed.
+     * @param batchSize     The number of queries in the batch
+     * @param result        The result of the batch
+     */
+    void sendBatchFailures(int batchSize, ChunkedBatch.BatchResult result) {
+        LOG.warn("{} of {} queries of a batch publish failed, at indexes {}", result.getFailedIndexes().size(),
+                batchSize, result.getFailedIndexes());
+        List<Map<String, Object>> failures = new ArrayList<>();
+        for (int i = 0; i < result.getFailedIndexes().size(); i++) {
+            Map<String, Object> failure = new LinkedHashMap<>();
+            failure.put("index", result.getFailedIndexes().get(i));
+            failure.put("message", result.getFailureMessages().get(i));
+            failures.add(failure);
+        }
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("batchFailures", failures);
+        notification.put("batchSize", batchSize);
+        sendNotification(notification);
+    }
+
     /**
      * Executes a query (pollQuery) at a certain rate (pollTime), both specified in the Source Configuration.
      * The resulting data is sent as a notification back to the Source. If multiple rows of data are returned,
@@ -150,106 +417,551 @@ public class JDBCConnector implements Closeable {
      * @param pollQuery     The query string
      */
     public void executePolling(String pollQuery) {
-        // Getting local copy of JDBC class
-        JDBC localJDBC = null;
-        synchronized (SYNCH_LOCK) {
-            localJDBC = jdbc;
-        }
+        executePolling(pollQuery, null);
+    }
 
-        if (localJDBC == null) {
+    /**
+     * Same as {@link #executePolling(String)}, but with a {@link PollDiff} only the rows that changed since the
+     * previous poll are sent, tagged with their operation.
+     * @param pollQuery     The query string
+     * @param diff          The diff of the pollMode "diff", or null to send every row
+     */
+    public void executePolling(String pollQuery, PollDiff diff) {
+        JDBCHandle handle = acquireJdbc();
+        if (handle == null) {
             return;
         }
+        Trace trace = startTrace("poll");
+        Trace.Scope scope = trace.activate();
         try {
-            HashMap[] queryMap = localJDBC.processQuery(pollQuery);
-            if (queryMap != null) {
-                for (HashMap h : queryMap) {
-                    vantiqClient.sendNotification(h);
+            // Large results are spilled like query results, for a diff only the hashes of the previous one are kept
+            try (SpillableResult result = createResult(Collections.emptyMap())) {
+                handle.getJdbc().processQuery(pollQuery, getDeadline(null), result, this::sendNotification);
+                long send = trace.begin();
+                if (diff == null) {
+                    result.forEachBundle(DEFAULT_BUNDLE_SIZE, (rowBundle, last) -> {
+                        for (Map<String, Object> row : rowBundle) {
+                            sendNotification(row);
+                        }
+                    });
+                } else {
+                    diff.apply(result, this::sendNotification);
                 }
+                trace.end(Trace.SEND, send);
             }
         } catch (Exception e) {
-            LOG.error("An unexpected error occurred when executing the polling query.", e);
-            LOG.error("The pollQuery was: " + pollQuery);
+            if (CircuitBreaker.isCircuitOpen(e)) {
+                LOG.debug("The polling query was refused because the database is unavailable.");
+            } else {
+                LOG.error("An unexpected error occurred when executing the polling query.", e);
+                LOG.error("The pollQuery was: " + pollQuery);
+            }
+        } finally {
+            handle.release();
+            scope.close();
+            trace.finish();
+        }
+    }
+
+    /**
+     * Sends the changes waiting in the outbox table as notifications, see {@link OutboxCapture}. Skipped while the
+     * websocket is disconnected, so that the changes stay in the outbox until they can be delivered.
+     * @param capture   The outbox capture of the source
+     */
+    public void executeOutboxCapture(OutboxCapture capture) {
+        ExtensionWebSocketClient client = vantiqClient;
+        if (client == null || !client.isOpen()) {
+            return;
+        }
+        JDBCHandle handle = acquireJdbc();
+        if (handle == null) {
+            return;
+        }
+        try {
+            long sent = capture.drain(handle.getJdbc(), this::sendNotification, client::isOpen);
+            if (sent > 0) {
+                LOG.debug("Sent {} changes from outbox table {}", sent, capture.getOutboxTable());
+            }
+        } catch (Exception e) {
+            LOG.error("An unexpected error occurred when reading the outbox table " + capture.getOutboxTable(), e);
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Reads the mirrored tables again, see {@link TableMirror}.
+     * @param mirror    The table mirror of the source
+     */
+    public void refreshMirror(TableMirror mirror) {
+        JDBCHandle handle = acquireJdbc();
+        if (handle == null) {
+            return;
+        }
+        try {
+            mirror.refresh(handle.getJdbc());
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Computes the deadline of a request from its queryTimeout option, or the queryTimeout of the source if the
+     * request does not specify one.
+     * @param message   The Query or Publish message, or null for scheduled jobs
+     * @return          The deadline in epoch milliseconds, or 0 if the request has no timeout
+     */
+    public long getDeadline(ExtensionServiceMessage message) {
+        JDBCConnectorConfig localConfig = config;
+        long timeout = localConfig == null ? 0 : localConfig.getQueryTimeout();
+        if (message != null && message.getObject() instanceof Map) {
+            Object requestTimeout = ((Map) message.getObject()).get(QUERY_TIMEOUT);
+            if (requestTimeout instanceof Number) {
+                timeout = ((Number) requestTimeout).longValue();
+            }
+        }
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    /**
+     * Runs the task on the executor of its class if the source has {@link Bulkheads}, otherwise on the
+     * {@link TaskExecutor}, or on the calling thread if the source has not been configured yet.
+     * @param workload  The class of the task
+     * @param task      The task to run
+     * @throws RejectedExecutionException   If the executor has too many tasks waiting already
+     */
+    public void runTask(Workload workload, Runnable task) throws RejectedExecutionException {
+        Bulkheads localBulkheads = bulkheads;
+        if (localBulkheads != null) {
+            localBulkheads.execute(workload, task);
+            return;
+        }
+        Runnable scoped = () -> {
+            try (Workload.Scope scope = workload.enter()) {
+                task.run();
+            }
+        };
+        TaskExecutor executor = taskExecutor;
+        if (executor == null) {
+            scoped.run();
+        } else {
+            executor.execute(scoped);
+        }
+    }
+
+    /**
+     * @return  true while the {@link CircuitBreaker} refuses requests because the database is down
+     */
+    public boolean isCircuitOpen() {
+        JDBC jdbc = getJdbc();
+        CircuitBreaker breaker = jdbc == null ? null : jdbc.getCircuitBreaker();
+        return breaker != null && breaker.isRejecting();
+    }
+
+    /**
+     * Records the latency of a query, which background jobs give way to, see {@link Bulkheads}.
+     * @param latency   The time (in milliseconds) from the arrival of the query message to its response
+     */
+    public void recordQueryLatency(long latency) {
+        Bulkheads localBulkheads = bulkheads;
+        if (localBulkheads != null) {
+            localBulkheads.recordQueryLatency(latency);
         }
     }
 
-    public Timer executeLoading(String loadTable, int loadInterval, int loadSize) {
-        Memory memory = new Memory(this.jdbc.getDataSource());
-        final int[] pageNo = {1}; // pagrNo start from 1
-        JSONArrayHandler jsonArrayHandler = new JSONArrayHandler(false);
-        TimerTask task = new TimerTask() {
+    /**
+     * Creates a TimerTask that hands each run of a periodic job to the {@link TaskExecutor}, so the timer thread
+     * never blocks on the database. A run is skipped if the previous run of the same job has not finished yet.
+     * @param jobName   The name of the job, used for logging
+     * @param job       The job to run
+     * @return          The TimerTask to schedule
+     */
+    public TimerTask dispatchingTask(String jobName, Runnable job) {
+        AtomicBoolean running = new AtomicBoolean(false);
+        JobStats stats = new JobStats(jobName);
+        jobStats.put(jobName, stats);
+        return new TimerTask() {
             @Override
             public void run() {
-                StringBuffer query = new StringBuffer("SELECT * FROM " + loadTable);
-                List params = new ArrayList();
-                memory.pager(query, params, loadSize, pageNo[0]);
-                ArrayNode res = memory.query(query, jsonArrayHandler, params);
-                Iterator it = res.iterator();
-                while (it.hasNext()) {
-                    vantiqClient.sendNotification(it.next());
+                // Jobs are paused while the database is down, they resume with the first trial request
+                if (isCircuitOpen()) {
+                    stats.skipped();
+                    return;
                 }
-                if (res.size() > 0) {
-                    pageNo[0]++;
+                if (!running.compareAndSet(false, true)) {
+                    LOG.debug("Skipping {} because the previous run has not finished", jobName);
+                    stats.skipped();
+                    return;
+                }
+                long scheduledAt = scheduledExecutionTime();
+                try {
+                    runTask(Workload.BACKGROUND, () -> {
+                        stats.started(scheduledAt, System.currentTimeMillis());
+                        try {
+                            job.run();
+                        } finally {
+                            stats.finished(System.currentTimeMillis());
+                            running.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    running.set(false);
+                    stats.skipped();
+                    LOG.warn("Skipping {} because the queue of tasks is full", jobName);
                 }
             }
         };
-        // Create new Timer, and schedule the task according to the pollTime
-        Timer pollTimer = new Timer("executeLoading");
-        pollTimer.schedule(task, 0, loadInterval);
-        return pollTimer;
+    }
+
+    /**
+     * Runs the polling job every pollTime milliseconds, replacing the scheduled timer.
+     * @param job       The polling job
+     * @param pollTime  The time (in milliseconds) between two polls
+     * @param delay     The time (in milliseconds) before the first poll
+     */
+    public synchronized void schedulePolling(Runnable job, long pollTime, long delay) {
+        Timer pollTimer = new Timer("executePolling");
+        pollTimer.schedule(dispatchingTask("executePolling", job), delay, pollTime);
+        scheduledTimer = pollTimer;
+        pollJob = job;
+        this.pollTime = pollTime;
+    }
+
+    /**
+     * Changes the rate of the running polling job, without touching the connection pool. The source config sets it
+     * again the next time its scheduling settings change.
+     * @param pollTime  The time (in milliseconds) between two polls
+     * @return          false if the source does not poll
+     */
+    public synchronized boolean setPollTime(long pollTime) {
+        if (pollJob == null || pollTime <= 0) {
+            return false;
+        }
+        scheduledTimer.cancel();
+        schedulePolling(pollJob, pollTime, pollTime);
+        LOG.info("Polling every {} ms", pollTime);
+        return true;
+    }
+
+    public long getPollTime() {
+        return pollJob == null ? 0 : pollTime;
+    }
+
+    public int getDefaultBundleSize() {
+        return defaultBundleSize;
+    }
+
+    /**
+     * Changes the bundle size of query messages that do not specify a bundleFactor.
+     * @param bundleSize    The number of rows per response, 0 to send all rows in one response
+     */
+    public void setDefaultBundleSize(int bundleSize) {
+        this.defaultBundleSize = bundleSize;
+    }
+
+    /**
+     * Drops every cache of the source: the table metadata and prepared statements of the connection pool, the results
+     * kept by the query coalescer, and the mirrored tables, which are served from the database until their next
+     * refresh.
+     */
+    public void flushCaches() {
+        JDBCHandle handle = acquireJdbc();
+        if (handle != null) {
+            try {
+                handle.getJdbc().getMemory().invalidateSchema();
+            } finally {
+                handle.release();
+            }
+        }
+        QueryCoalescer coalescer = queryCoalescer;
+        if (coalescer != null) {
+            coalescer.invalidate();
+        }
+        TableMirror mirror = tableMirror;
+        if (mirror != null) {
+            mirror.markStale();
+        }
+    }
+
+    /**
+     * @return  The state of the connection pool, the task executor, the scheduled jobs and the running statements,
+     *          as shown by the admin endpoint
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        JDBCHandle handle = acquireJdbc();
+        if (handle != null) {
+            try {
+                Map<String, Object> pool = handle.getJdbc().getPoolStats();
+                // Not counting the handle held here
+                pool.put("inFlight", handle.getInFlight() - 1);
+                status.put("pool", pool);
+                status.put("statementCache", handle.getJdbc().getMemory().getStatementCache().getStats());
+            } finally {
+                handle.release();
+            }
+        }
+
+        TaskExecutor executor = taskExecutor;
+        if (executor != null) {
+            Map<String, Object> tasks = new LinkedHashMap<>();
+            tasks.put("mode", executor.getMode());
+            tasks.put("active", executor.getActiveTasks());
+            tasks.put("queued", executor.getQueuedTasks());
+            tasks.put("maxActive", executor.getMaxActiveTasks());
+            tasks.put("maxQueued", executor.getMaxQueuedTasks());
+            status.put("tasks", tasks);
+        }
+        Bulkheads localBulkheads = bulkheads;
+        if (localBulkheads != null) {
+            status.put("bulkheads", localBulkheads.getStats());
+        }
+        JDBC jdbc = getJdbc();
+        CircuitBreaker breaker = jdbc == null ? null : jdbc.getCircuitBreaker();
+        if (breaker != null) {
+            status.put("circuitBreaker", breaker.getStats());
+        }
+
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (JobStats stats : jobStats.values()) {
+            jobs.add(stats.toMap());
+        }
+        status.put("jobs", jobs);
+        long currentPollTime = getPollTime();
+        if (currentPollTime > 0) {
+            status.put("pollTime", currentPollTime);
+        }
+        TableLoader loader = tableLoader;
+        if (loader != null) {
+            Map<String, Object> load = new LinkedHashMap<>();
+            load.put("table", loader.getLoadTable());
+            load.put("paused", loader.isPaused());
+            load.put("rowsFetched", loader.getRowsFetched());
+            load.put("rowsSent", loader.getRowsSent());
+            load.put("bufferedPages", loader.getBufferedPages());
+            load.put("lastPageSentAt", loader.getLastPageSentAt());
+            status.put("load", load);
+        }
+
+        SendLimiter limiter = sendLimiter;
+        if (limiter != null) {
+            status.put("sendLimiter", limiter.getStats());
+        }
+        status.put("defaultBundleSize", defaultBundleSize);
+        status.put("statements", getRunningStatements());
+        return status;
+    }
+
+    /**
+     * @return  The statements running at the moment, the longest running first
+     */
+    public List<Map<String, Object>> getRunningStatements() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> statements = new ArrayList<>();
+        for (StatementWatchdog.Watch watch : StatementWatchdog.getInstance().getRunning()) {
+            Map<String, Object> statement = new LinkedHashMap<>();
+            statement.put("id", watch.getId());
+            statement.put("sql", watch.getSql());
+            statement.put("thread", watch.getThread());
+            statement.put("runningMs", now - watch.getStartedAt());
+            statements.add(statement);
+        }
+        return statements;
+    }
+
+    /**
+     * Creates the result for a query, with the memory budget from the maxResultMemory option of the request or the
+     * source.
+     * @param request   The object of the Query message
+     * @return          The empty result
+     */
+    SpillableResult createResult(Map<String, ?> request) {
+        JDBCConnectorConfig localConfig = config;
+        long budget = localConfig == null ? JDBCConnectorConfig.DEFAULT_MAX_RESULT_MEMORY : localConfig.getMaxResultMemory();
+        if (request.get(MAX_RESULT_MEMORY) instanceof Number) {
+            budget = ((Number) request.get(MAX_RESULT_MEMORY)).longValue();
+        }
+        return new SpillableResult(budget, localConfig == null ? null : localConfig.getSpillDirectory());
+    }
+
+    /**
+     * The number of queries of a multi-query message run at once, the maxQueryParallelism of the source unless the
+     * message asks for fewer.
+     * @param request   The object of the Query message
+     * @return          The parallelism
+     */
+    int getParallelism(Map<String, ?> request) {
+        JDBCConnectorConfig localConfig = config;
+        int parallelism = localConfig == null ? MultiQuery.DEFAULT_PARALLELISM : localConfig.getMaxQueryParallelism();
+        if (request.get(PARALLELISM) instanceof Number) {
+            parallelism = Math.min(parallelism, ((Number) request.get(PARALLELISM)).intValue());
+        }
+        return parallelism;
+    }
+
+    /**
+     * Sends a query result back to VANTIQ. A result that was spilled to disk is always sent in bundles read back from
+     * the spill file, using the default bundle size if the request asked for the whole result at once.
+     * @param result         The result filled by processQuery().
+     * @param message        The Query message
+     * @throws IOException   If the spill file could not be read
+     */
+    public void sendDataFromQuery(SpillableResult result, ExtensionServiceMessage message) throws IOException {
+        if (!result.isSpilled()) {
+            sendDataFromQuery(result.toArray(), message);
+            return;
+        }
+
+        Map<String, ?> request = (Map<String, ?>) message.getObject();
+        String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
+
+        int bundleFactor = defaultBundleSize > 0 ? defaultBundleSize : DEFAULT_BUNDLE_SIZE;
+        if (request.get("bundleFactor") instanceof Integer && (Integer) request.get("bundleFactor") > 0) {
+            bundleFactor = (Integer) request.get("bundleFactor");
+        }
+        long send = Trace.current().begin();
+        result.forEachBundle(bundleFactor, (rowBundle, last) ->
+                // Send the last bundle with 200 code, the others with 100 code signifying more data to come
+                sendQueryResponse(last ? 200 : 100, replyAddress, rowBundle.toArray(new Map[rowBundle.size()])));
+        Trace.current().end(Trace.SEND, send);
+    }
+
+    /**
+     * Sends a notification to the source, paced by the {@link SendLimiter} if the source has a maxSendRate.
+     * @param notification  The notification
+     */
+    public void sendNotification(Object notification) {
+        SendLimiter limiter = sendLimiter;
+        if (limiter == null) {
+            vantiqClient.sendNotification(notification);
+            return;
+        }
+        limiter.acquire();
+        long start = System.nanoTime();
+        vantiqClient.sendNotification(notification);
+        limiter.sent(System.nanoTime() - start);
+    }
+
+    /**
+     * Sends a query response, paced by the {@link SendLimiter} if the source has a maxSendRate.
+     * @param code          The response code, 100 if more responses follow
+     * @param replyAddress  The reply address of the Query message
+     * @param body          The response
+     */
+    public void sendQueryResponse(int code, String replyAddress, Map body) {
+        SendLimiter limiter = sendLimiter;
+        if (limiter == null) {
+            vantiqClient.sendQueryResponse(code, replyAddress, body);
+            return;
+        }
+        limiter.acquire();
+        long start = System.nanoTime();
+        vantiqClient.sendQueryResponse(code, replyAddress, body);
+        limiter.sent(System.nanoTime() - start);
+    }
+
+    /**
+     * Same as {@link #sendQueryResponse(int, String, Map)} for a bundle of rows.
+     */
+    public void sendQueryResponse(int code, String replyAddress, Map[] body) {
+        SendLimiter limiter = sendLimiter;
+        if (limiter == null) {
+            vantiqClient.sendQueryResponse(code, replyAddress, body);
+            return;
+        }
+        limiter.acquire();
+        long start = System.nanoTime();
+        vantiqClient.sendQueryResponse(code, replyAddress, body);
+        limiter.sent(System.nanoTime() - start);
+    }
+
+    /**
+     * Executes a query with the "columnar" format and sends each {@link ColumnarBundle} back to VANTIQ as soon as it
+     * is filled, so that the rows are never held as Maps. The bundleFactor is used like for the row format.
+     * @param localJDBC     The JDBC instance used to run the query
+     * @param queryString   The query to execute
+     * @param deadline      The time (in epoch milliseconds) by which the query must complete, 0 for no deadline
+     * @param message       The Query message
+     * @throws VantiqSQLException
+     * @throws IOException
+     */
+    void sendColumnarQuery(JDBC localJDBC, String queryString, long deadline, ExtensionServiceMessage message)
+            throws VantiqSQLException, IOException {
+        Map<String, ?> request = (Map<String, ?>) message.getObject();
+        String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
+
+        int bundleFactor = defaultBundleSize;
+        if (request.get("bundleFactor") instanceof Integer && (Integer) request.get("bundleFactor") > -1) {
+            bundleFactor = (Integer) request.get("bundleFactor");
+        }
+
+        boolean[] sent = new boolean[1];
+        localJDBC.processColumnarQuery(queryString, deadline, bundleFactor, (bundle, last) -> {
+            // Send the last bundle with 200 code, the others with 100 code signifying more data to come
+            sendQueryResponse(last ? 200 : 100, replyAddress, bundle.toResponse());
+            sent[0] = true;
+        }, chunk -> sendQueryResponse(100, replyAddress, chunk));
+        if (!sent[0]) {
+            // If data is empty send empty map with 204 code
+            sendQueryResponse(204, replyAddress, new LinkedHashMap<>());
+        }
     }
 
     /**
      * Called by executeQuery() once the query has been executed, and sends the retrieved data back to VANTIQ.
-     * @param queryArray     A HashMap Array containing the retrieved data from processQuery().
+     * @param queryArray     A Map Array containing the retrieved data from processQuery().
      * @param message        The Query message
      */
-    public void sendDataFromQuery(HashMap[] queryArray, ExtensionServiceMessage message) {
+    public void sendDataFromQuery(Map[] queryArray, ExtensionServiceMessage message) {
         Map<String, ?> request = (Map<String, ?>) message.getObject();
         String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
 
-        int bundleFactor = DEFAULT_BUNDLE_SIZE;
+        int bundleFactor = defaultBundleSize;
         if (request.get("bundleFactor") instanceof Integer && (Integer) request.get("bundleFactor") > -1) {
             bundleFactor = (Integer) request.get("bundleFactor");
         }
 
         // Send the results of the query
+        long send = Trace.current().begin();
         if (queryArray.length == 0) {
             // If data is empty send empty map with 204 code
-            vantiqClient.sendQueryResponse(204, replyAddress, new LinkedHashMap<>());
+            sendQueryResponse(204, replyAddress, new LinkedHashMap<>());
         } else if (bundleFactor == 0) {
             // If the bundleFactor was specified to be 0, then we sent the entire array
-            vantiqClient.sendQueryResponse(200, replyAddress, queryArray);
+            sendQueryResponse(200, replyAddress, queryArray);
         } else {
             // Otherwise, send messages containing 'bundleFactor' number of rows
             int len = queryArray.length;
             for (int i = 0; i < len; i += bundleFactor) {
-                HashMap[] rowBundle = Arrays.copyOfRange(queryArray, i, Math.min(queryArray.length, i+bundleFactor));
+                Map[] rowBundle = Arrays.copyOfRange(queryArray, i, Math.min(queryArray.length, i+bundleFactor));
 
                 // If we reached the last row, send with 200 code
                 if  (i + bundleFactor >= len) {
-                    vantiqClient.sendQueryResponse(200, replyAddress, rowBundle);
+                    sendQueryResponse(200, replyAddress, rowBundle);
                 } else {
                     // Otherwise, send row with 100 code signifying more data to come
-                    vantiqClient.sendQueryResponse(100, replyAddress, rowBundle);
+                    sendQueryResponse(100, replyAddress, rowBundle);
                 }
             }
         }
+        Trace.current().end(Trace.SEND, send);
     }
 
     @Override
     public void close() {
         this.vantiqClient.close();
 
-        if (scheduledTimer != null) {
-            scheduledTimer.cancel();
-            scheduledTimer = null;
-        }
-        synchronized (SYNCH_LOCK) {
-            if (jdbc != null) {
-                jdbc.close();
-                jdbc = null;
-            }
+        cancelScheduledJobs();
+        setTaskExecutor(null);
+        setBulkheads(null);
+        setQueryCoalescer(null);
+        setAdminServer(null);
+        JDBCHandle handle = jdbcHandle.getAndSet(null);
+        if (handle != null) {
+            // The work still running on the old pool may take up to DRAIN_TIMEOUT, which close does not wait for
+            retireInBackground(handle);
         }
+        config = null;
     }
 
     public ExtensionWebSocketClient getVantiqClient() {
@@ -269,11 +981,206 @@ public class JDBCConnector implements Closeable {
     }
 
     public JDBC getJdbc() {
-        return jdbc;
+        JDBCHandle handle = jdbcHandle.get();
+        return handle == null ? null : handle.getJdbc();
+    }
+
+    /**
+     * Acquires the current JDBC instance without blocking. The caller must {@link JDBCHandle#release() release} the
+     * handle once it is done, the connection pool is not closed while any handle is still held.
+     * @return  The acquired handle, or null if the connector has no JDBC instance
+     */
+    public JDBCHandle acquireJdbc() {
+        while (true) {
+            JDBCHandle handle = jdbcHandle.get();
+            // A failed acquire means the handle was retired after it was read, and its replacement is already installed
+            if (handle == null || handle.acquire()) {
+                return handle;
+            }
+        }
+    }
+
+    /**
+     * Replaces the current JDBC instance. The previous instance, if any, is retired on a background thread once the
+     * work it is still running has finished, so that reconfiguring the source does not abort in-flight queries.
+     * @param newJdbc   The JDBC instance built from the new configuration
+     */
+    public synchronized void swapJdbc(JDBC newJdbc) {
+        newJdbc.setBulkheads(bulkheads);
+        JDBCHandle oldHandle = jdbcHandle.getAndSet(new JDBCHandle(newJdbc));
+        if (oldHandle != null) {
+            retireInBackground(oldHandle);
+        }
+    }
+
+    /**
+     * Retires the handle on a background thread, once the work it is still running has finished.
+     * @param handle    The handle of a JDBC instance that is no longer current
+     */
+    private static void retireInBackground(JDBCHandle handle) {
+        Thread drainThread = new Thread(() -> handle.retire(DRAIN_TIMEOUT), "drainJDBC");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    public TableLoader getTableLoader() {
+        return tableLoader;
+    }
+
+    public void setTableLoader(TableLoader tableLoader) {
+        this.tableLoader = tableLoader;
+    }
+
+    public TableMirror getTableMirror() {
+        return tableMirror;
+    }
+
+    /**
+     * Starts answering lookups from the mirror, which is refreshed by the given timer.
+     * @param mirror    The table mirror
+     * @param timer     The timer refreshing the mirror
+     */
+    public void setTableMirror(TableMirror mirror, Timer timer) {
+        this.tableMirror = mirror;
+        this.mirrorTimer = timer;
+    }
+
+    /**
+     * @return  true if a polling timer, a table load or a table mirror is running
+     */
+    public boolean hasScheduledJobs() {
+        return scheduledTimer != null || tableLoader != null || mirrorTimer != null;
+    }
+
+    /**
+     * Cancels the polling timer, stops the table load and drops the table mirror, if any of them is running.
+     */
+    public synchronized void cancelScheduledJobs() {
+        pollJob = null;
+        jobStats.clear();
+        if (mirrorTimer != null) {
+            mirrorTimer.cancel();
+            mirrorTimer = null;
+        }
+        tableMirror = null;
+        if (scheduledTimer != null) {
+            scheduledTimer.cancel();
+            scheduledTimer = null;
+        }
+        if (tableLoader != null) {
+            tableLoader.close();
+            tableLoader = null;
+        }
+    }
+
+    public TaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    /**
+     * Replaces the task executor. The previous executor finishes the tasks it has already accepted.
+     * @param executor  The new executor, or null to run tasks on the calling thread
+     */
+    public void setTaskExecutor(TaskExecutor executor) {
+        TaskExecutor previous = taskExecutor;
+        taskExecutor = executor;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public Bulkheads getBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Replaces the bulkheads. The executors of the previous bulkheads finish the tasks they have already accepted.
+     * @param bulkheads The new bulkheads, or null to run every task on the {@link TaskExecutor} without quotas
+     */
+    public synchronized void setBulkheads(Bulkheads bulkheads) {
+        Bulkheads previous = this.bulkheads;
+        this.bulkheads = bulkheads;
+        JDBC jdbc = getJdbc();
+        if (jdbc != null) {
+            jdbc.setBulkheads(bulkheads);
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public QueryCoalescer getQueryCoalescer() {
+        return queryCoalescer;
+    }
+
+    /**
+     * Replaces the query coalescer, the previous one still answers the queries it is running.
+     * @param coalescer The new coalescer, or null to run every query message on its own
+     */
+    public void setQueryCoalescer(QueryCoalescer coalescer) {
+        QueryCoalescer previous = queryCoalescer;
+        queryCoalescer = coalescer;
+        if (previous != null) {
+            previous.invalidate();
+        }
+    }
+
+    /**
+     * Starts the trace of a request, see {@link Tracer}.
+     * @param kind  "query", "publish", "poll" or "load"
+     * @return      The trace, or {@link Trace#NONE} if the request is not sampled
+     */
+    public Trace startTrace(String kind) {
+        Tracer localTracer = tracer;
+        return localTracer == null ? Trace.NONE : localTracer.start(kind);
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Replaces the tracer, dropping the slow traces kept by the previous one.
+     * @param tracer    The new tracer, or null to trace nothing
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public SendLimiter getSendLimiter() {
+        return sendLimiter;
+    }
+
+    /**
+     * Replaces the limiter of the notifications and query responses.
+     * @param limiter   The new limiter, or null to send as fast as possible
+     */
+    public void setSendLimiter(SendLimiter limiter) {
+        this.sendLimiter = limiter;
+    }
+
+    public AdminServer getAdminServer() {
+        return adminServer;
+    }
+
+    /**
+     * Replaces the admin endpoint, stopping the previous one.
+     * @param server    The new endpoint, already started, or null to stop it
+     */
+    public void setAdminServer(AdminServer server) {
+        AdminServer previous = adminServer;
+        adminServer = server;
+        if (previous != null && previous != server) {
+            previous.stop();
+        }
+    }
+
+    public JDBCConnectorConfig getConfig() {
+        return config;
     }
 
-    public void setJdbc(JDBC jdbc) {
-        this.jdbc = jdbc;
+    public void setConfig(JDBCConnectorConfig config) {
+        this.config = config;
     }
 
     /**
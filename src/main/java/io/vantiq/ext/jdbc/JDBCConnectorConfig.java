@@ -1,21 +1,66 @@
 package io.vantiq.ext.jdbc;
 
+import cn.ffcs.memory.ChunkedBatch;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class JDBCConnectorConfig {
 
+    public static final long DEFAULT_MAX_RESULT_MEMORY = 64L * 1024 * 1024;
+
     String username;
     String password;
     String dbURL;
     int pollTime = 1000; // default 1000 ms
     String pollQuery;
+    String pollMode = PollDiff.MODE_FULL; // "full" sends every row of each poll, "diff" only the rows that changed
+    String pollKey; // column (or comma separated columns) identifying a row of the pollQuery, required by "diff"
     int poolSize = 10; // default pool size 10
+    int statementCacheSize = 0; // prepared statements cached per pooled connection, 0 for none
+    String executionMode = TaskExecutor.MODE_PLATFORM; // "platform" or "virtual" (Java 21 build only)
+    int maxQueuedTasks = 1000; // tasks waiting for a free connection before new ones are rejected
+    int queryConnections = 0; // pooled connections queries may hold at once, 0 for no quota, see Bulkheads
+    int publishConnections = 0; // pooled connections publishes may hold at once, 0 for no quota
+    int backgroundConnections = 0; // pooled connections polls, loads, the outbox and the mirror may hold at once
+    long queryLatencyTarget = 0; // p99 query latency (ms) background jobs give way to, 0 for a fixed quota
+    long queryTimeout = 0; // default deadline (ms) of queries and publishes, 0 for none
+    double breakerFailureRate = 0; // share of failed or timed out requests that opens the circuit breaker, 0 for none
+    int breakerMinCalls = CircuitBreaker.DEFAULT_MIN_CALLS; // requests in the last 10 s before the breaker may open
+    long breakerOpenTime = CircuitBreaker.DEFAULT_OPEN_TIME; // ms requests are refused before a trial request
+    boolean coalesceQueries = false; // run identical concurrent queries once and send the result to each of them
+    long coalesceWindow = 0; // ms a coalesced result is reused for after it completed, 0 for running queries only
+    int maxQueryParallelism = MultiQuery.DEFAULT_PARALLELISM; // queries of a multi-query message run at once
+    double traceSampleRate = 0; // fraction of queries, publishes, polls and load pages traced, 0 for none
+    long traceSlowThreshold = Tracer.DEFAULT_SLOW_THRESHOLD; // ms from which a traced request is logged and kept
+    int traceBufferSize = Tracer.DEFAULT_BUFFER_SIZE; // slow traces kept for the traces query control
+    int adminPort = 0; // localhost port of the admin endpoint, 0 for none
+    double maxSendRate = 0; // notifications and query responses sent per second, 0 for no limit
+    double minSendRate = SendLimiter.DEFAULT_MIN_RATE; // lowest rate the send limiter backs off to
+    long maxResultMemory = DEFAULT_MAX_RESULT_MEMORY; // bytes a query result may use before it is spilled to disk
+    String spillDirectory; // directory for spilled results, default the system temp directory
+    String lobMode = LobReader.MODE_TRUNCATE; // "truncate" or "chunk" for CLOB/BLOB values over lobInlineLimit
+    int lobInlineLimit = LobReader.DEFAULT_INLINE_LIMIT; // characters (CLOB) or bytes (BLOB) returned inline
+    int batchChunkSize = ChunkedBatch.DEFAULT_CHUNK_SIZE; // statements sent to the database per executeBatch
+    boolean commitPerChunk = false; // commit each chunk of a batch, so that failing statements only skip themselves
 
     String loadTable;
     int loadInterval;
     int loadSize;
+    int loadBufferPages = TableLoader.DEFAULT_BUFFER_PAGES; // pages buffered between the fetch, encode and send stages
+    String loadKey; // unique column the load is paged by, instead of by offset
+    String loadCheckpointDirectory; // directory of the load checkpoint files, default the working directory
+
+    String outboxTable; // outbox table whose rows are sent as notifications, see OutboxCapture
+    int outboxInterval = 1000; // default 1000 ms between reads of the outbox table
+    int outboxBatchSize = OutboxCapture.DEFAULT_BATCH_SIZE; // outbox rows sent and removed per transaction
+    boolean outboxDelete = true; // delete sent outbox rows, or set processed = 1 when false
+
+    List<String> mirrorTables; // tables kept in memory to answer equality lookups, see TableMirror
+    Map<String, List<String>> mirrorIndexes; // columns to index by mirrored table, besides the primary key
+    int mirrorInterval = TableMirror.DEFAULT_INTERVAL; // default 5000 ms between refreshes of the mirrored tables
 
     public JDBCConnectorConfig() { }
 
@@ -46,10 +91,141 @@ public class JDBCConnectorConfig {
         return pollQuery;
     }
 
+    public String getPollMode() {
+        return pollMode;
+    }
+
+    public String getPollKey() {
+        return pollKey;
+    }
+
+    public boolean isCoalesceQueries() {
+        return coalesceQueries;
+    }
+
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public int getMaxQueryParallelism() {
+        return maxQueryParallelism;
+    }
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public long getTraceSlowThreshold() {
+        return traceSlowThreshold;
+    }
+
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public double getMaxSendRate() {
+        return maxSendRate;
+    }
+
+    public double getMinSendRate() {
+        return minSendRate;
+    }
+
+    public List<String> getMirrorTables() {
+        return mirrorTables;
+    }
+
+    public Map<String, List<String>> getMirrorIndexes() {
+        return mirrorIndexes;
+    }
+
+    public int getMirrorInterval() {
+        return mirrorInterval;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
     public int getPoolSize() {
         return poolSize;
     }
 
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    public int getQueryConnections() {
+        return queryConnections;
+    }
+
+    public int getPublishConnections() {
+        return publishConnections;
+    }
+
+    public int getBackgroundConnections() {
+        return backgroundConnections;
+    }
+
+    public long getQueryLatencyTarget() {
+        return queryLatencyTarget;
+    }
+
+    /**
+     * @return  true if queries, publishes and background jobs are run in {@link Bulkheads}
+     */
+    public boolean hasBulkheads() {
+        return queryConnections > 0 || publishConnections > 0 || backgroundConnections > 0 || queryLatencyTarget > 0;
+    }
+
+    public long getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public double getBreakerFailureRate() {
+        return breakerFailureRate;
+    }
+
+    public int getBreakerMinCalls() {
+        return breakerMinCalls;
+    }
+
+    public long getBreakerOpenTime() {
+        return breakerOpenTime;
+    }
+
+    public long getMaxResultMemory() {
+        return maxResultMemory;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public String getLobMode() {
+        return lobMode;
+    }
+
+    public int getLobInlineLimit() {
+        return lobInlineLimit;
+    }
+
+    public int getBatchChunkSize() {
+        return batchChunkSize;
+    }
+
+    public boolean isCommitPerChunk() {
+        return commitPerChunk;
+    }
+
     public String getLoadTable() {
         return loadTable;
     }
@@ -62,6 +238,93 @@ public class JDBCConnectorConfig {
         return loadSize;
     }
 
+    public int getLoadBufferPages() {
+        return loadBufferPages;
+    }
+
+    public String getLoadKey() {
+        return loadKey;
+    }
+
+    public String getLoadCheckpointDirectory() {
+        return loadCheckpointDirectory;
+    }
+
+    public String getOutboxTable() {
+        return outboxTable;
+    }
+
+    public int getOutboxInterval() {
+        return outboxInterval;
+    }
+
+    public int getOutboxBatchSize() {
+        return outboxBatchSize;
+    }
+
+    public boolean isOutboxDelete() {
+        return outboxDelete;
+    }
+
+    /**
+     * Checks whether the other config describes the same database connection, in which case the existing
+     * connection pool can be kept when the source is reconfigured.
+     * @param other     The previously applied config, may be null
+     * @return          true if the dbURL, credentials, pool size and statement cache size are all unchanged
+     */
+    public boolean sameConnection(JDBCConnectorConfig other) {
+        return other != null
+                && Objects.equals(dbURL, other.dbURL)
+                && Objects.equals(username, other.username)
+                && Objects.equals(password, other.password)
+                && poolSize == other.poolSize
+                && statementCacheSize == other.statementCacheSize;
+    }
+
+    /**
+     * Checks whether the other config runs tasks the same way, in which case the existing {@link TaskExecutor} can be
+     * kept when the source is reconfigured.
+     * @param other     The previously applied config, may be null
+     * @return          true if the pool size, execution mode, queue size and bulkheads are unchanged
+     */
+    public boolean sameExecution(JDBCConnectorConfig other) {
+        return other != null
+                && poolSize == other.poolSize
+                && Objects.equals(executionMode, other.executionMode)
+                && maxQueuedTasks == other.maxQueuedTasks
+                && queryConnections == other.queryConnections
+                && publishConnections == other.publishConnections
+                && backgroundConnections == other.backgroundConnections
+                && queryLatencyTarget == other.queryLatencyTarget;
+    }
+
+    /**
+     * Checks whether the other config schedules the same polling, loading, outbox and mirror jobs, in which case the running
+     * jobs can be left alone when the source is reconfigured.
+     * @param other     The previously applied config, may be null
+     * @return          true if all of the polling, loading, outbox and mirror settings are unchanged
+     */
+    public boolean sameSchedule(JDBCConnectorConfig other) {
+        return other != null
+                && pollTime == other.pollTime
+                && Objects.equals(pollQuery, other.pollQuery)
+                && Objects.equals(pollMode, other.pollMode)
+                && Objects.equals(pollKey, other.pollKey)
+                && Objects.equals(loadTable, other.loadTable)
+                && loadInterval == other.loadInterval
+                && loadSize == other.loadSize
+                && loadBufferPages == other.loadBufferPages
+                && Objects.equals(loadKey, other.loadKey)
+                && Objects.equals(loadCheckpointDirectory, other.loadCheckpointDirectory)
+                && Objects.equals(outboxTable, other.outboxTable)
+                && outboxInterval == other.outboxInterval
+                && outboxBatchSize == other.outboxBatchSize
+                && outboxDelete == other.outboxDelete
+                && Objects.equals(mirrorTables, other.mirrorTables)
+                && Objects.equals(mirrorIndexes, other.mirrorIndexes)
+                && mirrorInterval == other.mirrorInterval;
+    }
+
     @Override
     public String toString() {
         return "JDBCConnectorConfig{" +
@@ -70,10 +333,48 @@ public class JDBCConnectorConfig {
                 ", dbURL='" + dbURL + '\'' +
                 ", pollTime=" + pollTime +
                 ", pollQuery='" + pollQuery + '\'' +
+                ", pollMode='" + pollMode + '\'' +
+                ", pollKey='" + pollKey + '\'' +
                 ", poolSize=" + poolSize +
+                ", statementCacheSize=" + statementCacheSize +
+                ", executionMode='" + executionMode + '\'' +
+                ", maxQueuedTasks=" + maxQueuedTasks +
+                ", queryConnections=" + queryConnections +
+                ", publishConnections=" + publishConnections +
+                ", backgroundConnections=" + backgroundConnections +
+                ", queryLatencyTarget=" + queryLatencyTarget +
+                ", queryTimeout=" + queryTimeout +
+                ", breakerFailureRate=" + breakerFailureRate +
+                ", breakerMinCalls=" + breakerMinCalls +
+                ", breakerOpenTime=" + breakerOpenTime +
+                ", coalesceQueries=" + coalesceQueries +
+                ", coalesceWindow=" + coalesceWindow +
+                ", maxQueryParallelism=" + maxQueryParallelism +
+                ", traceSampleRate=" + traceSampleRate +
+                ", traceSlowThreshold=" + traceSlowThreshold +
+                ", traceBufferSize=" + traceBufferSize +
+                ", adminPort=" + adminPort +
+                ", maxSendRate=" + maxSendRate +
+                ", minSendRate=" + minSendRate +
+                ", maxResultMemory=" + maxResultMemory +
+                ", spillDirectory='" + spillDirectory + '\'' +
+                ", lobMode='" + lobMode + '\'' +
+                ", lobInlineLimit=" + lobInlineLimit +
+                ", batchChunkSize=" + batchChunkSize +
+                ", commitPerChunk=" + commitPerChunk +
                 ", loadTable='" + loadTable + '\'' +
                 ", loadInterval=" + loadInterval +
                 ", loadSize=" + loadSize +
+                ", loadBufferPages=" + loadBufferPages +
+                ", loadKey='" + loadKey + '\'' +
+                ", loadCheckpointDirectory='" + loadCheckpointDirectory + '\'' +
+                ", outboxTable='" + outboxTable + '\'' +
+                ", outboxInterval=" + outboxInterval +
+                ", outboxBatchSize=" + outboxBatchSize +
+                ", outboxDelete=" + outboxDelete +
+                ", mirrorTables=" + mirrorTables +
+                ", mirrorIndexes=" + mirrorIndexes +
+                ", mirrorInterval=" + mirrorInterval +
                 '}';
     }
 }
@@ -0,0 +1,106 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted wrapper around a {@link JDBC} instance. Operations acquire the handle without blocking and
+ * release it once they are done with the connection pool. Retiring the handle waits, up to a deadline, for the
+ * operations still holding a reference before the pool is closed.
+ */
+public class JDBCHandle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCHandle.class);
+
+    // Value the reference count is forced to once the pool is closed, so that no late acquire can succeed
+    private static final int CLOSED = Integer.MIN_VALUE / 2;
+
+    private final JDBC jdbc;
+
+    // Starts at 1 for the reference held by the owner until the handle is retired
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean retired = new AtomicBoolean(false);
+    private final Object drainMonitor = new Object();
+
+    public JDBCHandle(JDBC jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Tries to take a reference on the handle.
+     * @return  true if the reference was taken and {@link #release()} must be called, false if the handle has
+     *          already been retired
+     */
+    public boolean acquire() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}, waking up a pending {@link #retire(long)} if it was the last.
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            synchronized (drainMonitor) {
+                drainMonitor.notifyAll();
+            }
+        }
+    }
+
+    public JDBC getJdbc() {
+        return jdbc;
+    }
+
+    /**
+     * @return  The number of operations currently holding a reference
+     */
+    public int getInFlight() {
+        int count = refCount.get();
+        return Math.max(retired.get() ? count : count - 1, 0);
+    }
+
+    /**
+     * Drops the owner's reference, waits for in-flight operations to release theirs and closes the connection pool.
+     * Calling this more than once has no effect.
+     * @param drainTimeout  The maximum number of milliseconds to wait for in-flight operations
+     */
+    public void retire(long drainTimeout) {
+        if (!retired.compareAndSet(false, true)) {
+            return;
+        }
+        release();
+
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        synchronized (drainMonitor) {
+            while (refCount.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    drainMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        int outstanding = refCount.getAndSet(CLOSED);
+        if (outstanding > 0) {
+            LOG.warn("Closing connection pool with {} operation(s) still in flight after waiting {} ms",
+                    outstanding, drainTimeout);
+        }
+        jdbc.close();
+    }
+}
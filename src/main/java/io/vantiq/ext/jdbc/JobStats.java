@@ -0,0 +1,57 @@
+package io.vantiq.ext.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the runs of a periodic job dispatched by {@link JDBCConnector#dispatchingTask(String, Runnable)}, for the
+ * admin endpoint. The lag of a run is the time between when the timer meant to run it and when it started on the
+ * {@link TaskExecutor}, runs are skipped while the previous run has not finished.
+ */
+public class JobStats {
+
+    private final String name;
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong skippedRuns = new AtomicLong();
+    private volatile boolean running = false;
+    private volatile long lastStartedAt = 0;
+    private volatile long lastLag = 0;
+    private volatile long lastDuration = 0;
+
+    public JobStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void started(long scheduledAt, long startedAt) {
+        running = true;
+        lastStartedAt = startedAt;
+        lastLag = Math.max(0, startedAt - scheduledAt);
+        runs.incrementAndGet();
+    }
+
+    void finished(long finishedAt) {
+        lastDuration = finishedAt - lastStartedAt;
+        running = false;
+    }
+
+    void skipped() {
+        skippedRuns.incrementAndGet();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("running", running);
+        map.put("runs", runs.get());
+        map.put("skippedRuns", skippedRuns.get());
+        map.put("lastStartedAt", lastStartedAt);
+        map.put("lastLagMs", lastLag);
+        map.put("lastDurationMs", lastDuration);
+        return map;
+    }
+}
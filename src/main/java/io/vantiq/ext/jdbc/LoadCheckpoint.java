@@ -0,0 +1,196 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * The position of a table load, saved to a local properties file after each page has been sent so that a restarted
+ * or reconfigured connector resumes the load instead of sending the table again from the start.
+ *
+ * The position is the last value of the loadKey column when the load uses one, otherwise the number of the next page.
+ * A checkpoint saved for another table or loadKey is ignored, and so is the page number of a load paged by offset if
+ * the loadSize changed, since the same page number would then start at another row.
+ */
+public class LoadCheckpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadCheckpoint.class);
+
+    private static final String TABLE = "table";
+    private static final String LOAD_KEY = "loadKey";
+    private static final String LOAD_SIZE = "loadSize";
+    private static final String PAGE_NO = "pageNo";
+    private static final String LAST_KEY = "lastKey";
+    private static final String LAST_KEY_TYPE = "lastKeyType";
+    private static final String ROWS_SENT = "rowsSent";
+
+    private static final String TYPE_NUMBER = "number";
+    private static final String TYPE_TIMESTAMP = "timestamp";
+    private static final String TYPE_STRING = "string";
+
+    private final Path file;
+    private final String table;
+    private final String loadKey;
+    private final int loadSize;
+
+    /**
+     * @param directory     The directory of the checkpoint file, or null for the working directory
+     * @param sourceName    The name of the source, part of the file name so that sources do not share checkpoints
+     * @param table         The loaded table
+     * @param loadKey       The key column of the load, or null if the load is paged by offset
+     * @param loadSize      The number of rows per page
+     */
+    public LoadCheckpoint(String directory, String sourceName, String table, String loadKey, int loadSize) {
+        String fileName = "load-" + (sourceName != null ? sourceName + "-" : "") + table + ".checkpoint";
+        this.file = Paths.get(directory != null ? directory : "").resolve(fileName.replaceAll("[^\\w.-]", "_"));
+        this.table = table;
+        this.loadKey = loadKey;
+        this.loadSize = loadSize;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return  The saved position, or null if there is none for this table, loadKey and (for a load paged by offset)
+     *          loadSize
+     */
+    public Position read() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.warn("Could not read the load checkpoint {}, the load starts from the beginning.", file, e);
+            return null;
+        }
+        if (!table.equals(properties.getProperty(TABLE))
+                || !Objects.equals(loadKey, properties.getProperty(LOAD_KEY))) {
+            LOG.info("Ignoring the load checkpoint {} because it was saved for another table or loadKey.", file);
+            return null;
+        }
+        if (loadKey == null && !Integer.toString(loadSize).equals(properties.getProperty(LOAD_SIZE))) {
+            LOG.info("Ignoring the load checkpoint {} because it was saved for a loadSize of {} rows instead of {}, "
+                    + "its page number starts at another row.", file, properties.getProperty(LOAD_SIZE), loadSize);
+            return null;
+        }
+        try {
+            return new Position(Integer.parseInt(properties.getProperty(PAGE_NO, "1")),
+                    parseKey(properties.getProperty(LAST_KEY), properties.getProperty(LAST_KEY_TYPE)),
+                    Long.parseLong(properties.getProperty(ROWS_SENT, "0")));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Could not parse the load checkpoint {}, the load starts from the beginning.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the saved position. The file is written next to the checkpoint and moved over it, so that a crash
+     * leaves either the previous or the new position.
+     * @param position  The position after the last page that was sent
+     * @throws IOException  If the file could not be written
+     */
+    public void write(Position position) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(TABLE, table);
+        if (loadKey != null) {
+            properties.setProperty(LOAD_KEY, loadKey);
+        }
+        properties.setProperty(LOAD_SIZE, Integer.toString(loadSize));
+        properties.setProperty(PAGE_NO, Integer.toString(position.pageNo));
+        if (position.lastKey != null) {
+            properties.setProperty(LAST_KEY, position.lastKey.toString());
+            properties.setProperty(LAST_KEY_TYPE, position.lastKey instanceof Number ? TYPE_NUMBER
+                    : position.lastKey instanceof Timestamp ? TYPE_TIMESTAMP : TYPE_STRING);
+        }
+        properties.setProperty(ROWS_SENT, Long.toString(position.rowsSent));
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Position of the load of " + table);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Removes the saved position, so that the next load starts from the beginning.
+     * @throws IOException  If the file could not be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static Object parseKey(String value, String type) {
+        if (value == null) {
+            return null;
+        }
+        if (TYPE_NUMBER.equals(type)) {
+            BigDecimal number = new BigDecimal(value);
+            try {
+                return number.longValueExact();
+            } catch (ArithmeticException e) {
+                return number;
+            }
+        } else if (TYPE_TIMESTAMP.equals(type)) {
+            return Timestamp.valueOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * A position in a table load.
+     */
+    public static class Position {
+        final int pageNo;
+        final Object lastKey;
+        final long rowsSent;
+
+        /**
+         * @param pageNo    The next page to read, starting from 1
+         * @param lastKey   The loadKey value of the last row sent, or null
+         * @param rowsSent  The number of rows sent so far
+         */
+        public Position(int pageNo, Object lastKey, long rowsSent) {
+            this.pageNo = pageNo;
+            this.lastKey = lastKey;
+            this.rowsSent = rowsSent;
+        }
+
+        public int getPageNo() {
+            return pageNo;
+        }
+
+        public Object getLastKey() {
+            return lastKey;
+        }
+
+        public long getRowsSent() {
+            return rowsSent;
+        }
+    }
+}
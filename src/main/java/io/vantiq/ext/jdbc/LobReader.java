@@ -0,0 +1,240 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads CLOB and BLOB columns without holding more than lobInlineLimit characters (or bytes) of a value in memory.
+ *
+ * Values up to the limit are returned as a String (CLOB) or byte[] (BLOB), like before. Larger values are replaced
+ * by a placeholder map, depending on the lobMode:
+ * <ul>
+ *     <li>"truncate": <code>{"$lob": "clob", "length": 5000000, "truncated": true, "value": "first characters..."}</code>
+ *     </li>
+ *     <li>"chunk": <code>{"$lob": "clob", "length": 5000000, "id": "...", "chunks": 5}</code>, and the value is
+ *     streamed to a {@link Sink} as continuation messages
+ *     <code>{"$lobChunk": "...", "seq": 0, "last": false, "data": "..."}</code> sent before the row itself. CLOB
+ *     chunks hold text, BLOB chunks base64.</li>
+ * </ul>
+ * Chunk mode falls back to truncation when the caller has nowhere to send the chunks.
+ */
+public class LobReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LobReader.class);
+
+    public static final String MODE_TRUNCATE = "truncate";
+    public static final String MODE_CHUNK = "chunk";
+
+    public static final int DEFAULT_INLINE_LIMIT = 1024 * 1024;
+
+    private final boolean chunk;
+    private final int inlineLimit;
+
+    /**
+     * Creates a reader truncating values larger than the default limit.
+     */
+    public LobReader() {
+        this(MODE_TRUNCATE, DEFAULT_INLINE_LIMIT);
+    }
+
+    /**
+     * @param mode          "truncate" or "chunk"
+     * @param inlineLimit   The largest value (in characters for CLOBs, bytes for BLOBs) returned as is, also used as
+     *                      the size of the chunks
+     */
+    public LobReader(String mode, int inlineLimit) {
+        if (mode != null && !MODE_TRUNCATE.equals(mode) && !MODE_CHUNK.equals(mode)) {
+            LOG.warn("Unknown lobMode '{}', large values will be truncated.", mode);
+        }
+        this.chunk = MODE_CHUNK.equals(mode);
+        this.inlineLimit = inlineLimit > 0 ? inlineLimit : DEFAULT_INLINE_LIMIT;
+    }
+
+    /**
+     * @return  true if large values are sent as chunks ahead of the rows
+     */
+    public boolean isChunking() {
+        return chunk;
+    }
+
+    /**
+     * @param columnType    The {@link Types} of a column
+     * @return              true if the column is read by this class
+     */
+    public static boolean isLob(int columnType) {
+        return columnType == Types.CLOB || columnType == Types.NCLOB || columnType == Types.BLOB;
+    }
+
+    /**
+     * Reads a LOB column of the current row.
+     * @param rs            The ResultSet, positioned on the row
+     * @param column        The index of the column, starting from 1
+     * @param columnType    One of the {@link Types} accepted by {@link #isLob(int)}
+     * @param sink          Receives the chunks of large values in chunk mode, or null to truncate them
+     * @return              The value, a placeholder map for large values, or null
+     * @throws SQLException
+     */
+    public Object read(ResultSet rs, int column, int columnType, Sink sink) throws SQLException {
+        if (columnType == Types.BLOB) {
+            Blob blob = rs.getBlob(column);
+            if (blob == null) {
+                return null;
+            }
+            try {
+                return readBlob(blob, sink);
+            } finally {
+                free(blob);
+            }
+        }
+
+        Clob clob = rs.getClob(column);
+        if (clob == null) {
+            return null;
+        }
+        try {
+            return readClob(clob, sink);
+        } finally {
+            free(clob);
+        }
+    }
+
+    private Object readClob(Clob clob, Sink sink) throws SQLException {
+        long length = clob.length();
+        if (length <= inlineLimit) {
+            return clob.getSubString(1, (int) length);
+        }
+
+        Map<String, Object> placeholder = placeholder("clob", length);
+        if (!chunk || sink == null) {
+            placeholder.put("truncated", true);
+            placeholder.put("value", clob.getSubString(1, inlineLimit));
+            return placeholder;
+        }
+
+        String id = UUID.randomUUID().toString();
+        char[] buffer = new char[inlineLimit];
+        int seq = 0;
+        try (Reader reader = clob.getCharacterStream()) {
+            long remaining = length;
+            while (remaining > 0) {
+                int filled = fill(reader, buffer);
+                if (filled == 0) {
+                    break;
+                }
+                remaining -= filled;
+                sink.send(chunk(id, seq++, remaining <= 0, new String(buffer, 0, filled)));
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to read CLOB value.", e);
+        }
+        placeholder.put("id", id);
+        placeholder.put("chunks", seq);
+        return placeholder;
+    }
+
+    private Object readBlob(Blob blob, Sink sink) throws SQLException {
+        long length = blob.length();
+        if (length <= inlineLimit) {
+            return blob.getBytes(1, (int) length);
+        }
+
+        Map<String, Object> placeholder = placeholder("blob", length);
+        if (!chunk || sink == null) {
+            placeholder.put("truncated", true);
+            placeholder.put("value", Base64.getEncoder().encodeToString(blob.getBytes(1, inlineLimit)));
+            return placeholder;
+        }
+
+        String id = UUID.randomUUID().toString();
+        byte[] buffer = new byte[inlineLimit];
+        int seq = 0;
+        try (InputStream in = blob.getBinaryStream()) {
+            long remaining = length;
+            while (remaining > 0) {
+                int filled = fill(in, buffer);
+                if (filled == 0) {
+                    break;
+                }
+                remaining -= filled;
+                byte[] data = filled == buffer.length ? buffer : Arrays.copyOf(buffer, filled);
+                sink.send(chunk(id, seq++, remaining <= 0, Base64.getEncoder().encodeToString(data)));
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to read BLOB value.", e);
+        }
+        placeholder.put("id", id);
+        placeholder.put("chunks", seq);
+        return placeholder;
+    }
+
+    private static Map<String, Object> placeholder(String type, long length) {
+        Map<String, Object> placeholder = new LinkedHashMap<>();
+        placeholder.put("$lob", type);
+        placeholder.put("length", length);
+        return placeholder;
+    }
+
+    private static Map<String, Object> chunk(String id, int seq, boolean last, String data) {
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        chunk.put("$lobChunk", id);
+        chunk.put("seq", seq);
+        chunk.put("last", last);
+        chunk.put("data", data);
+        return chunk;
+    }
+
+    private static int fill(Reader reader, char[] buffer) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = reader.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static void free(Clob clob) {
+        try {
+            clob.free();
+        } catch (SQLException | AbstractMethodError e) {
+            // Drivers without JDBC 4 support release the value with the ResultSet
+        }
+    }
+
+    private static void free(Blob blob) {
+        try {
+            blob.free();
+        } catch (SQLException | AbstractMethodError e) {
+            // Drivers without JDBC 4 support release the value with the ResultSet
+        }
+    }
+
+    /**
+     * Receives the continuation messages of values read in chunk mode.
+     */
+    public interface Sink {
+        void send(Map<String, Object> chunk);
+    }
+}
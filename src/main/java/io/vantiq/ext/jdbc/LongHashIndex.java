@@ -0,0 +1,157 @@
+package io.vantiq.ext.jdbc;
+
+/**
+ * An open addressing hash map from long keys to long values, with an optional object attached to each entry. Keys
+ * and values are held in primitive arrays of 17 bytes per slot, and the table is kept between 3/8 and 3/4 full, so a
+ * million entries take 24 to 48 MB instead of the 70 MB or more of a HashMap&lt;Long, Long&gt;. The attachment array is
+ * only allocated once an entry has an attachment.
+ *
+ * Not thread safe, entries cannot be removed.
+ */
+public class LongHashIndex {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private Object[] attachments;
+    private int size = 0;
+    private int mask;
+
+    public LongHashIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize  The number of entries the index is sized for, it grows beyond that as needed
+     */
+    public LongHashIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3L / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an entry, or replaces the value and attachment of the entry with the same key.
+     * @param key           The key
+     * @param value         The value
+     * @param attachment    An object kept with the entry, may be null
+     */
+    public void put(long key, long value, Object attachment) {
+        if (size + 1 > (mask + 1) * 3L / 4) {
+            resize();
+        }
+        int slot = slot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (attachment != null || attachments != null) {
+            if (attachments == null) {
+                attachments = new Object[keys.length];
+            }
+            attachments[slot] = attachment;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * @param key           The key
+     * @param defaultValue  Returned if the key is not in the index
+     * @return              The value of the key, or defaultValue
+     */
+    public long get(long key, long defaultValue) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Calls the consumer with every entry, in no particular order.
+     * @param consumer  Receives the key, value and attachment of each entry
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                consumer.accept(keys[slot], values[slot], attachments == null ? null : attachments[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return  The slot holding the key, or the empty slot where it would be added
+     */
+    private int slot(long key) {
+        int slot = (int) mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        Object[] oldAttachments = attachments;
+        allocate(oldKeys.length << 1);
+        if (oldAttachments != null) {
+            attachments = new Object[keys.length];
+        }
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                if (oldAttachments != null) {
+                    attachments[slot] = oldAttachments[i];
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        attachments = null;
+        mask = capacity - 1;
+    }
+
+    /**
+     * Spreads the bits of keys that differ only in their high bits (or are sequential) over the slots.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "LongHashIndex{size=" + size + ", capacity=" + keys.length
+                + ", attachments=" + (attachments != null) + '}';
+    }
+
+    /**
+     * Receives the entries of {@link #forEach(EntryConsumer)}.
+     */
+    public interface EntryConsumer {
+        void accept(long key, long value, Object attachment);
+    }
+}
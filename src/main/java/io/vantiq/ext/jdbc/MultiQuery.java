@@ -0,0 +1,136 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the named queries of a query message of the form
+ * <pre>
+ * {"queries": {"orders": "SELECT ...", "stock": "SELECT ..."}}
+ * </pre>
+ * at the same time, each on its own pooled connection, and answers with one response keyed by the names:
+ * <pre>
+ * {"orders": [{...}, {...}], "stock": {"error": "..."}}
+ * </pre>
+ * A query that fails, or whose result exceeds its memory budget, is answered with an error object, and the other
+ * queries are still returned. At most parallelism queries of a message run at once. The thread that handles the
+ * message runs queries too, so a message always makes progress even when the other threads are busy.
+ */
+public class MultiQuery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiQuery.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final String ERROR = "error";
+
+    // Shared by all messages, threads that have been idle for a minute are stopped
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "jdbcMultiQuery-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final JDBC jdbc;
+    private final int parallelism;
+
+    /**
+     * @param jdbc          The JDBC object the queries are run on
+     * @param parallelism   The number of queries run at once
+     */
+    public MultiQuery(JDBC jdbc, int parallelism) {
+        this.jdbc = jdbc;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Runs the queries and waits until all of them completed.
+     * @param queries       The queries by name
+     * @param deadline      The time (in epoch milliseconds) by which every query must complete, 0 for no deadline
+     * @param resultFactory Creates the result of each query, with the memory budget of the message
+     * @return              The rows of each query, or an error object, by name in the order of the queries
+     */
+    public Map<String, Object> execute(Map<String, ?> queries, long deadline, Supplier<SpillableResult> resultFactory) {
+        List<String> names = new ArrayList<>(queries.keySet());
+        Map<String, Object> responses = Collections.synchronizedMap(new LinkedHashMap<>());
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < names.size(); i = next.getAndIncrement()) {
+                String name = names.get(i);
+                responses.put(name, executeOne(name, queries.get(name), deadline, resultFactory));
+            }
+        };
+
+        List<Future<?>> helpers = new ArrayList<>();
+        // The helpers take their connections within the quota of the message, see Bulkheads
+        Workload workload = Workload.current();
+        for (int i = 1; i < Math.min(parallelism, names.size()); i++) {
+            helpers.add(WORKERS.submit(() -> {
+                if (workload == null) {
+                    worker.run();
+                    return;
+                }
+                try (Workload.Scope scope = workload.enter()) {
+                    worker.run();
+                }
+            }));
+        }
+        worker.run();
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (Exception e) {
+                LOG.error("A query of a multi-query message failed unexpectedly", e);
+            }
+        }
+
+        // Keep the order of the message, the queries complete in any order
+        Map<String, Object> response = new LinkedHashMap<>();
+        for (String name : names) {
+            response.put(name, responses.get(name));
+        }
+        return response;
+    }
+
+    private Object executeOne(String name, Object query, long deadline, Supplier<SpillableResult> resultFactory) {
+        if (!(query instanceof String)) {
+            return error("The query " + name + " is not a string.");
+        }
+        try (SpillableResult result = resultFactory.get()) {
+            jdbc.processQuery((String) query, deadline, result);
+            if (result.isSpilled()) {
+                return error("The result of " + name + " exceeded maxResultMemory, query it on its own to receive it "
+                        + "in bundles.");
+            }
+            return result.toArray();
+        } catch (QueryTimeoutException e) {
+            return error("The query was cancelled because it did not complete before its deadline: " + e.getMessage());
+        } catch (Exception e) {
+            LOG.error("The query {} of a multi-query message failed: {}", name, query, e);
+            return error("Failed to execute query for reason: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put(ERROR, message);
+        return error;
+    }
+}
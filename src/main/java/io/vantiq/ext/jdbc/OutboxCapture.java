@@ -0,0 +1,195 @@
+package io.vantiq.ext.jdbc;
+
+import cn.ffcs.memory.Dialect;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Sends the changes written to an outbox table as notifications (the outboxTable option of the source config),
+ * instead of re-running a pollQuery over the whole table.
+ *
+ * Triggers (see {@link OutboxSchema}) append one row per inserted, updated or deleted row to the outbox table. Each run
+ * reads the unprocessed rows in id order, batchSize at a time, and for each batch sends
+ * <pre>
+ * {"outboxId": 42, "table": "orders", "op": "update", "data": {...the row...}}
+ * </pre>
+ * then deletes the batch (or marks it processed) in the same transaction as the read. The rows are locked while they
+ * are sent, with skip locked where the database supports it so that several connectors can share an outbox.
+ *
+ * A crash between sending and committing sends the batch again, so delivery is at least once: consumers that must
+ * not apply a change twice can drop the outboxIds they have already seen. Likewise a batch during which the websocket
+ * closed is rolled back instead of removed, and the drain stops until the next run.
+ */
+public class OutboxCapture {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboxCapture.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String outboxTable;
+    private final int batchSize;
+    private final boolean delete;
+
+    /**
+     * @param outboxTable   The outbox table
+     * @param batchSize     The number of rows sent and removed per transaction
+     * @param delete        true to delete the sent rows, false to set their processed column to 1
+     */
+    public OutboxCapture(String outboxTable, int batchSize, boolean delete) {
+        this.outboxTable = outboxTable;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.delete = delete;
+    }
+
+    public String getOutboxTable() {
+        return outboxTable;
+    }
+
+    /**
+     * Sends batches of outbox rows until the outbox is empty, or the sink can no longer deliver them.
+     * @param jdbc      The JDBC object of the source
+     * @param sink      Receives the notification of each row
+     * @param open      Tells whether the sink can still deliver notifications (the websocket is open)
+     * @return          The number of rows sent and removed from the outbox
+     * @throws VantiqSQLException   If the outbox could not be read or updated, the current batch is left in the outbox
+     */
+    public long drain(JDBC jdbc, Consumer<Map<String, Object>> sink, BooleanSupplier open)
+            throws VantiqSQLException {
+        long sent = 0;
+        int count;
+        do {
+            count = captureBatch(jdbc, sink, open);
+            if (count < 0) {
+                LOG.info("The websocket closed while sending outbox table {}, the batch is sent again on the next run",
+                        outboxTable);
+                break;
+            }
+            sent += count;
+        } while (count == batchSize);
+        return sent;
+    }
+
+    /**
+     * Sends one batch of outbox rows and removes them, in a single transaction. The transaction is rolled back if the
+     * sink closed while the batch was sent, since the notifications sent before may not have been delivered.
+     * @return  The number of rows sent, -1 if the sink closed and the batch was left in the outbox
+     */
+    int captureBatch(JDBC jdbc, Consumer<Map<String, Object>> sink, BooleanSupplier open)
+            throws VantiqSQLException {
+        Dialect dialect = jdbc.getMemory().getDialect();
+        int databaseMajorVersion = jdbc.getMemory().getMetadata().getDatabaseMajorVersion();
+        try (Connection conn = jdbc.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Object> ids = new ArrayList<>();
+                StringBuffer sql = new StringBuffer("SELECT id, table_name, op, payload FROM " + outboxTable
+                        + " WHERE processed = 0 ORDER BY id");
+                List<Object> params = new ArrayList<>();
+                dialect.pager(sql, params, batchSize, 1);
+                sql.append(dialect.skipLocked(databaseMajorVersion));
+
+                try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < params.size(); i++) {
+                        stmt.setObject(i + 1, params.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (!open.getAsBoolean()) {
+                                conn.rollback();
+                                return -1;
+                            }
+                            long id = rs.getLong(1);
+                            Map<String, Object> notification = new LinkedHashMap<>();
+                            notification.put("outboxId", id);
+                            notification.put("table", rs.getString(2));
+                            notification.put("op", rs.getString(3));
+                            notification.put("data", parsePayload(rs.getString(4)));
+                            sink.accept(notification);
+                            ids.add(id);
+                        }
+                    }
+                }
+                // The last notifications may have been dropped by a websocket that closed after they were sent
+                if (!ids.isEmpty() && !open.getAsBoolean()) {
+                    conn.rollback();
+                    return -1;
+                }
+
+                if (!ids.isEmpty()) {
+                    String remove = delete ? "DELETE FROM " + outboxTable + " WHERE id = ?"
+                            : "UPDATE " + outboxTable + " SET processed = 1 WHERE id = ?";
+                    try (PreparedStatement stmt = conn.prepareStatement(remove)) {
+                        for (Object id : ids) {
+                            stmt.setObject(1, id);
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+                conn.commit();
+                return ids.size();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            jdbc.reportSQLError(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Creates the outbox table if it does not exist, and the triggers capturing the changes of the given tables.
+     * @param jdbc      The JDBC object of the source
+     * @param tables    The tables to capture
+     * @throws VantiqSQLException   If one of the statements failed
+     * @throws UnsupportedOperationException    If the database has no generated DDL, see {@link OutboxSchema}
+     */
+    public void install(JDBC jdbc, List<String> tables) throws VantiqSQLException {
+        Dialect dialect = jdbc.getMemory().getDialect();
+        try (Connection conn = jdbc.getDataSource().getConnection(); Statement stmt = conn.createStatement()) {
+            List<String> statements = new ArrayList<>();
+            statements.add(OutboxSchema.createTable(dialect, outboxTable));
+            for (String table : tables) {
+                statements.addAll(OutboxSchema.createTriggers(conn, dialect, outboxTable, table));
+            }
+            for (String statement : statements) {
+                LOG.debug("Installing outbox: {}", statement);
+                stmt.execute(statement);
+            }
+            LOG.info("Installed outbox table {} capturing {}", outboxTable, tables);
+        } catch (SQLException e) {
+            jdbc.reportSQLError(e);
+        }
+    }
+
+    private static Object parsePayload(String payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(payload, Map.class);
+        } catch (IOException e) {
+            // Payloads written by other means than the generated triggers are passed on as they are
+            return payload;
+        }
+    }
+}
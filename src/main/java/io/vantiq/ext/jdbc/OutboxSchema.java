@@ -0,0 +1,151 @@
+package io.vantiq.ext.jdbc;
+
+import cn.ffcs.memory.Dialect;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates the DDL of the outbox table read by {@link OutboxCapture}, and the triggers filling it with the changes
+ * of captured tables, for MySQL (5.7+), PostgreSQL and H2.
+ *
+ * The outbox table has the columns
+ * <pre>
+ * id          ordered sequence id
+ * table_name  the table that changed
+ * op          insert, update or delete
+ * payload     the new row (the old one for deletes) as a JSON object
+ * processed   0 until the row has been sent, only used when rows are marked instead of deleted
+ * created     when the change happened
+ * </pre>
+ */
+public class OutboxSchema {
+
+    public static final String OP_INSERT = "insert";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    private OutboxSchema() {
+    }
+
+    /**
+     * @param dialect       The dialect of the database
+     * @param outboxTable   The name of the outbox table
+     * @return              The statement creating the outbox table
+     * @throws UnsupportedOperationException    If the database is not MySQL, PostgreSQL or H2
+     */
+    public static String createTable(Dialect dialect, String outboxTable) {
+        String id;
+        String payload;
+        switch (dialect.getName()) {
+            case "mysql":
+                id = "BIGINT AUTO_INCREMENT PRIMARY KEY";
+                payload = "LONGTEXT";
+                break;
+            case "postgresql":
+                id = "BIGSERIAL PRIMARY KEY";
+                payload = "TEXT";
+                break;
+            case "h2":
+                id = "BIGINT AUTO_INCREMENT PRIMARY KEY";
+                payload = "CLOB";
+                break;
+            default:
+                throw unsupported(dialect);
+        }
+        return "CREATE TABLE IF NOT EXISTS " + outboxTable + " ("
+                + "id " + id + ", "
+                + "table_name VARCHAR(128) NOT NULL, "
+                + "op VARCHAR(10) NOT NULL, "
+                + "payload " + payload + ", "
+                + "processed SMALLINT DEFAULT 0 NOT NULL, "
+                + "created TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
+    }
+
+    /**
+     * Generates the statements creating the triggers that capture the changes of a table.
+     * @param conn          A connection to the database, used to look up the columns of the table (MySQL only)
+     * @param dialect       The dialect of the database
+     * @param outboxTable   The name of the outbox table
+     * @param table         The table whose changes are captured
+     * @return              The statements to execute, in order
+     * @throws SQLException If the columns of the table could not be read
+     * @throws UnsupportedOperationException    If the database is not MySQL, PostgreSQL or H2
+     */
+    public static List<String> createTriggers(Connection conn, Dialect dialect, String outboxTable, String table)
+            throws SQLException {
+        switch (dialect.getName()) {
+            case "mysql":
+                return mysqlTriggers(columns(conn, table), outboxTable, table);
+            case "postgresql":
+                String function = outboxTable + "_capture";
+                return Arrays.asList(
+                        "CREATE OR REPLACE FUNCTION " + function + "() RETURNS trigger AS $$ BEGIN "
+                                + "IF TG_OP = 'DELETE' THEN "
+                                + "INSERT INTO " + outboxTable + " (table_name, op, payload) "
+                                + "VALUES (TG_TABLE_NAME, 'delete', row_to_json(OLD)::text); RETURN OLD; "
+                                + "END IF; "
+                                + "INSERT INTO " + outboxTable + " (table_name, op, payload) "
+                                + "VALUES (TG_TABLE_NAME, lower(TG_OP), row_to_json(NEW)::text); RETURN NEW; "
+                                + "END; $$ LANGUAGE plpgsql",
+                        "DROP TRIGGER IF EXISTS " + table + "_outbox ON " + table,
+                        "CREATE TRIGGER " + table + "_outbox AFTER INSERT OR UPDATE OR DELETE ON " + table
+                                + " FOR EACH ROW EXECUTE PROCEDURE " + function + "()");
+            case "h2":
+                String trigger = table + OutboxTrigger.NAME_SEPARATOR + outboxTable;
+                return Arrays.asList(
+                        "DROP TRIGGER IF EXISTS " + trigger,
+                        "CREATE TRIGGER " + trigger + " AFTER INSERT, UPDATE, DELETE ON " + table
+                                + " FOR EACH ROW CALL \"" + OutboxTrigger.class.getName() + "\"");
+            default:
+                throw unsupported(dialect);
+        }
+    }
+
+    private static List<String> mysqlTriggers(List<String> columns, String outboxTable, String table) {
+        List<String> statements = new ArrayList<>();
+        String[][] events = {{"ins", "INSERT", "NEW", OP_INSERT}, {"upd", "UPDATE", "NEW", OP_UPDATE},
+                {"del", "DELETE", "OLD", OP_DELETE}};
+        for (String[] event : events) {
+            String trigger = table + "_outbox_" + event[0];
+            StringBuilder payload = new StringBuilder("JSON_OBJECT(");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    payload.append(", ");
+                }
+                payload.append('\'').append(columns.get(i)).append("', ").append(event[2]).append('.')
+                        .append(columns.get(i));
+            }
+            payload.append(')');
+            statements.add("DROP TRIGGER IF EXISTS " + trigger);
+            statements.add("CREATE TRIGGER " + trigger + " AFTER " + event[1] + " ON " + table + " FOR EACH ROW "
+                    + "INSERT INTO " + outboxTable + " (table_name, op, payload) VALUES ('" + table + "', '"
+                    + event[3] + "', " + payload + ")");
+        }
+        return statements;
+    }
+
+    private static List<String> columns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet rs = metaData.getColumns(conn.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("Table " + table + " was not found.");
+        }
+        return columns;
+    }
+
+    private static UnsupportedOperationException unsupported(Dialect dialect) {
+        return new UnsupportedOperationException("Outbox DDL is not available for " + dialect.getName()
+                + ", create the outbox table and triggers manually.");
+    }
+}
@@ -0,0 +1,77 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * H2 trigger writing the changes of a table to an outbox table, the H2 counterpart of the SQL triggers generated by
+ * {@link OutboxSchema} for MySQL and PostgreSQL. H2 triggers take no arguments, so the outbox table is taken from the
+ * trigger name, which {@link OutboxSchema} creates as &lt;table&gt;_TO_&lt;outboxTable&gt;.
+ */
+public class OutboxTrigger implements Trigger {
+
+    static final String NAME_SEPARATOR = "_TO_";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<String> columns = new ArrayList<>();
+    private String tableName;
+    private String insertSql;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before,
+                     int type) throws SQLException {
+        int separator = triggerName.lastIndexOf(NAME_SEPARATOR);
+        if (separator < 0) {
+            throw new SQLException("Outbox trigger " + triggerName + " is not named <table>" + NAME_SEPARATOR
+                    + "<outboxTable>");
+        }
+        String outboxTable = triggerName.substring(separator + NAME_SEPARATOR.length());
+        this.tableName = tableName;
+        this.insertSql = "INSERT INTO " + outboxTable + " (table_name, op, payload) VALUES (?, ?, ?)";
+
+        try (ResultSet rs = conn.getMetaData().getColumns(null, schemaName, tableName, null)) {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        String op = newRow == null ? OutboxSchema.OP_DELETE : oldRow == null ? OutboxSchema.OP_INSERT
+                : OutboxSchema.OP_UPDATE;
+        Object[] row = newRow == null ? oldRow : newRow;
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        for (int i = 0; i < columns.size() && i < row.length; i++) {
+            payload.put(columns.get(i), row[i]);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+            stmt.setString(1, tableName);
+            stmt.setString(2, op);
+            stmt.setString(3, MAPPER.writeValueAsString(payload));
+            stmt.executeUpdate();
+        } catch (JsonProcessingException e) {
+            throw new SQLException("Could not convert the row to JSON.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
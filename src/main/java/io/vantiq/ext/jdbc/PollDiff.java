@@ -0,0 +1,244 @@
+package io.vantiq.ext.jdbc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Compares each result of a pollQuery with the previous one (pollMode "diff"), so that only the rows that changed are
+ * sent instead of the whole result:
+ * <ul>
+ *     <li>new keys are sent with <code>"_op": "insert"</code></li>
+ *     <li>keys whose row changed are sent with <code>"_op": "update"</code></li>
+ *     <li>keys that are gone are sent as <code>{"_op": "delete", "id": 42}</code>, holding only the pollKey columns</li>
+ * </ul>
+ * The first result is sent as inserts.
+ *
+ * Rather than the previous result, a {@link LongHashIndex} from a 64 bit hash of the pollKey values to a 64 bit hash of
+ * the row is kept. A single integral key is stored as is and needs no hash, other keys are attached to their entry so
+ * that deletes can be reported. Values are hashed by their JSON form, so that rows read back from a spilled result
+ * hash the same as rows held on the heap.
+ */
+public class PollDiff {
+
+    public static final String MODE_FULL = "full";
+    public static final String MODE_DIFF = "diff";
+
+    public static final String OP = "_op";
+    public static final String OP_INSERT = "insert";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    // Number of rows read from a spilled result at a time
+    private static final int BUNDLE_SIZE = 500;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+    private final List<String> keyColumns;
+    private LongHashIndex previous = null;
+
+    /**
+     * @param keyColumns    The columns identifying a row of the pollQuery result
+     */
+    public PollDiff(List<String> keyColumns) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("A diff poll needs at least one pollKey column");
+        }
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Parses the pollKey option of the source config, a column name or a comma separated list of column names.
+     * @param pollKey   The pollKey option
+     * @return          The column names
+     */
+    public static List<String> parseKey(String pollKey) {
+        List<String> columns = new ArrayList<>();
+        for (String column : pollKey.split(",")) {
+            if (!column.trim().isEmpty()) {
+                columns.add(column.trim());
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Sends the changes between the previous result and this one. If the result cannot be read completely, the
+     * previous result is kept and the next poll is compared with it again.
+     * @param result    The result of the pollQuery
+     * @param sink      Receives the changed rows, tagged with their operation
+     * @throws IOException  If a spilled result could not be read
+     */
+    public void apply(SpillableResult result, Consumer<Map<String, Object>> sink) throws IOException {
+        LongHashIndex current = new LongHashIndex(previous == null ? result.size() : Math.max(result.size(),
+                previous.size()));
+        String[][] resolved = new String[1][];
+        result.forEachBundle(BUNDLE_SIZE, (bundle, last) -> {
+            for (Map<String, Object> row : bundle) {
+                if (resolved[0] == null) {
+                    resolved[0] = resolveKeyColumns(row);
+                }
+                diffRow(row, resolved[0], current, sink);
+            }
+        });
+
+        if (previous != null) {
+            String[] names = resolved[0] != null ? resolved[0] : keyColumns.toArray(new String[0]);
+            previous.forEach((key, rowHash, attachment) -> {
+                if (!current.containsKey(key)) {
+                    sink.accept(deleted(names, key, attachment));
+                }
+            });
+        }
+        previous = current;
+    }
+
+    /**
+     * @return  The number of keys of the last result
+     */
+    public int size() {
+        return previous == null ? 0 : previous.size();
+    }
+
+    private void diffRow(Map<String, Object> row, String[] names, LongHashIndex current,
+                         Consumer<Map<String, Object>> sink) {
+        long key;
+        Object attachment = null;
+        if (names.length == 1) {
+            Object value = row.get(names[0]);
+            Long exact = exactLong(value);
+            if (exact != null) {
+                key = exact;
+            } else {
+                key = hash(FNV_OFFSET, value);
+                attachment = value;
+            }
+        } else {
+            Object[] values = new Object[names.length];
+            key = FNV_OFFSET;
+            for (int i = 0; i < names.length; i++) {
+                values[i] = row.get(names[i]);
+                key = hash(key, values[i]);
+            }
+            attachment = values;
+        }
+
+        long rowHash = FNV_OFFSET;
+        for (Object value : row.values()) {
+            rowHash = hash(rowHash, value);
+        }
+        rowHash = LongHashIndex.mix(rowHash);
+
+        current.put(key, rowHash, attachment);
+        String op;
+        if (previous == null || !previous.containsKey(key)) {
+            op = OP_INSERT;
+        } else if (previous.get(key, 0) != rowHash) {
+            op = OP_UPDATE;
+        } else {
+            return;
+        }
+        row.put(OP, op);
+        sink.accept(row);
+    }
+
+    private Map<String, Object> deleted(String[] names, long key, Object attachment) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(OP, OP_DELETE);
+        if (attachment instanceof Object[]) {
+            Object[] values = (Object[]) attachment;
+            for (int i = 0; i < names.length; i++) {
+                row.put(names[i], values[i]);
+            }
+        } else {
+            row.put(names[0], attachment != null ? attachment : key);
+        }
+        return row;
+    }
+
+    /**
+     * Finds the pollKey columns in the row, ignoring case since databases differ in the case of column labels.
+     */
+    private String[] resolveKeyColumns(Map<String, ?> row) {
+        String[] names = new String[keyColumns.size()];
+        for (int i = 0; i < names.length; i++) {
+            for (String column : row.keySet()) {
+                if (column.equalsIgnoreCase(keyColumns.get(i))) {
+                    names[i] = column;
+                    break;
+                }
+            }
+            if (names[i] == null) {
+                throw new IllegalStateException("The pollKey column " + keyColumns.get(i)
+                        + " is not in the result of the pollQuery");
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return  The value as a long if it is an integral number, null otherwise
+     */
+    private static Long exactLong(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger || value instanceof BigDecimal) {
+            BigDecimal decimal = value instanceof BigInteger ? new BigDecimal((BigInteger) value) : (BigDecimal) value;
+            try {
+                return decimal.longValueExact();
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 0x1p53) {
+                return (long) d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a value to a 64 bit FNV-1a hash. Numbers hash by their value, so that 1, 1L and 1.0 are equal, and binary
+     * values by their base64 form, which is how they come back from a spilled result.
+     */
+    private static long hash(long h, Object value) {
+        if (value == null) {
+            return (h ^ NULL_HASH) * FNV_PRIME;
+        }
+        Long exact = exactLong(value);
+        if (exact != null) {
+            long v = exact;
+            for (int i = 0; i < 8; i++) {
+                h = (h ^ (v & 0xff)) * FNV_PRIME;
+                v >>>= 8;
+            }
+            return h;
+        }
+        String text;
+        if (value instanceof Double || value instanceof Float) {
+            text = BigDecimal.valueOf(((Number) value).doubleValue()).stripTrailingZeros().toPlainString();
+        } else if (value instanceof BigDecimal) {
+            text = ((BigDecimal) value).stripTrailingZeros().toPlainString();
+        } else if (value instanceof byte[]) {
+            text = Base64.getEncoder().encodeToString((byte[]) value);
+        } else {
+            text = value.toString();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * FNV_PRIME;
+        }
+        // Separates the values, so that ("ab", "c") and ("a", "bc") hash differently
+        return (h ^ 0xff) * FNV_PRIME;
+    }
+}
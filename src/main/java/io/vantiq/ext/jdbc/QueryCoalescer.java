@@ -0,0 +1,223 @@
+package io.vantiq.ext.jdbc;
+
+import io.vantiq.extjsdk.ExtensionServiceMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs identical queries that arrive at the same time only once (the coalesceQueries option of the source config).
+ * When an event fans out to many rule instances, they all send the same SELECT within milliseconds.
+ *
+ * The first query message with a given SQL runs the query. Messages with the same SQL that arrive while it runs attach
+ * to it and return at once, without using a connection. When the query completes, the result is sent to every
+ * attached reply address, each with its own bundleFactor, and a failure is reported to each of them. SQL is compared
+ * after collapsing whitespace outside of quoted literals and dropping a trailing ';'.
+ *
+ * With a coalesceWindow, a completed result is also reused for the same SQL until it is that many milliseconds old.
+ * Such results can be up to coalesceWindow stale, so they are dropped when a publish goes through the source.
+ */
+public class QueryCoalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryCoalescer.class);
+
+    private final long window;
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * @param window    Milliseconds a completed result is reused for, 0 to only share queries that are running
+     */
+    public QueryCoalescer(long window) {
+        this.window = Math.max(0, window);
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Runs the query, or attaches the message to a running or recent execution of the same SQL.
+     * @param sql           The query
+     * @param message       The Query message, which receives the result
+     * @param execution     Runs the query into a new result, only called if no execution could be shared
+     * @param delivery      Sends a result or a failure to one Query message
+     */
+    public void execute(String sql, ExtensionServiceMessage message, Execution execution, Delivery delivery) {
+        String key = normalize(sql);
+        Flight flight;
+        boolean leader = false;
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                flight.messages.add(message);
+                flights.put(key, flight);
+                leader = true;
+            } else if (flight.result == null) {
+                // Answered by the execution that is running
+                flight.messages.add(message);
+                return;
+            } else {
+                flight.readers++;
+            }
+        }
+        if (!leader) {
+            try {
+                delivery.send(flight.result, message);
+            } catch (Exception e) {
+                delivery.fail(e, message);
+            } finally {
+                release(flight);
+            }
+            return;
+        }
+
+        SpillableResult result;
+        List<ExtensionServiceMessage> messages;
+        try {
+            result = execution.run();
+        } catch (Exception e) {
+            synchronized (this) {
+                flights.remove(key, flight);
+                messages = new ArrayList<>(flight.messages);
+            }
+            for (ExtensionServiceMessage waiting : messages) {
+                delivery.fail(e, waiting);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            flight.result = result;
+            flight.completedAt = System.currentTimeMillis();
+            messages = new ArrayList<>(flight.messages);
+            flight.messages.clear();
+            // One reference for the delivery below, and one for the cache while the result may be reused
+            flight.readers = 1;
+            if (window > 0) {
+                flight.readers++;
+            } else {
+                flights.remove(key, flight);
+            }
+        }
+        if (messages.size() > 1) {
+            LOG.debug("Sending the result of one query to {} query messages", messages.size());
+        }
+        try {
+            for (ExtensionServiceMessage waiting : messages) {
+                try {
+                    delivery.send(result, waiting);
+                } catch (Exception e) {
+                    delivery.fail(e, waiting);
+                }
+            }
+        } finally {
+            release(flight);
+        }
+    }
+
+    /**
+     * Drops the completed results, so that the next query messages run their query again.
+     */
+    public synchronized void invalidate() {
+        Iterator<Flight> it = flights.values().iterator();
+        while (it.hasNext()) {
+            Flight flight = it.next();
+            if (flight.result != null) {
+                it.remove();
+                releaseLocked(flight);
+            }
+        }
+    }
+
+    /**
+     * Collapses runs of whitespace outside of quoted literals and identifiers to a single space, and drops a trailing
+     * ';', so that the same query written on several lines or with other indentation is recognized.
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                normalized.append(c);
+            }
+        }
+        int end = normalized.length();
+        while (end > 0 && (normalized.charAt(end - 1) == ';' || normalized.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    private void expire(long now) {
+        if (window <= 0) {
+            return;
+        }
+        Iterator<Flight> it = flights.values().iterator();
+        while (it.hasNext()) {
+            Flight flight = it.next();
+            if (flight.result != null && now - flight.completedAt > window) {
+                it.remove();
+                releaseLocked(flight);
+            }
+        }
+    }
+
+    private synchronized void release(Flight flight) {
+        releaseLocked(flight);
+    }
+
+    private void releaseLocked(Flight flight) {
+        if (--flight.readers == 0) {
+            flight.result.close();
+        }
+    }
+
+    /**
+     * One execution of a query, with the messages waiting for it while it runs and the result once it completed.
+     */
+    private static class Flight {
+        private final List<ExtensionServiceMessage> messages = new ArrayList<>();
+        private SpillableResult result = null;
+        private long completedAt;
+        private int readers = 0;
+    }
+
+    /**
+     * Runs the query of the first message.
+     */
+    public interface Execution {
+        SpillableResult run() throws Exception;
+    }
+
+    /**
+     * Answers one Query message.
+     */
+    public interface Delivery {
+        void send(SpillableResult result, ExtensionServiceMessage message) throws Exception;
+        void fail(Exception e, ExtensionServiceMessage message);
+    }
+}
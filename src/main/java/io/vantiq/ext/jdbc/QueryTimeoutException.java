@@ -0,0 +1,15 @@
+package io.vantiq.ext.jdbc;
+
+/**
+ * Thrown when a statement did not complete before its deadline and was cancelled.
+ */
+public class QueryTimeoutException extends VantiqSQLException {
+
+    public QueryTimeoutException(String message) {
+        super(message);
+    }
+
+    public QueryTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
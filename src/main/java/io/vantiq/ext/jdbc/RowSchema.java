@@ -0,0 +1,66 @@
+package io.vantiq.ext.jdbc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The column names of a query result, shared by all of its {@link CompactRow}s.
+ */
+public class RowSchema {
+
+    private final String[] columnNames;
+    // The last column of each name
+    private final Map<String, Integer> indexes;
+
+    // The previous and next column with the same name, or -1. HashMap rows were filled column by column leaving out
+    // null values, so of the columns with the same name the last one that is not null is visible.
+    private final int[] previousSameName;
+    private final int[] nextSameName;
+
+    public RowSchema(String[] columnNames) {
+        this.columnNames = columnNames;
+        this.indexes = new HashMap<>(columnNames.length * 2);
+        this.previousSameName = new int[columnNames.length];
+        this.nextSameName = new int[columnNames.length];
+        Arrays.fill(nextSameName, -1);
+        for (int i = 0; i < columnNames.length; i++) {
+            Integer previous = indexes.put(columnNames[i], i);
+            previousSameName[i] = previous == null ? -1 : previous;
+            if (previous != null) {
+                nextSameName[previous] = i;
+            }
+        }
+    }
+
+    public int size() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int index) {
+        return columnNames[index];
+    }
+
+    /**
+     * @param columnName    The name of the column
+     * @return              The position of the (last) column of that name, or -1 if the result has no such column
+     */
+    public int indexOf(Object columnName) {
+        Integer index = indexes.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return  The position of the previous column with the same name, or -1
+     */
+    int previousSameName(int index) {
+        return previousSameName[index];
+    }
+
+    /**
+     * @return  The position of the next column with the same name, or -1
+     */
+    int nextSameName(int index) {
+        return nextSameName[index];
+    }
+}
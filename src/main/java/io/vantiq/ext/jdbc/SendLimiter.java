@@ -0,0 +1,166 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the notifications and query responses sent to VANTIQ (the maxSendRate option of the source config), so that
+ * a load or a large poll does not get the connection throttled or closed by the server.
+ *
+ * Sends take a token from a bucket refilled at the current rate, holding at most a tenth of a second of sends, and
+ * wait when it is empty. The rate adapts like TCP congestion control: it starts at maxSendRate and grows by a
+ * twentieth of maxSendRate each second while sends are fast. When the average time a send takes grows to several
+ * times the lowest average seen, the rate is cut by 30%, and again each time it grows as much further. A disconnect
+ * halves the rate. It is never lowered below minSendRate.
+ */
+public class SendLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SendLimiter.class);
+
+    public static final double DEFAULT_MIN_RATE = 10;
+
+    // Time (in nanoseconds) between two adjustments of the rate
+    private static final long ADJUST_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    // Growth of the average send latency over the lowest one that is taken as congestion
+    private static final double LATENCY_FACTOR = 3;
+
+    // Sends faster than this never count as congested, whatever the baseline
+    private static final double MIN_CONGESTED_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final double LATENCY_DECREASE = 0.7;
+    private static final double DISCONNECT_DECREASE = 0.5;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double step;
+
+    // All guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdjust;
+    private double averageLatency = 0;
+    private double baselineLatency = 0;
+    private long sent = 0;
+    private long waits = 0;
+    private long decreases = 0;
+
+    /**
+     * @param maxRate   The highest number of sends per second
+     * @param minRate   The rate is never lowered below this number of sends per second
+     */
+    public SendLimiter(double maxRate, double minRate) {
+        this.maxRate = maxRate;
+        this.minRate = Math.max(1, Math.min(minRate, maxRate));
+        this.step = maxRate / 20;
+        this.rate = maxRate;
+        this.lastRefill = System.nanoTime();
+        this.lastAdjust = lastRefill;
+        this.tokens = capacity();
+    }
+
+    /**
+     * @return  true if this limiter has the same settings, and can be kept when the source is reconfigured
+     */
+    public boolean hasSettings(double maxRate, double minRate) {
+        return this.maxRate == maxRate && this.minRate == Math.max(1, Math.min(minRate, maxRate));
+    }
+
+    /**
+     * Waits until a send is allowed. Interrupting the thread ends the wait early, with the interrupt flag set.
+     */
+    public void acquire() {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity(), tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+            // Reserve the token even if it is not there yet, so that waiting senders are paced one after the other
+            tokens -= 1;
+            wait = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+            if (wait > 0) {
+                waits++;
+            }
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records how long a send took, and adjusts the rate once per second.
+     * @param latency   The duration of the send in nanoseconds
+     */
+    public synchronized void sent(long latency) {
+        sent++;
+        averageLatency = averageLatency == 0 ? latency : averageLatency * 0.9 + latency * 0.1;
+        if (baselineLatency == 0 || averageLatency < baselineLatency) {
+            baselineLatency = averageLatency;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastAdjust < ADJUST_INTERVAL) {
+            return;
+        }
+        lastAdjust = now;
+        if (averageLatency > MIN_CONGESTED_LATENCY && averageLatency > baselineLatency * LATENCY_FACTOR) {
+            decrease(LATENCY_DECREASE, "sends slowed down");
+            // Only cut again if the latency keeps growing, a latency that stays high is not caused by the rate
+            baselineLatency = averageLatency / LATENCY_FACTOR;
+        } else if (rate < maxRate) {
+            rate = Math.min(maxRate, rate + step);
+        }
+    }
+
+    /**
+     * Halves the rate after the connection to VANTIQ was lost.
+     */
+    public synchronized void disconnected() {
+        decrease(DISCONNECT_DECREASE, "the connection was lost");
+        tokens = Math.min(tokens, 0);
+        lastAdjust = System.nanoTime();
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return  The current rate, the latency of sends and the number of sends, waits and rate decreases
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rate", rate);
+        stats.put("maxRate", maxRate);
+        stats.put("minRate", minRate);
+        stats.put("averageLatencyMs", averageLatency / 1e6);
+        stats.put("baselineLatencyMs", baselineLatency / 1e6);
+        stats.put("sent", sent);
+        stats.put("waits", waits);
+        stats.put("decreases", decreases);
+        return stats;
+    }
+
+    private void decrease(double factor, String reason) {
+        double previous = rate;
+        rate = Math.max(minRate, rate * factor);
+        decreases++;
+        if (rate < previous) {
+            LOG.warn("Lowering the send rate from {} to {} per second because {}", Math.round(previous),
+                    Math.round(rate), reason);
+        }
+    }
+
+    private double capacity() {
+        return Math.max(1, rate / 10);
+    }
+}
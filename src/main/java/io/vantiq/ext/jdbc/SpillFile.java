@@ -0,0 +1,106 @@
+package io.vantiq.ext.jdbc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only temp file of length-prefixed records, written and read through memory-mapped windows so that
+ * neither side copies the data through heap buffers. The file is deleted when it is closed.
+ */
+class SpillFile implements Closeable {
+
+    // Default size of the region of the file that is mapped at a time, records larger than this get a window of
+    // their own
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int windowSize;
+
+    private MappedByteBuffer writeWindow = null;
+    private long size = 0;
+    private int records = 0;
+
+    SpillFile(Path directory) throws IOException {
+        this(directory, WINDOW_SIZE);
+    }
+
+    /**
+     * @param directory     The directory of the temp file
+     * @param windowSize    The number of bytes mapped at a time
+     */
+    SpillFile(Path directory, int windowSize) throws IOException {
+        this.windowSize = windowSize;
+        Files.createDirectories(directory);
+        path = Files.createTempFile(directory, "jdbc-result-", ".spill");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    void write(byte[] record) throws IOException {
+        int needed = record.length + 4;
+        if (writeWindow == null || writeWindow.remaining() < needed) {
+            // Mapping past the end of the file grows it
+            writeWindow = channel.map(FileChannel.MapMode.READ_WRITE, size, Math.max(windowSize, needed));
+        }
+        writeWindow.putInt(record.length);
+        writeWindow.put(record);
+        size += needed;
+        records++;
+    }
+
+    int getRecordCount() {
+        return records;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the records back in the order they were written.
+     * @param consumer  Called once per record
+     */
+    void read(RecordConsumer consumer) throws IOException {
+        long offset = 0;
+        MappedByteBuffer readWindow = null;
+        long windowStart = 0;
+        while (offset < size) {
+            if (readWindow == null || offset + 4 > windowStart + readWindow.limit()) {
+                windowStart = offset;
+                readWindow = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset));
+            }
+            readWindow.position((int) (offset - windowStart));
+            int length = readWindow.getInt();
+            if (readWindow.remaining() < length) {
+                // The record crosses the end of the window, remap starting at the record
+                windowStart = offset;
+                readWindow = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(Math.max(windowSize, length + 4), size - offset));
+                readWindow.position(4);
+            }
+            byte[] record = new byte[length];
+            readWindow.get(record);
+            offset += length + 4;
+            consumer.accept(record);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeWindow = null;
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    interface RecordConsumer {
+        void accept(byte[] record) throws IOException;
+    }
+}
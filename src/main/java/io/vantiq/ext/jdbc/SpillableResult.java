@@ -0,0 +1,164 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the rows of a query result on the heap until their estimated size exceeds the memory budget of the
+ * request. From then on every row is encoded to a memory-mapped {@link SpillFile} instead, and sent back to VANTIQ
+ * in bundles read from that file, so that a large result does not have to fit on the heap. Closing the result
+ * deletes the file.
+ */
+public class SpillableResult implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillableResult.class);
+
+    // Rough per-row and per-value overhead (in bytes) of a CompactRow, used to estimate heap usage
+    private static final int ROW_OVERHEAD = 48;
+    private static final int VALUE_OVERHEAD = 24;
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private static final TypeReference<LinkedHashMap<String, Object>> ROW_TYPE =
+            new TypeReference<LinkedHashMap<String, Object>>() { };
+
+    private final long memoryBudget;
+    private final Path spillDirectory;
+
+    private final List<Map<String, Object>> rows = new ArrayList<>();
+    private long estimatedSize = 0;
+    private int rowCount = 0;
+    private SpillFile spillFile = null;
+
+    /**
+     * Creates a result that is always kept on the heap.
+     */
+    public SpillableResult() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param memoryBudget      Estimated number of bytes the rows may use on the heap before they are spilled to disk
+     * @param spillDirectory    The directory for the spill file, or null for the system temp directory
+     */
+    public SpillableResult(long memoryBudget, String spillDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = Paths.get(spillDirectory != null ? spillDirectory : System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Adds a row, spilling the result to disk if it no longer fits in the memory budget.
+     * @param row   The row
+     * @throws VantiqSQLException   If the row could not be written to the spill file
+     */
+    public void add(Map<String, Object> row) throws VantiqSQLException {
+        rowCount++;
+        try {
+            if (spillFile != null) {
+                spillFile.write(mapper.writeValueAsBytes(row));
+                return;
+            }
+            rows.add(row);
+            estimatedSize += estimateSize(row);
+            if (estimatedSize > memoryBudget) {
+                spillFile = new SpillFile(spillDirectory);
+                for (Map<String, Object> spilled : rows) {
+                    spillFile.write(mapper.writeValueAsBytes(spilled));
+                }
+                rows.clear();
+                LOG.debug("Result exceeded its memory budget of {} bytes after {} rows, spilling to disk",
+                        memoryBudget, rowCount);
+            }
+        } catch (IOException e) {
+            throw new VantiqSQLException("Failed to spill the query result to disk: " + e.getMessage(), e);
+        }
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * @return  All rows as an array, only available if the result was not spilled
+     */
+    public Map[] toArray() {
+        if (spillFile != null) {
+            throw new IllegalStateException("The result was spilled to disk and must be read in bundles");
+        }
+        return rows.toArray(new Map[rows.size()]);
+    }
+
+    /**
+     * Hands the rows to the consumer in bundles of at most bundleSize rows, reading them from the spill file if the
+     * result was spilled. The bundle list is reused, the consumer must not keep it.
+     * @param bundleSize    The maximum number of rows per bundle
+     * @param consumer      Called once per bundle
+     * @throws IOException  If the spill file could not be read
+     */
+    public void forEachBundle(int bundleSize, BundleConsumer consumer) throws IOException {
+        if (spillFile == null) {
+            for (int i = 0; i < rows.size(); i += bundleSize) {
+                int end = Math.min(rows.size(), i + bundleSize);
+                consumer.accept(rows.subList(i, end), end == rows.size());
+            }
+            return;
+        }
+
+        List<Map<String, Object>> bundle = new ArrayList<>(bundleSize);
+        int[] read = {0};
+        spillFile.read(record -> {
+            bundle.add(mapper.readValue(record, ROW_TYPE));
+            read[0]++;
+            if (bundle.size() == bundleSize || read[0] == rowCount) {
+                consumer.accept(bundle, read[0] == rowCount);
+                bundle.clear();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        rows.clear();
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                LOG.error("Failed to delete the spill file of a query result", e);
+            }
+            spillFile = null;
+        }
+    }
+
+    private static long estimateSize(Map<?, ?> row) {
+        long size = ROW_OVERHEAD;
+        for (Object value : row.values()) {
+            size += VALUE_OVERHEAD;
+            if (value instanceof String) {
+                size += 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            }
+        }
+        return size;
+    }
+
+    public interface BundleConsumer {
+        void accept(List<Map<String, Object>> bundle, boolean last) throws IOException;
+    }
+}
@@ -0,0 +1,193 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cancels statements that are still running when their deadline passes. This backs up
+ * {@link Statement#setQueryTimeout(int)}, which only has a resolution of seconds and is not enforced by every driver.
+ *
+ * Every watched statement is also listed as running until its watch is disarmed, so that the admin endpoint can show
+ * the statements in flight and cancel one of them.
+ */
+public class StatementWatchdog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatementWatchdog.class);
+
+    private static final StatementWatchdog INSTANCE = new StatementWatchdog();
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, Watch> running = new ConcurrentHashMap<>();
+
+    private StatementWatchdog() {
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "statementWatchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most statements finish in time, don't keep their cancelled checks around until the deadline
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static StatementWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the query timeout to the statement and arms a watch that cancels it at the deadline.
+     * @param stmt      The statement about to be executed
+     * @param deadline  The time (in epoch milliseconds) by which the statement must complete, 0 for no deadline
+     * @return          The watch, which must be {@link Watch#disarm() disarmed} once the statement has completed
+     * @throws QueryTimeoutException    If the deadline has already passed
+     * @throws SQLException             If the query timeout could not be set
+     */
+    public Watch watch(Statement stmt, long deadline) throws QueryTimeoutException, SQLException {
+        return watch(stmt, deadline, null);
+    }
+
+    /**
+     * Same as {@link #watch(Statement, long)}, with the SQL listed for the statement while it runs.
+     * @param stmt      The statement about to be executed
+     * @param deadline  The time (in epoch milliseconds) by which the statement must complete, 0 for no deadline
+     * @param sql       The SQL of the statement, or a description of a batch
+     * @return          The watch, which must be {@link Watch#disarm() disarmed} once the statement has completed
+     * @throws QueryTimeoutException    If the deadline has already passed
+     * @throws SQLException             If the query timeout could not be set
+     */
+    public Watch watch(Statement stmt, long deadline, String sql) throws QueryTimeoutException, SQLException {
+        Watch watch = new Watch(nextId.incrementAndGet(), stmt, sql);
+        if (deadline > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new QueryTimeoutException("The deadline passed before the statement could be executed.");
+            }
+            stmt.setQueryTimeout((int) Math.max(1, (remaining + 999) / 1000));
+            watch.future = timer.schedule(watch::fire, remaining, TimeUnit.MILLISECONDS);
+        }
+        running.put(watch.id, watch);
+        return watch;
+    }
+
+    /**
+     * @return  The statements running at the moment, the longest running first
+     */
+    public List<Watch> getRunning() {
+        List<Watch> watches = new ArrayList<>(running.values());
+        watches.sort(Comparator.comparingLong(Watch::getStartedAt));
+        return watches;
+    }
+
+    /**
+     * Cancels a running statement, which fails with an error saying it was cancelled.
+     * @param id    The ID of the statement, see {@link Watch#getId()}
+     * @return      false if no statement with the ID is running, or it completed meanwhile
+     */
+    public boolean cancel(long id) {
+        Watch watch = running.get(id);
+        return watch != null && watch.cancel();
+    }
+
+    /**
+     * A pending cancellation of one statement.
+     */
+    public class Watch {
+        private final long id;
+        private final Statement stmt;
+        private final String sql;
+        private final String thread = Thread.currentThread().getName();
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicBoolean fired = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> future;
+        // Guarded by this, a disarmed statement may already be reused by another request and must not be cancelled
+        private boolean disarmed = false;
+
+        Watch(long id, Statement stmt, String sql) {
+            this.id = id;
+            this.stmt = stmt;
+            this.sql = sql;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        private synchronized boolean cancel() {
+            if (disarmed) {
+                return false;
+            }
+            cancelled = true;
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                LOG.warn("Failed to cancel statement {}", id, e);
+            }
+            return true;
+        }
+
+        private synchronized void fire() {
+            if (!disarmed && fired.compareAndSet(false, true)) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException e) {
+                    LOG.warn("Failed to cancel statement after its deadline passed", e);
+                }
+            }
+        }
+
+        /**
+         * @return  true if the statement was cancelled because of its deadline
+         */
+        public boolean hasFired() {
+            return fired.get();
+        }
+
+        /**
+         * @return  true if the statement was cancelled through {@link StatementWatchdog#cancel(long)}
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels the watch, must be called before the statement is closed. Waits for a cancellation that is already
+         * running, no cancellation starts afterwards.
+         */
+        public void disarm() {
+            synchronized (this) {
+                disarmed = true;
+            }
+            running.remove(id, this);
+            ScheduledFuture<?> pending = future;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package io.vantiq.ext.jdbc;
+
+import cn.ffcs.memory.JSONArrayHandler;
+import cn.ffcs.memory.Memory;
+import cn.ffcs.memory.ResultSetHandler;
+import cn.ffcs.memory.TableMetadata;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vantiq.extjsdk.ExtensionWebSocketClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a table into VANTIQ as a stream of notifications (the loadTable option of the source config).
+ *
+ * The load runs as a pipeline of three threads connected by bounded ring buffers: the fetch stage reads pages of
+ * rows from the database, the encode stage converts them to JSON and the send stage pushes them over the websocket.
+ * Fetching the next page overlaps with sending the previous one, and once the send stage falls behind (slow or
+ * disconnected websocket) the buffers fill up and the fetch stage blocks, so memory use is bounded by the buffer
+ * capacity regardless of the size of the table.
+ *
+ * With a loadKey the pages are read in key order from the last key sent (keyset paging), otherwise by page number.
+ * After each page has been sent its position is saved to a {@link LoadCheckpoint}, so a restarted or reconfigured
+ * connector resumes the load where it stopped. {@link #restart()} discards the checkpoint and loads the table again.
+ *
+ * A page that fails to be encoded or sent is not skipped: the stages are stopped, the load goes back to the position
+ * after the last page that was sent in full, and starts again from there after a pause. The rows of the failed page
+ * that were already sent are sent again.
+ */
+public class TableLoader implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TableLoader.class);
+
+    // Number of pages each ring buffer holds between two stages
+    public static final int DEFAULT_BUFFER_PAGES = 4;
+
+    // Interval (in milliseconds) at which the send stage checks whether the websocket has reconnected
+    private static final int RECONNECT_CHECK_INTERVAL = 100;
+
+    // Minimum time (in milliseconds) before a load that failed to encode or send a page starts again
+    private static final int RETRY_INTERVAL = 1000;
+
+    private final JDBCConnector connector;
+    private final String loadTable;
+    private final String loadKey;
+    private final int loadInterval;
+    private final int loadSize;
+    private final LoadCheckpoint checkpoint;
+
+    private final BlockingQueue<Page> fetched;
+    private final BlockingQueue<EncodedPage> encoded;
+    private final JSONArrayHandler jsonArrayHandler = new JSONArrayHandler(false);
+
+    private final List<Thread> stages = new ArrayList<>();
+    private volatile boolean running = false;
+    // Incremented when the stages are stopped, so that stages still finishing a page of a stopped load drop it
+    private volatile int generation = 0;
+    // Set through the admin endpoint, the fetch stage reads no pages while the load is paused
+    private volatile boolean paused = false;
+    private volatile long lastPageSentAt = 0;
+
+    private boolean loadKeyChecked = false; // only used by the fetch stage
+    private int pageNo = 1; // pageNo starts from 1, guarded by this
+    private Object lastKey; // loadKey value of the last row fetched, guarded by this
+    // Position after the last page sent in full, which the load goes back to when a page fails, guarded by this
+    private int sentPageNo = 1;
+    private Object sentLastKey;
+    private long sentRows = 0;
+    private final AtomicLong rowsFetched = new AtomicLong();
+    private final AtomicLong rowsSent = new AtomicLong();
+
+    public TableLoader(JDBCConnector connector, String loadTable, int loadInterval, int loadSize, int bufferPages) {
+        this(connector, loadTable, null, loadInterval, loadSize, bufferPages, null);
+    }
+
+    /**
+     * @param connector     The connector the rows are sent through
+     * @param loadTable     The table to load
+     * @param loadKey       A unique, indexed column to page by, or null to page by offset
+     * @param loadInterval  The time (in milliseconds) between the reads of two pages
+     * @param loadSize      The number of rows per page
+     * @param bufferPages   The number of pages buffered between two stages
+     * @param checkpoint    Where the position of the load is saved, or null to always load from the beginning
+     */
+    public TableLoader(JDBCConnector connector, String loadTable, String loadKey, int loadInterval, int loadSize,
+                       int bufferPages, LoadCheckpoint checkpoint) {
+        this.connector = connector;
+        this.loadTable = loadTable;
+        this.loadKey = loadKey;
+        this.loadInterval = loadInterval;
+        this.loadSize = loadSize;
+        this.checkpoint = checkpoint;
+        this.fetched = new ArrayBlockingQueue<>(bufferPages);
+        this.encoded = new ArrayBlockingQueue<>(bufferPages);
+    }
+
+    /**
+     * Starts the fetch, encode and send stages, from the saved checkpoint if there is one.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        pageNo = 1;
+        lastKey = null;
+        rowsFetched.set(0);
+        rowsSent.set(0);
+        LoadCheckpoint.Position position = checkpoint == null ? null : checkpoint.read();
+        if (position != null) {
+            pageNo = position.getPageNo();
+            lastKey = position.getLastKey();
+            rowsSent.set(position.getRowsSent());
+            LOG.info("Resuming the load of table {} after {} rows", loadTable, position.getRowsSent());
+        }
+        sentPageNo = pageNo;
+        sentLastKey = lastKey;
+        sentRows = rowsSent.get();
+
+        running = true;
+        startStages(0);
+    }
+
+    /**
+     * Starts the stages of the current generation.
+     * @param delay The time (in milliseconds) the fetch stage waits before it reads the first page
+     */
+    private void startStages(long delay) {
+        int current = generation;
+        stages.add(new Thread(() -> fetchStage(current, delay), "loadFetch-" + loadTable));
+        stages.add(new Thread(() -> encodeStage(current), "loadEncode-" + loadTable));
+        stages.add(new Thread(() -> sendStage(current), "loadSend-" + loadTable));
+        for (Thread stage : stages) {
+            stage.setDaemon(true);
+            stage.start();
+        }
+    }
+
+    /**
+     * Stops the load, discards its checkpoint and loads the table again from the beginning.
+     */
+    public synchronized void restart() {
+        close();
+        if (checkpoint != null) {
+            try {
+                checkpoint.delete();
+            } catch (IOException e) {
+                LOG.warn("Could not delete the load checkpoint {}.", checkpoint.getFile(), e);
+            }
+        }
+        LOG.info("Restarting the load of table {}", loadTable);
+        start();
+    }
+
+    /**
+     * Stops all stages. Rows that are still buffered are dropped, and are sent again when the load resumes from its
+     * checkpoint.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        generation++;
+        for (Thread stage : stages) {
+            stage.interrupt();
+        }
+        stages.clear();
+        fetched.clear();
+        encoded.clear();
+    }
+
+    public String getLoadTable() {
+        return loadTable;
+    }
+
+    /**
+     * Stops reading pages until the load is resumed. The pages already read are still sent.
+     */
+    public void pause() {
+        paused = true;
+        LOG.info("Pausing the load of table {}", loadTable);
+    }
+
+    public void resume() {
+        paused = false;
+        LOG.info("Resuming the load of table {}", loadTable);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return  The time (in epoch milliseconds) the last page was sent, 0 if none was sent yet
+     */
+    public long getLastPageSentAt() {
+        return lastPageSentAt;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched.get();
+    }
+
+    public long getRowsSent() {
+        return rowsSent.get();
+    }
+
+    /**
+     * @return  The number of pages waiting in the buffers between the stages
+     */
+    public int getBufferedPages() {
+        return fetched.size() + encoded.size();
+    }
+
+    private boolean isCurrent(int stageGeneration) {
+        return running && generation == stageGeneration;
+    }
+
+    /**
+     * Stops the stages after a page failed to be encoded or sent, and starts them again from the position after the
+     * last page sent in full, so that the failed page and the pages buffered behind it are read again.
+     * @param stageGeneration   The generation of the failed stage, nothing is done if the load was stopped meanwhile
+     */
+    private synchronized void rewind(int stageGeneration) {
+        if (!isCurrent(stageGeneration)) {
+            return;
+        }
+        generation++;
+        for (Thread stage : stages) {
+            // The failed stage ends by itself once it sees the new generation
+            if (stage != Thread.currentThread()) {
+                stage.interrupt();
+            }
+        }
+        stages.clear();
+        fetched.clear();
+        encoded.clear();
+        pageNo = sentPageNo;
+        lastKey = sentLastKey;
+        rowsSent.set(sentRows);
+        long delay = Math.max(loadInterval, RETRY_INTERVAL);
+        LOG.info("Loading table {} again after {} rows in {} ms", loadTable, sentRows, delay);
+        startStages(delay);
+    }
+
+    /**
+     * Reads one page every loadInterval milliseconds. Once the end of the table is reached the same page keeps being
+     * read (with a loadKey, the rows after the last key), so that rows appended to the table are still picked up.
+     */
+    private void fetchStage(int stageGeneration, long delay) {
+        // The pages are read within the background quota, see Bulkheads
+        Workload.BACKGROUND.enter();
+        if (delay > 0 && !pause(delay)) {
+            return;
+        }
+        while (isCurrent(stageGeneration)) {
+            try {
+                // Nothing is read while the database is down, see CircuitBreaker
+                if (paused || connector.isCircuitOpen()) {
+                    Thread.sleep(Math.max(loadInterval, RECONNECT_CHECK_INTERVAL));
+                    continue;
+                }
+                Page page = fetchPage(stageGeneration);
+                if (page != null && !page.rows.isEmpty()) {
+                    rowsFetched.addAndGet(page.rows.size());
+                    // Blocks while the downstream stages are behind
+                    fetched.put(page);
+                } else if (page != null) {
+                    page.trace.finish();
+                }
+                Thread.sleep(loadInterval);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                LOG.error("An unexpected error occurred when loading table {}.", loadTable, e);
+                if (!pause(loadInterval)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private Page fetchPage(int stageGeneration) {
+        int fromPage;
+        Object fromKey;
+        synchronized (this) {
+            fromPage = pageNo;
+            fromKey = lastKey;
+        }
+
+        // Resolve the JDBC instance for every page, so that a rebuilt connection pool is picked up
+        JDBCHandle handle = connector.acquireJdbc();
+        if (handle == null) {
+            return null;
+        }
+        // Each page is traced on its own, from this stage to the send stage
+        Trace trace = connector.startTrace("load");
+        Page page;
+        try (Trace.Scope scope = trace.activate()) {
+            Memory memory = handle.getJdbc().getMemory();
+            StringBuffer query = new StringBuffer("SELECT * FROM " + loadTable);
+            List<Object> params = new ArrayList<>();
+            if (loadKey == null) {
+                memory.pager(query, params, loadSize, fromPage);
+            } else {
+                TableMetadata table = memory.getMetadata().getTable(loadTable);
+                checkLoadKey(table);
+                if (fromKey != null) {
+                    query.append(" WHERE ").append(loadKey).append(" > ?");
+                    // A key restored from a checkpoint may need converting back to the type of the column
+                    params.add(table.coerce(loadKey, fromKey));
+                }
+                query.append(" ORDER BY ").append(loadKey);
+                memory.pager(query, params, loadSize, 1);
+            }
+            // Chunks of large LOB values are sent right away, ahead of the page holding their rows
+            long fetch = trace.begin();
+            page = memory.query(query, new PageHandler(handle.getJdbc().getLobReader(),
+                    connector::sendNotification), params);
+            trace.end(Trace.FETCH, fetch);
+        } finally {
+            handle.release();
+        }
+
+        synchronized (this) {
+            // The load was stopped or restarted while the page was read
+            if (page == null || !isCurrent(stageGeneration)) {
+                trace.finish();
+                return null;
+            }
+            if (!page.rows.isEmpty()) {
+                pageNo++;
+                if (loadKey != null) {
+                    lastKey = page.rows.get(page.rows.size() - 1)[keyColumn(page)];
+                }
+            }
+            page.generation = stageGeneration;
+            page.nextPageNo = pageNo;
+            page.lastKey = lastKey;
+            page.trace = trace;
+        }
+        return page;
+    }
+
+    /**
+     * Warns once if the loadKey is not a column of the table, or not indexed, in which case every page scans and
+     * sorts the table.
+     */
+    private void checkLoadKey(TableMetadata table) {
+        if (loadKeyChecked || !table.exists()) {
+            return;
+        }
+        loadKeyChecked = true;
+        if (table.getColumn(loadKey) == null) {
+            LOG.warn("The loadKey {} is not a column of table {}.", loadKey, loadTable);
+        } else if (!table.isIndexed(loadKey)) {
+            LOG.warn("The loadKey {} of table {} is not the first column of an index, each page will scan the table.",
+                    loadKey, loadTable);
+        }
+    }
+
+    private int keyColumn(Page page) {
+        for (int i = 0; i < page.columnNames.length; i++) {
+            if (page.columnNames[i].equalsIgnoreCase(loadKey)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("The loadKey " + loadKey + " is not a column of table " + loadTable);
+    }
+
+    private void encodeStage(int stageGeneration) {
+        while (isCurrent(stageGeneration)) {
+            Page page = null;
+            try {
+                page = fetched.take();
+                if (page.generation != stageGeneration) {
+                    page.trace.finish();
+                    continue;
+                }
+                List<JsonNode> rows = new ArrayList<>(page.rows.size());
+                try (Trace.Scope scope = page.trace.activate()) {
+                    long map = page.trace.begin();
+                    for (Object[] row : page.rows) {
+                        rows.add(jsonArrayHandler.toJSON(page.columnNames, row));
+                    }
+                    page.trace.end(Trace.MAP, map);
+                }
+                encoded.put(new EncodedPage(page, rows));
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                LOG.error("An unexpected error occurred when encoding rows of table {}.", loadTable, e);
+                if (page != null) {
+                    page.trace.finish();
+                }
+                rewind(stageGeneration);
+                break;
+            }
+        }
+    }
+
+    private void sendStage(int stageGeneration) {
+        while (isCurrent(stageGeneration)) {
+            try {
+                EncodedPage page = encoded.take();
+                if (page.generation != stageGeneration) {
+                    page.trace.finish();
+                    continue;
+                }
+                try (Trace.Scope scope = page.trace.activate()) {
+                    long send = page.trace.begin();
+                    for (JsonNode row : page.rows) {
+                        // The load was stopped or went back to an earlier page, the rest of this page is sent again
+                        if (!isCurrent(stageGeneration)) {
+                            return;
+                        }
+                        ExtensionWebSocketClient client = connector.getVantiqClient();
+                        // Hold on to the row until the websocket is back, the buffers stop the fetch stage meanwhile
+                        while (!client.isOpen()) {
+                            Thread.sleep(RECONNECT_CHECK_INTERVAL);
+                        }
+                        connector.sendNotification(row);
+                        rowsSent.incrementAndGet();
+                    }
+                    page.trace.end(Trace.SEND, send);
+                    lastPageSentAt = System.currentTimeMillis();
+                    pageSent(page, stageGeneration);
+                } finally {
+                    page.trace.finish();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                LOG.error("An unexpected error occurred when sending rows of table {}.", loadTable, e);
+                rewind(stageGeneration);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records and saves the position after a page that has been sent. Synchronized with {@link #close()}, so that a
+     * stopped load no longer writes to the checkpoint once close returns.
+     */
+    private synchronized void pageSent(EncodedPage page, int stageGeneration) {
+        if (!isCurrent(stageGeneration)) {
+            return;
+        }
+        sentPageNo = page.nextPageNo;
+        sentLastKey = page.lastKey;
+        sentRows = rowsSent.get();
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.write(new LoadCheckpoint.Position(page.nextPageNo, page.lastKey, rowsSent.get()));
+        } catch (IOException e) {
+            LOG.warn("Could not save the load checkpoint {}.", checkpoint.getFile(), e);
+        }
+    }
+
+    private boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A page of rows as read from the database, before it is converted to JSON.
+     */
+    private static class Page {
+        final String[] columnNames;
+        final List<Object[]> rows = new ArrayList<>();
+
+        // Set by the fetch stage: the load this page belongs to, the position after it and its trace
+        int generation;
+        int nextPageNo;
+        Object lastKey;
+        Trace trace = Trace.NONE;
+
+        Page(String[] columnNames) {
+            this.columnNames = columnNames;
+        }
+    }
+
+    /**
+     * A page of rows converted to JSON, with the position to save once it has been sent.
+     */
+    private static class EncodedPage {
+        final List<JsonNode> rows;
+        final int generation;
+        final int nextPageNo;
+        final Object lastKey;
+        final Trace trace;
+
+        EncodedPage(Page page, List<JsonNode> rows) {
+            this.rows = rows;
+            this.generation = page.generation;
+            this.nextPageNo = page.nextPageNo;
+            this.lastKey = page.lastKey;
+            this.trace = page.trace;
+        }
+    }
+
+    /**
+     * Reads the rows of a page into arrays. Values that are only valid while the ResultSet is open (LOBs) are read
+     * here through the {@link LobReader}, and dates are read as timestamps like {@link JSONArrayHandler} does.
+     */
+    private static class PageHandler implements ResultSetHandler<Page> {
+        private final LobReader lobReader;
+        private final LobReader.Sink lobSink;
+
+        PageHandler(LobReader lobReader, LobReader.Sink lobSink) {
+            this.lobReader = lobReader;
+            this.lobSink = lobSink;
+        }
+
+        @Override
+        public Page handle(ResultSet rs) {
+            try {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int columnCount = rsmd.getColumnCount();
+                String[] columnNames = new String[columnCount];
+                int[] columnTypes = new int[columnCount];
+                for (int i = 1; i <= columnCount; i++) {
+                    columnNames[i - 1] = rsmd.getColumnLabel(i);
+                    columnTypes[i - 1] = rsmd.getColumnType(i);
+                }
+                Page page = new Page(columnNames);
+                while (rs.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 1; i <= columnCount; i++) {
+                        Object value;
+                        if (LobReader.isLob(columnTypes[i - 1])) {
+                            value = lobReader.read(rs, i, columnTypes[i - 1], lobSink);
+                        } else {
+                            value = rs.getObject(i);
+                            if (value instanceof Date) {
+                                value = rs.getTimestamp(i);
+                            }
+                        }
+                        row[i - 1] = value;
+                    }
+                    page.rows.add(row);
+                }
+                return page;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package io.vantiq.ext.jdbc;
+
+import cn.ffcs.memory.Dialect;
+import cn.ffcs.memory.TableMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps small, frequently read tables in memory (the mirrorTables option of the source config), so that equality
+ * lookups such as
+ * <pre>
+ * SELECT * FROM devices WHERE id = 42
+ * SELECT name, tariff FROM devices WHERE site = 'north' AND active = 1
+ * </pre>
+ * are answered without a database round trip. Each table is indexed by its primary key, by its single column database
+ * indexes and by the columns listed for it in mirrorIndexes; conditions on other columns are checked row by row.
+ *
+ * Every mirrorInterval the tables are read again and only the rows that were added, changed or deleted are applied
+ * to the rows and indexes, so lookups are at most that stale. A publish through the source marks the mirror stale,
+ * and queries go to the database until the next refresh. Queries that are not a simple equality SELECT on a mirrored
+ * table (joins, other operators, functions, aliases, ORDER BY...) always go to the database, and so do conditions on
+ * string columns unless the database compares them exactly like Java does (case-sensitive, trailing spaces kept), see
+ * {@link Dialect#comparesExactly}: with the default collations of MySQL and SQL Server 'abc' = 'ABC ' holds.
+ */
+public class TableMirror {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TableMirror.class);
+
+    public static final int DEFAULT_INTERVAL = 5000;
+
+    private static final Pattern SELECT = Pattern.compile(
+            "\\s*select\\s+(\\*|\\w+(?:\\s*,\\s*\\w+)*)\\s+from\\s+([\\w.]+)\\s+where\\s+(.+?)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CONDITION = Pattern.compile(
+            "\\s*(\\w+)\\s*=\\s*('(?:[^']|'')*'|-?\\d+(?:\\.\\d+)?)\\s*");
+    private static final Pattern AND = Pattern.compile("and\\b", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Mirror> mirrors = new LinkedHashMap<>();
+    private volatile boolean stale = true;
+
+    /**
+     * @param tables    The tables to mirror
+     * @param indexes   The columns to index by table, in addition to the primary key and the database indexes, may be
+     *                  null
+     */
+    public TableMirror(List<String> tables, Map<String, List<String>> indexes) {
+        Map<String, List<String>> extraIndexes = new HashMap<>();
+        if (indexes != null) {
+            for (Map.Entry<String, List<String>> entry : indexes.entrySet()) {
+                extraIndexes.put(entry.getKey().toUpperCase(Locale.ROOT), entry.getValue());
+            }
+        }
+        for (String table : tables) {
+            String key = table.toUpperCase(Locale.ROOT);
+            List<String> columns = extraIndexes.get(key);
+            mirrors.put(key, new Mirror(table, columns == null ? Collections.emptyList() : columns));
+        }
+    }
+
+    /**
+     * Reads the mirrored tables again and applies the changes.
+     * @param jdbc  The JDBC object of the source
+     */
+    public void refresh(JDBC jdbc) {
+        boolean complete = true;
+        for (Mirror mirror : mirrors.values()) {
+            try {
+                mirror.refresh(jdbc);
+            } catch (Exception e) {
+                // The previous rows are kept, the mirror is only as stale as it was before
+                LOG.error("Failed to refresh the mirror of table " + mirror.table, e);
+                complete = false;
+            }
+        }
+        if (complete) {
+            stale = false;
+        }
+    }
+
+    /**
+     * Sends queries to the database until the next refresh, after a write through the source.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Answers the query from memory.
+     * @param sql   A query message
+     * @return      The rows, or null if the query has to go to the database
+     */
+    public Map[] lookup(String sql) {
+        if (stale) {
+            return null;
+        }
+        Matcher select = SELECT.matcher(sql);
+        if (!select.matches()) {
+            return null;
+        }
+        Mirror mirror = mirrors.get(select.group(2).toUpperCase(Locale.ROOT));
+        if (mirror == null) {
+            return null;
+        }
+        Map<String, Object> conditions = parseConditions(select.group(3));
+        if (conditions == null) {
+            return null;
+        }
+        List<String> columns = null;
+        if (!"*".equals(select.group(1))) {
+            columns = new ArrayList<>();
+            for (String column : select.group(1).split(",")) {
+                columns.add(column.trim());
+            }
+        }
+        return mirror.lookup(conditions, columns);
+    }
+
+    /**
+     * Parses "a = 1 AND b = 'x'" into the values by column name, a BigDecimal for numbers and a String for quoted
+     * literals.
+     * @return  The conditions, or null if the WHERE clause is anything else
+     */
+    private static Map<String, Object> parseConditions(String where) {
+        Map<String, Object> conditions = new LinkedHashMap<>();
+        Matcher condition = CONDITION.matcher(where);
+        Matcher and = AND.matcher(where);
+        int position = 0;
+        while (true) {
+            condition.region(position, where.length());
+            if (!condition.lookingAt()) {
+                return null;
+            }
+            String literal = condition.group(2);
+            Object value = literal.startsWith("'") ? literal.substring(1, literal.length() - 1).replace("''", "'")
+                    : new BigDecimal(literal);
+            if (conditions.put(condition.group(1).toUpperCase(Locale.ROOT), value) != null) {
+                // The same column twice, let the database decide
+                return null;
+            }
+            position = condition.end();
+            if (position == where.length()) {
+                return conditions;
+            }
+            and.region(position, where.length());
+            if (!and.lookingAt()) {
+                return null;
+            }
+            position = and.end();
+        }
+    }
+
+    /**
+     * The key of a value in the indexes: numbers by their plain decimal form, so that 1, 1L and 1.0 are equal.
+     */
+    static String indexKey(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            return decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * The rows and indexes of one table.
+     */
+    private static class Mirror {
+        private final String table;
+        private final List<String> extraIndexes;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private TableMetadata metadata = null;
+        private Dialect dialect = null;
+        private List<String> primaryKey = Collections.emptyList();
+        private Map<String, Map> rows = new HashMap<>();
+        // Index column (upper case) -> index key of the value -> primary keys of the rows
+        private final Map<String, Map<String, Set<String>>> indexes = new HashMap<>();
+
+        Mirror(String table, List<String> extraIndexes) {
+            this.table = table;
+            this.extraIndexes = extraIndexes;
+        }
+
+        void refresh(JDBC jdbc) throws VantiqSQLException {
+            TableMetadata current = jdbc.getMemory().getMetadata().getTable(table);
+            if (!current.exists() || current.getPrimaryKey().isEmpty()) {
+                throw new IllegalStateException("The table " + table + " does not exist or has no primary key");
+            }
+            Map[] result = jdbc.processQuery("SELECT * FROM " + table, 0);
+
+            lock.writeLock().lock();
+            try {
+                dialect = jdbc.getMemory().getDialect();
+                if (current != metadata) {
+                    // First load, or the table changed: rebuild the indexes
+                    metadata = current;
+                    primaryKey = current.getPrimaryKey();
+                    rows = new HashMap<>();
+                    indexes.clear();
+                    for (String column : indexColumns(current)) {
+                        indexes.put(column.toUpperCase(Locale.ROOT), new HashMap<>());
+                    }
+                }
+                apply(result);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private Set<String> indexColumns(TableMetadata metadata) {
+            Set<String> columns = new HashSet<>();
+            for (TableMetadata.Index index : metadata.getIndexes()) {
+                if (index.getColumns().size() == 1) {
+                    columns.add(index.getColumns().get(0));
+                }
+            }
+            for (String column : extraIndexes) {
+                if (metadata.getColumn(column) != null) {
+                    columns.add(metadata.getColumn(column).getName());
+                } else {
+                    LOG.warn("The mirrorIndexes column {} is not a column of table {}", column, table);
+                }
+            }
+            return columns;
+        }
+
+        /**
+         * Applies the rows read from the table: only the rows that are new, changed or gone touch the indexes.
+         */
+        private void apply(Map[] result) {
+            Map<String, Map> next = new HashMap<>(result.length * 2);
+            int changed = 0;
+            for (Map row : result) {
+                String key = primaryKey(row);
+                next.put(key, row);
+                Map previous = rows.get(key);
+                if (previous == null || !previous.equals(row)) {
+                    if (previous != null) {
+                        unindex(key, previous);
+                    }
+                    index(key, row);
+                    changed++;
+                }
+            }
+            for (Map.Entry<String, Map> entry : rows.entrySet()) {
+                if (!next.containsKey(entry.getKey())) {
+                    unindex(entry.getKey(), entry.getValue());
+                    changed++;
+                }
+            }
+            rows = next;
+            if (changed > 0) {
+                LOG.debug("Applied {} changed rows to the mirror of table {}, {} rows", changed, table, rows.size());
+            }
+        }
+
+        private void index(String key, Map row) {
+            for (Map.Entry<String, Map<String, Set<String>>> index : indexes.entrySet()) {
+                String value = indexKey(get(row, index.getKey()));
+                if (value != null) {
+                    index.getValue().computeIfAbsent(value, k -> new HashSet<>()).add(key);
+                }
+            }
+        }
+
+        private void unindex(String key, Map row) {
+            for (Map.Entry<String, Map<String, Set<String>>> index : indexes.entrySet()) {
+                String value = indexKey(get(row, index.getKey()));
+                Set<String> keys = value == null ? null : index.getValue().get(value);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        index.getValue().remove(value);
+                    }
+                }
+            }
+        }
+
+        Map[] lookup(Map<String, Object> literals, List<String> columns) {
+            lock.readLock().lock();
+            try {
+                if (metadata == null) {
+                    return null;
+                }
+                Map<String, String> conditions = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> literal : literals.entrySet()) {
+                    String key = conditionKey(literal.getKey(), literal.getValue());
+                    if (key == null) {
+                        return null;
+                    }
+                    conditions.put(literal.getKey(), key);
+                }
+                if (columns != null) {
+                    for (String column : columns) {
+                        if (metadata.getColumn(column) == null) {
+                            return null;
+                        }
+                    }
+                }
+
+                Collection<Map> candidates = candidates(conditions);
+                List<Map> matches = new ArrayList<>();
+                for (Map row : candidates) {
+                    if (matches(row, conditions)) {
+                        matches.add(columns == null ? row : project(row, columns));
+                    }
+                }
+                return matches.toArray(new Map[matches.size()]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * The index key a column is compared with, converting the literal like the database would. Unknown columns
+         * (the database reports the error), strings the database does not compare exactly (case-insensitive or
+         * padded collations) and columns other than numbers and variable length strings, whose comparison depends on
+         * the database, return null.
+         */
+        private String conditionKey(String column, Object literal) {
+            TableMetadata.Column metadataColumn = metadata.getColumn(column);
+            if (metadataColumn == null) {
+                return null;
+            }
+            switch (metadataColumn.getType()) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    try {
+                        return indexKey(literal instanceof BigDecimal ? literal : new BigDecimal((String) literal));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                case Types.VARCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                    return literal instanceof String && dialect.comparesExactly(metadataColumn) ? (String) literal
+                            : null;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * The rows that may match: by primary key if it is fully given, by the first indexed column, or all rows.
+         */
+        private Collection<Map> candidates(Map<String, String> conditions) {
+            StringBuilder key = new StringBuilder();
+            for (String column : primaryKey) {
+                String value = conditions.get(column.toUpperCase(Locale.ROOT));
+                if (value == null) {
+                    key = null;
+                    break;
+                }
+                key.append(value).append('\u0000');
+            }
+            if (key != null) {
+                Map row = rows.get(key.toString());
+                return row == null ? Collections.emptyList() : Collections.singletonList(row);
+            }
+            for (Map.Entry<String, String> condition : conditions.entrySet()) {
+                Map<String, Set<String>> index = indexes.get(condition.getKey());
+                if (index != null) {
+                    Set<String> keys = index.getOrDefault(condition.getValue(), Collections.emptySet());
+                    List<Map> candidates = new ArrayList<>(keys.size());
+                    for (String rowKey : keys) {
+                        candidates.add(rows.get(rowKey));
+                    }
+                    return candidates;
+                }
+            }
+            return rows.values();
+        }
+
+        private boolean matches(Map row, Map<String, String> conditions) {
+            for (Map.Entry<String, String> condition : conditions.entrySet()) {
+                if (!condition.getValue().equals(indexKey(get(row, condition.getKey())))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Map project(Map row, List<String> columns) {
+            Map<String, Object> projected = new LinkedHashMap<>();
+            for (String column : columns) {
+                String name = metadata.getColumn(column).getName();
+                Object value = row.get(name);
+                // Like the rows read from the database, null columns are left out
+                if (value != null) {
+                    projected.put(name, value);
+                }
+            }
+            return projected;
+        }
+
+        private String primaryKey(Map row) {
+            StringBuilder key = new StringBuilder();
+            for (String column : primaryKey) {
+                key.append(indexKey(row.get(column))).append('\u0000');
+            }
+            return key.toString();
+        }
+
+        private Object get(Map row, String column) {
+            return row.get(metadata.getColumn(column).getName());
+        }
+    }
+}
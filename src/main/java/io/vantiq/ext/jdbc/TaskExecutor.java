@@ -0,0 +1,129 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs query, publish, poll and load tasks off the websocket thread.
+ *
+ * This is the Java 8 implementation, which always uses a fixed pool of platform threads sized to the connection
+ * pool. The java21 build profile packages a replacement under META-INF/versions/21 of the multi-release jar that
+ * can run every task on its own virtual thread instead. The replacement is also picked up from BOOT-INF/classes of
+ * the spring-boot jar, as long as its manifest keeps Multi-Release: true; this class warns if it is loaded on Java 21
+ * or later in virtual mode, which means the replacement was not found.
+ */
+public class TaskExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskExecutor.class);
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private final ExecutorService executor;
+    private final String mode;
+    private final int maxActiveTasks;
+    private final int maxQueuedTasks;
+
+    /**
+     * @param name              Prefix used for the names of the threads
+     * @param maxActiveTasks    The number of tasks that may run at once, normally the size of the connection pool
+     * @param maxQueuedTasks    The number of tasks that may wait for a free slot before new ones are rejected
+     * @param mode              Either {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}
+     */
+    public TaskExecutor(String name, int maxActiveTasks, int maxQueuedTasks, String mode) {
+        if (MODE_VIRTUAL.equals(mode) && getJavaVersion() >= 21) {
+            LOG.warn("The Java 21 classes of the connector were not loaded, build it with -Pjava21 and keep "
+                    + "Multi-Release: true in the manifest of the jar. Falling back to platform threads");
+        } else if (MODE_VIRTUAL.equals(mode)) {
+            LOG.warn("Virtual threads require the Java 21 build of the connector running on Java 21 or later, "
+                    + "falling back to platform threads");
+        }
+        this.mode = MODE_PLATFORM;
+        this.maxActiveTasks = maxActiveTasks;
+        this.maxQueuedTasks = maxQueuedTasks;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(maxActiveTasks, maxActiveTasks, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(maxQueuedTasks), threadFactory);
+    }
+
+    /**
+     * @return  The major version of the running Java, 8 for 1.8
+     */
+    static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    /**
+     * @return  true if this build of the connector can run tasks on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return false;
+    }
+
+    /**
+     * Runs the task once a slot is free.
+     * @param task  The task to run
+     * @throws RejectedExecutionException   If the queue of waiting tasks is full, or the executor was shut down
+     */
+    public void execute(Runnable task) throws RejectedExecutionException {
+        executor.execute(task);
+    }
+
+    /**
+     * @return  The mode the tasks are actually run in, {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public int getMaxActiveTasks() {
+        return maxActiveTasks;
+    }
+
+    public int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * @return  The number of tasks running at the moment
+     */
+    public int getActiveTasks() {
+        return ((ThreadPoolExecutor) executor).getActiveCount();
+    }
+
+    /**
+     * @return  The number of tasks waiting for a free slot
+     */
+    public int getQueuedTasks() {
+        return ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that are already queued or running are allowed to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,187 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.MDC;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The timing of one query, publish, poll or load page, broken down into phases. Created by a {@link Tracer}, which
+ * only samples some of the requests: the others get {@link #NONE}, whose methods do nothing and never read the clock.
+ *
+ * The trace of the current request is held in a thread local while it is {@link #activate() active}, so that
+ * {@link JDBC} can time its phases without passing the trace around:
+ * <pre>
+ * long start = Trace.current().begin();
+ * ...
+ * Trace.current().end(Trace.EXECUTE, start);
+ * </pre>
+ * A phase that is timed more than once (such as fetching each row) adds up.
+ */
+public class Trace {
+
+    public static final String CHECKOUT = "checkout";
+    public static final String EXECUTE = "execute";
+    public static final String FETCH = "fetch";
+    public static final String MAP = "map";
+    public static final String SEND = "send";
+
+    // MDC key holding the trace ID while a sampled trace is active
+    public static final String MDC_TRACE_ID = "traceId";
+
+    /**
+     * The trace of requests that are not sampled.
+     */
+    public static final Trace NONE = new Trace(null, null, null);
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final Tracer tracer;
+    private final String id;
+    private final String kind;
+    private final long startMillis;
+    private final long startNanos;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long durationNanos = -1;
+
+    Trace(Tracer tracer, String id, String kind) {
+        this.tracer = tracer;
+        this.id = id;
+        this.kind = kind;
+        this.startMillis = id == null ? 0 : System.currentTimeMillis();
+        this.startNanos = id == null ? 0 : System.nanoTime();
+    }
+
+    static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @return  The trace active on this thread, or {@link #NONE}
+     */
+    public static Trace current() {
+        Trace trace = CURRENT.get();
+        return trace == null ? NONE : trace;
+    }
+
+    public boolean isSampled() {
+        return id != null;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * Makes this the current trace of the thread until the scope is closed, and puts its ID in the MDC so that every
+     * log message of the request carries it.
+     * @return  The scope, restoring the previous trace when closed
+     */
+    public Scope activate() {
+        Trace previous = CURRENT.get();
+        CURRENT.set(this);
+        if (isSampled()) {
+            MDC.put(MDC_TRACE_ID, id);
+        }
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            if (isSampled()) {
+                if (previous != null && previous.isSampled()) {
+                    MDC.put(MDC_TRACE_ID, previous.id);
+                } else {
+                    MDC.remove(MDC_TRACE_ID);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return  The start of a phase, to be passed to {@link #end(String, long)}
+     */
+    public long begin() {
+        return id == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds the time since begin to the phase.
+     * @param phase The phase
+     * @param begin The value returned by {@link #begin()}
+     */
+    public void end(String phase, long begin) {
+        if (id != null) {
+            long elapsed = System.nanoTime() - begin;
+            synchronized (phases) {
+                phases.merge(phase, elapsed, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Ends the trace, which the tracer records if it was slow. Only the first call counts.
+     */
+    public void finish() {
+        if (id == null) {
+            return;
+        }
+        synchronized (phases) {
+            if (durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        tracer.finished(this);
+    }
+
+    public long getDurationMillis() {
+        return durationNanos / 1000000;
+    }
+
+    /**
+     * @return  The trace as sent by the traces query control, with the phases in milliseconds
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("traceId", id);
+        map.put("kind", kind);
+        map.put("start", startMillis);
+        map.put("durationMs", durationNanos / 1e6);
+        Map<String, Object> phaseMillis = new LinkedHashMap<>();
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                phaseMillis.put(phase.getKey(), phase.getValue() / 1e6);
+            }
+        }
+        map.put("phases", phaseMillis);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(kind).append(' ').append(id).append(" took ")
+                .append(String.format("%.3f", durationNanos / 1e6)).append(" ms");
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                text.append(", ").append(phase.getKey()).append('=')
+                        .append(String.format("%.3f", phase.getValue() / 1e6));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Restores the previous trace of the thread when closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,105 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples the queries, publishes, polls and load pages of the source for tracing (the traceSampleRate option of the
+ * source config), see {@link Trace}. A sampled trace that takes at least traceSlowThreshold milliseconds is logged
+ * with its phases, with its ID, kind and duration in the MDC, and kept in a ring buffer of the last traceBufferSize
+ * slow traces, which the traces query control returns.
+ */
+public class Tracer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Tracer.class);
+
+    public static final long DEFAULT_SLOW_THRESHOLD = 1000;
+    public static final int DEFAULT_BUFFER_SIZE = 100;
+
+    // MDC keys set while a slow trace is logged
+    private static final String MDC_TRACE_KIND = "traceKind";
+    private static final String MDC_TRACE_DURATION = "traceDurationMs";
+
+    private final double sampleRate;
+    private final long slowThreshold;
+    private final Trace[] buffer;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param sampleRate    The fraction of requests traced, from 0 (none) to 1 (all)
+     * @param slowThreshold The duration in milliseconds from which a trace is logged and kept
+     * @param bufferSize    The number of slow traces kept
+     */
+    public Tracer(double sampleRate, long slowThreshold, int bufferSize) {
+        this.sampleRate = sampleRate;
+        this.slowThreshold = Math.max(0, slowThreshold);
+        this.buffer = new Trace[bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Starts the trace of a request, if it is sampled.
+     * @param kind  "query", "publish", "poll" or "load"
+     * @return      The trace, or {@link Trace#NONE}
+     */
+    public Trace start(String kind) {
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return Trace.NONE;
+        }
+        return new Trace(this, Trace.newId(), kind);
+    }
+
+    /**
+     * @return  true if this tracer has the same settings, and can be kept when the source is reconfigured
+     */
+    public boolean hasSettings(double sampleRate, long slowThreshold, int bufferSize) {
+        return this.sampleRate == sampleRate && this.slowThreshold == Math.max(0, slowThreshold)
+                && buffer.length == (bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+    }
+
+    void finished(Trace trace) {
+        if (trace.getDurationMillis() < slowThreshold) {
+            return;
+        }
+        // The trace may finish on a thread with another (or no) active trace, whose ID is put back afterwards
+        String previousId = MDC.get(Trace.MDC_TRACE_ID);
+        MDC.put(Trace.MDC_TRACE_ID, trace.getId());
+        MDC.put(MDC_TRACE_KIND, trace.getKind());
+        MDC.put(MDC_TRACE_DURATION, Long.toString(trace.getDurationMillis()));
+        try {
+            LOG.warn("Slow {}", trace);
+        } finally {
+            if (previousId != null) {
+                MDC.put(Trace.MDC_TRACE_ID, previousId);
+            } else {
+                MDC.remove(Trace.MDC_TRACE_ID);
+            }
+            MDC.remove(MDC_TRACE_KIND);
+            MDC.remove(MDC_TRACE_DURATION);
+        }
+        synchronized (buffer) {
+            buffer[next] = trace;
+            next = (next + 1) % buffer.length;
+            size = Math.min(size + 1, buffer.length);
+        }
+    }
+
+    /**
+     * @return  The slow traces kept, the most recent first
+     */
+    public List<Map<String, Object>> dump() {
+        List<Map<String, Object>> traces = new ArrayList<>();
+        synchronized (buffer) {
+            for (int i = 1; i <= size; i++) {
+                traces.add(buffer[(next - i + buffer.length) % buffer.length].toMap());
+            }
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,42 @@
+package io.vantiq.ext.jdbc;
+
+/**
+ * The classes of work the {@link Bulkheads} keep apart. The class of the work running on a thread is held in a thread
+ * local, so that the connections it borrows count against the quota of its class.
+ */
+public enum Workload {
+    QUERY, PUBLISH, BACKGROUND;
+
+    private static final ThreadLocal<Workload> CURRENT = new ThreadLocal<>();
+
+    /**
+     * @return  The class of the work running on this thread, or null if it was not started through the connector
+     */
+    public static Workload current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks the work running on this thread as this class until the scope is closed.
+     * @return  The scope, restoring the previous class when closed
+     */
+    public Scope enter() {
+        Workload previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Restores the previous class of the thread when closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
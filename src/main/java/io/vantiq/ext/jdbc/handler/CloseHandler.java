@@ -1,6 +1,7 @@
 package io.vantiq.ext.jdbc.handler;
 
 import io.vantiq.ext.jdbc.JDBCConnector;
+import io.vantiq.ext.jdbc.SendLimiter;
 import io.vantiq.extjsdk.ConnectorConfig;
 import io.vantiq.extjsdk.ExtensionWebSocketClient;
 import io.vantiq.extjsdk.Handler;
@@ -25,9 +26,12 @@ public class CloseHandler extends Handler<ExtensionWebSocketClient> {
 
         LOG.info("Close handler: {}", client);
 
-        if (connector.getScheduledTimer() != null) {
-            connector.getScheduledTimer().cancel();
-            connector.setScheduledTimer(null);
+        connector.cancelScheduledJobs();
+
+        // The server may have closed the connection because we sent too fast, come back slower
+        SendLimiter limiter = connector.getSendLimiter();
+        if (limiter != null) {
+            limiter.disconnected();
         }
 
         boolean sourcesSucceeded = false;
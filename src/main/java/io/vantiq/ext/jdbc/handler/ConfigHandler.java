@@ -1,14 +1,28 @@
 package io.vantiq.ext.jdbc.handler;
 
+import io.vantiq.ext.jdbc.AdminServer;
+import io.vantiq.ext.jdbc.Bulkheads;
 import io.vantiq.ext.jdbc.JDBC;
 import io.vantiq.ext.jdbc.JDBCConnector;
 import io.vantiq.ext.jdbc.JDBCConnectorConfig;
+import io.vantiq.ext.jdbc.LoadCheckpoint;
+import io.vantiq.ext.jdbc.OutboxCapture;
+import io.vantiq.ext.jdbc.PollDiff;
+import io.vantiq.ext.jdbc.QueryCoalescer;
+import io.vantiq.ext.jdbc.SendLimiter;
+import io.vantiq.ext.jdbc.TableLoader;
+import io.vantiq.ext.jdbc.TableMirror;
+import io.vantiq.ext.jdbc.TaskExecutor;
+import io.vantiq.ext.jdbc.Tracer;
+import io.vantiq.ext.jdbc.Workload;
 import io.vantiq.extjsdk.ExtensionServiceMessage;
 import io.vantiq.extjsdk.Handler;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -111,41 +125,145 @@ public class ConfigHandler extends Handler<ExtensionServiceMessage> {
             return false;
         }
 
-        // Initialize JDBC Source with config values
-            if (connector.getJdbc() != null) {
-                connector.getJdbc().close();
-            }
+        // Validate the scheduling settings before touching anything that is already running
+        if (StringUtils.isNotBlank(config.getPollQuery()) && config.getPollTime() <= 0) {
+            LOG.error("Poll time must be greater than 0.");
+            return false;
+        }
+
+        // Only rebuild the connection pool if the database settings changed, the old pool is drained and closed
+        // in the background once the new one is in place
+        JDBCConnectorConfig previous = connector.getConfig();
+        if (connector.getJdbc() == null || !config.sameConnection(previous)) {
             JDBC jdbc = new JDBC(config);
-            connector.setJdbc(jdbc);
+            connector.swapJdbc(jdbc);
+        } else {
+            LOG.info("Database settings unchanged, keeping the existing connection pool");
+            connector.getJdbc().applySettings(config);
+        }
+        if (connector.getTaskExecutor() == null || !config.sameExecution(previous)) {
+            connector.setTaskExecutor(new TaskExecutor("jdbcTask", config.getPoolSize(), config.getMaxQueuedTasks(),
+                    config.getExecutionMode()));
+        }
+        if (!config.hasBulkheads()) {
+            connector.setBulkheads(null);
+        } else if (connector.getBulkheads() == null || !config.sameExecution(previous)) {
+            Map<Workload, Integer> connections = new EnumMap<>(Workload.class);
+            connections.put(Workload.QUERY, config.getQueryConnections());
+            connections.put(Workload.PUBLISH, config.getPublishConnections());
+            connections.put(Workload.BACKGROUND, config.getBackgroundConnections());
+            connector.setBulkheads(new Bulkheads(config.getPoolSize(), connections, config.getMaxQueuedTasks(),
+                    config.getExecutionMode(), config.getQueryLatencyTarget()));
+        }
+        if (!config.isCoalesceQueries()) {
+            connector.setQueryCoalescer(null);
+        } else if (connector.getQueryCoalescer() == null
+                || connector.getQueryCoalescer().getWindow() != config.getCoalesceWindow()) {
+            connector.setQueryCoalescer(new QueryCoalescer(config.getCoalesceWindow()));
+        }
+        // Keep the slow traces collected so far unless the tracing settings changed
+        if (config.getTraceSampleRate() <= 0) {
+            connector.setTracer(null);
+        } else if (connector.getTracer() == null || !connector.getTracer().hasSettings(config.getTraceSampleRate(),
+                config.getTraceSlowThreshold(), config.getTraceBufferSize())) {
+            connector.setTracer(new Tracer(config.getTraceSampleRate(), config.getTraceSlowThreshold(),
+                    config.getTraceBufferSize()));
+        }
+        // A limiter that has backed off after a disconnect is kept, unless its settings changed
+        if (config.getMaxSendRate() <= 0) {
+            connector.setSendLimiter(null);
+        } else if (connector.getSendLimiter() == null
+                || !connector.getSendLimiter().hasSettings(config.getMaxSendRate(), config.getMinSendRate())) {
+            connector.setSendLimiter(new SendLimiter(config.getMaxSendRate(), config.getMinSendRate()));
+        }
+        startAdminServer(config);
+        connector.setConfig(config);
+
+        // Scheduled jobs look up the current JDBC instance on every run, so they only need to be replaced when
+        // the scheduling settings changed (or nothing is running, e.g. after a reconnect)
+        if (!connector.hasScheduledJobs() || !config.sameSchedule(previous)) {
+            scheduleJobs(config);
+        }
+
+        LOG.trace("JDBC source created");
+        return true;
+    }
+    
+    /**
+     * Starts the admin endpoint on the adminPort, or stops it if the port is 0. A running endpoint is kept if the
+     * port did not change. The source works without it, so a port that cannot be bound is only logged.
+     * @param config    The configuration for the JDBC Source
+     */
+    void startAdminServer(JDBCConnectorConfig config) {
+        AdminServer current = connector.getAdminServer();
+        if (config.getAdminPort() <= 0) {
+            connector.setAdminServer(null);
+        } else if (current == null || current.getPort() != config.getAdminPort()) {
+            // Release the previous port first, in case the new one is the same after a restart
+            connector.setAdminServer(null);
+            try {
+                connector.setAdminServer(new AdminServer(connector, config.getAdminPort()));
+            } catch (IOException e) {
+                LOG.error("The admin endpoint could not listen on port {}", config.getAdminPort(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops any polling, loading, outbox or mirror job that is already running and schedules the ones in the given
+     * config.
+     * @param config    The configuration for the JDBC Source
+     */
+    void scheduleJobs(JDBCConnectorConfig config) {
+        connector.cancelScheduledJobs();
 
         // Create polling query if specified
         if (StringUtils.isNotBlank(config.getPollQuery())) {
-            int pollTime = config.getPollTime();
-            if (pollTime <= 0) {
-                LOG.error("Poll time must be greater than 0.");
-                return false;
-            }
             String pollQuery = config.getPollQuery();
-            TimerTask task = new TimerTask() {
-                @Override
-                public void run() {
-                    connector.executePolling(pollQuery);
+            PollDiff diff = null;
+            if (PollDiff.MODE_DIFF.equals(config.getPollMode())) {
+                if (StringUtils.isNotBlank(config.getPollKey())) {
+                    diff = new PollDiff(PollDiff.parseKey(config.getPollKey()));
+                } else {
+                    LOG.error("The pollMode diff requires a pollKey, every row of the pollQuery will be sent.");
                 }
-            };
-            // Create new Timer, and schedule the task according to the pollTime
-            Timer pollTimer = new Timer("executePolling");
-            pollTimer.schedule(task, 0, pollTime);
-            connector.setScheduledTimer(pollTimer);
+            } else if (config.getPollMode() != null && !PollDiff.MODE_FULL.equals(config.getPollMode())) {
+                LOG.warn("Unknown pollMode '{}', every row of the pollQuery will be sent.", config.getPollMode());
+            }
+            PollDiff pollDiff = diff;
+            // Schedule the task according to the pollTime, the admin endpoint may change the rate later on
+            connector.schedulePolling(() -> connector.executePolling(pollQuery, pollDiff), config.getPollTime(), 0);
 
         } else if (StringUtils.isNotBlank(config.getLoadTable())) {
-            Timer pollTimer = connector.executeLoading(config.getLoadTable(), config.getLoadInterval(), config.getLoadSize());
-            connector.setScheduledTimer(pollTimer);
+            String sourceName = connector.getConnectionInfo() == null ? null
+                    : connector.getConnectionInfo().getSourceName();
+            LoadCheckpoint checkpoint = new LoadCheckpoint(config.getLoadCheckpointDirectory(), sourceName,
+                    config.getLoadTable(), config.getLoadKey(), config.getLoadSize());
+            TableLoader loader = new TableLoader(connector, config.getLoadTable(), config.getLoadKey(),
+                    config.getLoadInterval(), config.getLoadSize(), config.getLoadBufferPages(), checkpoint);
+            connector.setTableLoader(loader);
+            loader.start();
+
+        } else if (StringUtils.isNotBlank(config.getOutboxTable())) {
+            OutboxCapture capture = new OutboxCapture(config.getOutboxTable(), config.getOutboxBatchSize(),
+                    config.isOutboxDelete());
+            TimerTask task = connector.dispatchingTask("executeOutbox", () -> connector.executeOutboxCapture(capture));
+            Timer outboxTimer = new Timer("executeOutbox");
+            outboxTimer.schedule(task, 0, config.getOutboxInterval());
+            connector.setScheduledTimer(outboxTimer);
         }
 
-        LOG.trace("JDBC source created");
-        return true;
+        // The mirror runs alongside any of the jobs above
+        if (config.getMirrorTables() != null && !config.getMirrorTables().isEmpty()) {
+            TableMirror mirror = new TableMirror(config.getMirrorTables(), config.getMirrorIndexes());
+            TimerTask task = connector.dispatchingTask("refreshMirror", () -> connector.refreshMirror(mirror));
+            Timer mirrorTimer = new Timer("refreshMirror");
+            mirrorTimer.schedule(task, 0, config.getMirrorInterval() > 0 ? config.getMirrorInterval()
+                    : TableMirror.DEFAULT_INTERVAL);
+            connector.setTableMirror(mirror, mirrorTimer);
+        }
     }
-    
+
     /**
      * Closes the source {@link SFTPConnector} and marks the configuration as completed. The source will
      * be reactivated when the source reconnects, due either to a Reconnect message (likely created by an update to the
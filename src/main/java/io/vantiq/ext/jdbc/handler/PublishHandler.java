@@ -1,6 +1,7 @@
 package io.vantiq.ext.jdbc.handler;
 
 import io.vantiq.ext.jdbc.JDBCConnector;
+import io.vantiq.ext.jdbc.Workload;
 import io.vantiq.extjsdk.ExtensionServiceMessage;
 import io.vantiq.extjsdk.Handler;
 import org.slf4j.Logger;
@@ -24,7 +25,9 @@ public class PublishHandler extends Handler<ExtensionServiceMessage> {
         LOG.debug("Publish with message " + message.toString());
 
         try {
-            connector.executePublish(message);
+            // The deadline is taken on arrival, so that time spent waiting for a free connection counts against it
+            long deadline = connector.getDeadline(message);
+            connector.runTask(Workload.PUBLISH, () -> connector.executePublish(message, deadline));
         } catch (RejectedExecutionException e) {
             LOG.error("The queue of tasks has filled, and as a result the request was unable to be processed.", e);
         }
@@ -1,6 +1,7 @@
 package io.vantiq.ext.jdbc.handler;
 
 import io.vantiq.ext.jdbc.JDBCConnector;
+import io.vantiq.ext.jdbc.Workload;
 import io.vantiq.extjsdk.ExtensionServiceMessage;
 import io.vantiq.extjsdk.Handler;
 import org.slf4j.Logger;
@@ -23,7 +24,16 @@ public class QueryHandler extends Handler<ExtensionServiceMessage> {
         LOG.debug("query");
 
         try {
-            connector.executeQuery(message);
+            // The deadline is taken on arrival, so that time spent waiting for a free connection counts against it
+            long arrival = System.currentTimeMillis();
+            long deadline = connector.getDeadline(message);
+            connector.runTask(Workload.QUERY, () -> {
+                try {
+                    connector.executeQuery(message, deadline);
+                } finally {
+                    connector.recordQueryLatency(System.currentTimeMillis() - arrival);
+                }
+            });
         } catch (RejectedExecutionException e) {
             LOG.error("The queue of tasks has filled, and as a result the request was unable to be processed.", e);
             String replyAddress = ExtensionServiceMessage.extractReplyAddress(message);
@@ -26,10 +26,7 @@ public class ReconnectHandler extends Handler<ExtensionServiceMessage> {
 
         LOG.trace("Reconnect message received. Reinitializing configuration");
 
-        if (connector.getScheduledTimer() != null) {
-            connector.getScheduledTimer().cancel();
-            connector.setScheduledTimer(null);
-        }
+        connector.cancelScheduledJobs();
 
         CompletableFuture<Boolean> success = connector.getVantiqClient().connectToSource();
 
@@ -0,0 +1,155 @@
+package io.vantiq.ext.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs query, publish, poll and load tasks off the websocket thread.
+ *
+ * This is the Java 21 implementation, packaged under META-INF/versions/21 of the multi-release jar. In
+ * {@link #MODE_VIRTUAL} every task gets its own virtual thread and a semaphore with one permit per pooled
+ * connection limits how many of them run at once, so waiting tasks cost a parked virtual thread rather than a
+ * platform thread blocked in the connection pool. {@link #MODE_PLATFORM} behaves like the Java 8 implementation.
+ */
+public class TaskExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskExecutor.class);
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private final ExecutorService executor;
+    private final String mode;
+    private final int maxActiveTasks;
+    private final int maxQueuedTasks;
+
+    // Only used in virtual mode, limits the running tasks and the number of tasks accepted but not yet finished
+    private final Semaphore activePermits;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    /**
+     * @param name              Prefix used for the names of the threads
+     * @param maxActiveTasks    The number of tasks that may run at once, normally the size of the connection pool
+     * @param maxQueuedTasks    The number of tasks that may wait for a free slot before new ones are rejected
+     * @param mode              Either {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}
+     */
+    public TaskExecutor(String name, int maxActiveTasks, int maxQueuedTasks, String mode) {
+        this.maxActiveTasks = maxActiveTasks;
+        this.maxQueuedTasks = maxQueuedTasks;
+
+        if (MODE_VIRTUAL.equals(mode)) {
+            this.mode = MODE_VIRTUAL;
+            this.activePermits = new Semaphore(maxActiveTasks, true);
+            ThreadFactory threadFactory = Thread.ofVirtual().name(name + "-", 1).factory();
+            executor = Executors.newThreadPerTaskExecutor(threadFactory);
+            LOG.info("Running {} tasks on virtual threads, at most {} at once", name, maxActiveTasks);
+        } else {
+            this.mode = MODE_PLATFORM;
+            this.activePermits = null;
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = r -> {
+                Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = new ThreadPoolExecutor(maxActiveTasks, maxActiveTasks, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(maxQueuedTasks), threadFactory);
+        }
+    }
+
+    /**
+     * @return  true if this build of the connector can run tasks on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return true;
+    }
+
+    /**
+     * Runs the task once a slot is free.
+     * @param task  The task to run
+     * @throws RejectedExecutionException   If the queue of waiting tasks is full, or the executor was shut down
+     */
+    public void execute(Runnable task) throws RejectedExecutionException {
+        if (activePermits == null) {
+            executor.execute(task);
+            return;
+        }
+
+        if (pendingTasks.incrementAndGet() > maxActiveTasks + maxQueuedTasks) {
+            pendingTasks.decrementAndGet();
+            throw new RejectedExecutionException("Too many tasks waiting for a connection");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    activePermits.acquire();
+                } catch (InterruptedException e) {
+                    pendingTasks.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    activePermits.release();
+                    pendingTasks.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return  The mode the tasks are actually run in, {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public int getMaxActiveTasks() {
+        return maxActiveTasks;
+    }
+
+    public int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * @return  The number of tasks running at the moment
+     */
+    public int getActiveTasks() {
+        if (activePermits == null) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return maxActiveTasks - activePermits.availablePermits();
+    }
+
+    /**
+     * @return  The number of tasks waiting for a free slot
+     */
+    public int getQueuedTasks() {
+        if (activePermits == null) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return Math.max(0, pendingTasks.get() - getActiveTasks());
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that are already queued or running are allowed to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
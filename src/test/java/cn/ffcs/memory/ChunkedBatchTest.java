@@ -0,0 +1,174 @@
+package cn.ffcs.memory;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedBatchTest {
+
+    // Values 1 and 5 are inserted twice, the duplicates at indexes 4 and 8 fail
+    private static final int[] VALUES = {0, 1, 2, 3, 1, 5, 6, 7, 5, 9};
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:chunkedBatchTest;DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        conn = ds.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t(id INT PRIMARY KEY)");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.setAutoCommit(true);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE t");
+        }
+        conn.close();
+    }
+
+    @Test
+    public void testAutoCommitKeepsGoodStatements() throws Exception {
+        assertKeepsGoodStatements(new ChunkedBatch(3, false));
+    }
+
+    @Test
+    public void testCommitPerChunkRetriesGoodStatements() throws Exception {
+        assertKeepsGoodStatements(new ChunkedBatch(3, true));
+        assertTrue(conn.getAutoCommit());
+    }
+
+    @Test
+    public void testTransactionFailsWhole() throws Exception {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            new ChunkedBatch(3, false).execute(conn, stmt, VALUES.length, index -> insert(stmt, index));
+            fail("The batch should have failed");
+        } catch (BatchUpdateException e) {
+            conn.rollback();
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void testDriverStoppingAtFailure() throws Exception {
+        Set<Integer> table = new HashSet<>();
+        Statement stmt = fakeStatement(table, false);
+        ChunkedBatch.BatchResult result = new ChunkedBatch(4, false).execute(conn, stmt, VALUES.length,
+                index -> insert(stmt, index));
+
+        assertEquals(Arrays.asList(4, 8), result.getFailedIndexes());
+        assertEquals(8, table.size());
+    }
+
+    @Test
+    public void testRewrittenBatchIsRetriedOneByOne() throws Exception {
+        Set<Integer> table = new HashSet<>();
+        Statement stmt = fakeStatement(table, true);
+        ChunkedBatch.BatchResult result = new ChunkedBatch(4, false).execute(conn, stmt, VALUES.length,
+                index -> insert(stmt, index));
+
+        assertEquals(Arrays.asList(4, 8), result.getFailedIndexes());
+        assertEquals(8, table.size());
+        assertEquals(Statement.EXECUTE_FAILED, result.getUpdateCounts()[4]);
+        assertEquals(1, result.getUpdateCounts()[5]);
+    }
+
+    private void assertKeepsGoodStatements(ChunkedBatch batch) throws Exception {
+        ChunkedBatch.BatchResult result;
+        try (Statement stmt = conn.createStatement()) {
+            result = batch.execute(conn, stmt, VALUES.length, index -> insert(stmt, index));
+        }
+
+        assertEquals(Arrays.asList(4, 8), result.getFailedIndexes());
+        assertEquals(2, result.getFailureMessages().size());
+        int[] counts = result.getUpdateCounts();
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("statement " + i, i == 4 || i == 8 ? Statement.EXECUTE_FAILED : 1, counts[i]);
+        }
+        assertEquals(8, count());
+    }
+
+    private static void insert(Statement stmt, int index) throws SQLException {
+        stmt.addBatch("INSERT INTO t VALUES (" + VALUES[index] + ")");
+    }
+
+    private int count() throws Exception {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * A statement inserting into the given set like a driver that either stops at the first failing statement, or
+     * rewrites the batch into one multi-row insert that fails as a whole.
+     */
+    private static Statement fakeStatement(Set<Integer> table, boolean rewritten) {
+        List<Integer> batch = new ArrayList<>();
+        return (Statement) Proxy.newProxyInstance(ChunkedBatchTest.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "addBatch":
+                            String sql = (String) args[0];
+                            batch.add(Integer.valueOf(sql.substring(sql.indexOf('(') + 1, sql.indexOf(')'))));
+                            return null;
+                        case "clearBatch":
+                            batch.clear();
+                            return null;
+                        case "executeBatch":
+                            List<Integer> values = new ArrayList<>(batch);
+                            batch.clear();
+                            return executeBatch(table, values, rewritten);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static int[] executeBatch(Set<Integer> table, List<Integer> values, boolean rewritten)
+            throws BatchUpdateException {
+        if (rewritten) {
+            Set<Integer> distinct = new HashSet<>(values);
+            if (distinct.size() < values.size() || distinct.stream().anyMatch(table::contains)) {
+                int[] failed = new int[values.size()];
+                Arrays.fill(failed, Statement.EXECUTE_FAILED);
+                throw new BatchUpdateException("duplicate key", failed);
+            }
+            table.addAll(values);
+        } else {
+            for (int i = 0; i < values.size(); i++) {
+                if (!table.add(values.get(i))) {
+                    int[] counts = new int[i];
+                    Arrays.fill(counts, 1);
+                    throw new BatchUpdateException("duplicate key", counts);
+                }
+            }
+        }
+        int[] counts = new int[values.size()];
+        Arrays.fill(counts, 1);
+        return counts;
+    }
+}
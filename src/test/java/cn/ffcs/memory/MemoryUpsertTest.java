@@ -0,0 +1,81 @@
+package cn.ffcs.memory;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MemoryUpsertTest {
+
+    private Memory memory;
+
+    @Before
+    public void setUp() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:memoryUpsertTest;DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        memory = new Memory(ds);
+        memory.update("CREATE TABLE t(id INT PRIMARY KEY, name VARCHAR(5), v INT)");
+        memory.update("INSERT INTO t VALUES (1, 'one', 10)");
+    }
+
+    @After
+    public void tearDown() {
+        memory.update("DROP TABLE t");
+    }
+
+    @Test
+    public void testUpsertKeepsMissingColumns() {
+        ChunkedBatch.BatchResult result = memory.upsert("t", Collections.singletonList("id"),
+                Arrays.asList(row(1, "uno"), row(2, "two")));
+
+        assertEquals(0, result.getFailedIndexes().size());
+        assertEquals("uno", name(1));
+        assertEquals(Integer.valueOf(10),
+                memory.query("SELECT v FROM t WHERE id = 1", new ColumnHandler<>(Integer.class)));
+        assertEquals("two", name(2));
+    }
+
+    @Test
+    public void testFailedRowKeepsOtherRows() {
+        assertFailedRowKeepsOtherRows();
+    }
+
+    @Test
+    public void testFailedRowKeepsOtherRowsPerChunk() {
+        memory.setChunkedBatch(new ChunkedBatch(2, true));
+        assertFailedRowKeepsOtherRows();
+    }
+
+    private void assertFailedRowKeepsOtherRows() {
+        List<Map<String, Object>> rows = Arrays.asList(row(1, "uno"), row(2, "too long"), row(3, "three"));
+        ChunkedBatch.BatchResult result = memory.upsert("t", Collections.singletonList("id"), rows);
+
+        assertEquals(Collections.singletonList(1), result.getFailedIndexes());
+        assertEquals(Statement.EXECUTE_FAILED, result.getUpdateCounts()[1]);
+        assertEquals("uno", name(1));
+        assertNull(name(2));
+        assertEquals("three", name(3));
+    }
+
+    private String name(int id) {
+        return memory.query("SELECT name FROM t WHERE id = " + id, new ColumnHandler<>(String.class));
+    }
+
+    private static Map<String, Object> row(int id, String name) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("name", name);
+        return row;
+    }
+}
@@ -0,0 +1,109 @@
+package cn.ffcs.memory;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataRegistryTest {
+
+    private JdbcDataSource ds;
+    private Memory memory;
+    private MetadataRegistry registry;
+
+    @Before
+    public void setUp() {
+        ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:metadataRegistryTest;DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        memory = new Memory(ds);
+        memory.update("CREATE TABLE item(site VARCHAR(10), id INT, created TIMESTAMP, price DECIMAL(8,2), "
+                + "active BOOLEAN, PRIMARY KEY (site, id))");
+        memory.update("CREATE INDEX item_created ON item(created)");
+        registry = MetadataRegistry.forDataSource(ds);
+    }
+
+    @After
+    public void tearDown() {
+        memory.update("DROP TABLE IF EXISTS item");
+        memory.update("DROP TABLE IF EXISTS later");
+        MetadataRegistry.remove(ds);
+    }
+
+    @Test
+    public void testSharedPerDataSource() {
+        assertSame(registry, MetadataRegistry.forDataSource(ds));
+        assertTrue(registry.getDialect() instanceof H2Dialect);
+
+        MetadataRegistry.remove(ds);
+        assertNotSame(registry, MetadataRegistry.forDataSource(ds));
+    }
+
+    @Test
+    public void testTableMetadata() {
+        TableMetadata table = registry.getTable("item");
+
+        assertTrue(table.exists());
+        assertEquals("ITEM", table.getName());
+        assertEquals(5, table.getColumns().size());
+        // In the order of the primary key, not of the column names
+        assertEquals(Arrays.asList("SITE", "ID"), table.getPrimaryKey());
+        assertTrue(table.isIndexed("site"));
+        assertTrue(table.isIndexed("CREATED"));
+        assertFalse(table.isIndexed("id"));
+        assertFalse(table.getColumn("id").isNullable());
+        assertTrue(table.getColumn("price").isNullable());
+        assertNull(table.getColumn("nope"));
+        assertSame(table, registry.getTable("ITEM"));
+    }
+
+    @Test
+    public void testMissingTableIsNotCached() {
+        assertFalse(registry.getTable("later").exists());
+        memory.update("CREATE TABLE later(id INT)");
+        assertTrue(registry.getTable("later").exists());
+    }
+
+    @Test
+    public void testInvalidate() {
+        TableMetadata table = registry.getTable("item");
+        memory.update("ALTER TABLE item ADD COLUMN note VARCHAR(20)");
+        assertSame(table, registry.getTable("item"));
+
+        registry.invalidate("Item");
+        assertEquals(6, registry.getTable("item").getColumns().size());
+    }
+
+    @Test
+    public void testCoerce() {
+        TableMetadata table = registry.getTable("item");
+
+        assertEquals(Timestamp.valueOf("2024-01-02 03:04:05.678"), table.coerce("created", "2024-01-02T03:04:05.678"));
+        assertEquals(new BigDecimal("12.50"), table.coerce("price", "12.50"));
+        assertEquals(Boolean.TRUE, table.coerce("active", "TRUE"));
+        // Left for the database to report
+        assertEquals("soon", table.coerce("created", "soon"));
+        assertEquals("x", table.coerce("nope", "x"));
+        assertEquals(3, table.coerce("id", 3));
+    }
+
+    @Test
+    public void testStatementKinds() {
+        assertTrue(MetadataRegistry.isDDL("  ALTER TABLE item ADD x INT"));
+        assertFalse(MetadataRegistry.isDDL("insert into item values (1)"));
+        assertTrue(MetadataRegistry.isSchemaError(new SQLException("Column not found", "42S22")));
+        assertFalse(MetadataRegistry.isSchemaError(new SQLException("Duplicate key", "23505")));
+    }
+}
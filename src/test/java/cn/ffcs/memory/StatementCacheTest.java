@@ -0,0 +1,63 @@
+package cn.ffcs.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+
+    private Connection physical;
+    private StatementCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        physical = DriverManager.getConnection("jdbc:h2:mem:statementCache", "sa", "");
+        cache = new StatementCache(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        physical.close();
+    }
+
+    @Test
+    public void testReusesStatement() throws Exception {
+        Connection conn = cache.wrap(physical);
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT ?")) {
+            stmt.setInt(1, 1);
+            stmt.executeQuery().close();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT ?")) {
+            stmt.setInt(1, 2);
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+            }
+        }
+        assertEquals(1L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    public void testReleaseResetsStatementSettings() throws Exception {
+        Connection conn = cache.wrap(physical);
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1")) {
+            stmt.setQueryTimeout(5);
+            stmt.setFetchSize(100);
+            stmt.setMaxRows(1);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1")) {
+            assertEquals(1L, cache.getStats().get("hits"));
+            assertEquals(0, stmt.getQueryTimeout());
+            assertEquals(0, stmt.getMaxRows());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdminServerTest {
+
+    private AdminServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new AdminServer(new JDBCConnector(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        assertEquals(200, call("GET", "/traces", false));
+        assertEquals(404, call("GET", "/nope", false));
+    }
+
+    @Test
+    public void testPostNeedsHeader() throws Exception {
+        assertEquals(403, call("POST", "/caches/flush", false));
+        assertEquals(200, call("POST", "/caches/flush", true));
+        assertEquals(405, call("GET", "/caches/flush", true));
+    }
+
+    @Test
+    public void testForeignHostIsRefused() throws Exception {
+        assertTrue(rawGet("localhost:" + server.getPort()).startsWith("HTTP/1.1 200"));
+        assertTrue(rawGet("evil.example.com:" + server.getPort()).startsWith("HTTP/1.1 403"));
+        assertTrue(rawGet("localhost:1").startsWith("HTTP/1.1 403"));
+        assertTrue(rawGet("localhost").startsWith("HTTP/1.1 403"));
+    }
+
+    private int call(String method, String path, boolean header) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+                .openConnection();
+        conn.setRequestMethod(method);
+        if (header) {
+            conn.setRequestProperty(AdminServer.REQUEST_HEADER, "1");
+        }
+        try {
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Sends a GET /traces with the given Host header, which HttpURLConnection does not allow to set.
+     */
+    private String rawGet(String host) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /traces HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            // Reads the whole response, the server closes the connection after it
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                response.write(buf, 0, n);
+            }
+            return new String(response.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadsTest {
+
+    private Bulkheads bulkheads;
+
+    @After
+    public void tearDown() {
+        if (bulkheads != null) {
+            bulkheads.shutdown();
+        }
+    }
+
+    @Test
+    public void testConnectionQuota() throws Exception {
+        Map<Workload, Integer> connections = new EnumMap<>(Workload.class);
+        connections.put(Workload.QUERY, 2);
+        bulkheads = new Bulkheads(4, connections, 10, TaskExecutor.MODE_PLATFORM, 0);
+
+        assertTrue(bulkheads.acquireConnection(Workload.QUERY, 0));
+        assertTrue(bulkheads.acquireConnection(Workload.QUERY, 0));
+        assertFalse(bulkheads.acquireConnection(Workload.QUERY, 50));
+        assertEquals(2, stats(Workload.QUERY).get("connections"));
+
+        bulkheads.releaseConnection(Workload.QUERY);
+        assertTrue(bulkheads.acquireConnection(Workload.QUERY, 0));
+
+        // A class without a quota is not limited
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bulkheads.acquireConnection(Workload.PUBLISH, 0));
+        }
+        assertNull(stats(Workload.PUBLISH).get("connections"));
+    }
+
+    @Test
+    public void testTaskRunsAsItsWorkload() throws Exception {
+        bulkheads = new Bulkheads(2, Collections.emptyMap(), 10, TaskExecutor.MODE_PLATFORM, 0);
+        CompletableFuture<Workload> current = new CompletableFuture<>();
+        bulkheads.execute(Workload.PUBLISH, () -> current.complete(Workload.current()));
+
+        assertEquals(Workload.PUBLISH, current.get(5, TimeUnit.SECONDS));
+        assertNull(Workload.current());
+    }
+
+    @Test
+    public void testBackgroundGivesWayToQueries() throws Exception {
+        bulkheads = new Bulkheads(8, Collections.emptyMap(), 10, TaskExecutor.MODE_PLATFORM, 100);
+        assertEquals(8, stats(Workload.BACKGROUND).get("connectionLimit"));
+
+        for (int i = 0; i < 20; i++) {
+            bulkheads.recordQueryLatency(500);
+        }
+        // Adjusted at most once per second
+        assertEquals(8, stats(Workload.BACKGROUND).get("connectionLimit"));
+        Thread.sleep(1100);
+        bulkheads.recordQueryLatency(500);
+        assertEquals(4, stats(Workload.BACKGROUND).get("connectionLimit"));
+
+        // Fast queries push the slow ones out of the window
+        for (int i = 0; i < 200; i++) {
+            bulkheads.recordQueryLatency(10);
+        }
+        Thread.sleep(1100);
+        bulkheads.recordQueryLatency(10);
+        assertEquals(5, stats(Workload.BACKGROUND).get("connectionLimit"));
+    }
+
+    private Map<String, Object> stats(Workload workload) {
+        return (Map<String, Object>) bulkheads.getStats().get(workload.name().toLowerCase());
+    }
+}
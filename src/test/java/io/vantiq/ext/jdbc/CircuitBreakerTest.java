@@ -0,0 +1,130 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_TIME = 200;
+
+    @Test
+    public void testIsFailure() {
+        assertTrue(CircuitBreaker.isFailure(new SQLTransientConnectionException("pool timeout")));
+        assertTrue(CircuitBreaker.isFailure(new SQLException("connection refused", "08001")));
+        assertTrue(CircuitBreaker.isFailure(new VantiqSQLException("wrapped", new SQLTimeoutException("slow"))));
+        assertFalse(CircuitBreaker.isFailure(new SQLSyntaxErrorException("bad SQL", "42000")));
+        assertFalse(CircuitBreaker.isFailure(new CircuitOpenException("open")));
+
+        assertTrue(CircuitBreaker.isCircuitOpen(new VantiqSQLException("wrapped", new CircuitOpenException("open"))));
+        assertFalse(CircuitBreaker.isCircuitOpen(new SQLTransientConnectionException("pool timeout")));
+    }
+
+    @Test
+    public void testOpensAtFailureRate() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, OPEN_TIME);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(breaker.acquire());
+        }
+        breaker.failed(failure());
+        // Errors that do not show the database is down are not counted
+        breaker.failed(new SQLSyntaxErrorException("bad SQL"));
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+
+        breaker.failed(failure());
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertTrue(breaker.isRejecting());
+        assertRefused(breaker);
+        assertEquals(1L, breaker.getStats().get("opens"));
+        assertEquals(1L, breaker.getStats().get("rejected"));
+    }
+
+    @Test
+    public void testNeedsMinCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, OPEN_TIME);
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire();
+            breaker.failed(failure());
+        }
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertEquals(3, breaker.getStats().get("failures"));
+    }
+
+    @Test
+    public void testFailureCountedOnce() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 2, OPEN_TIME);
+        breaker.acquire();
+        breaker.acquire();
+        Exception e = failure();
+        // Rethrown to the caller, which records it again
+        breaker.failed(e);
+        breaker.failed(e);
+
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getStats().get("failures"));
+    }
+
+    @Test
+    public void testTrialClosesBreaker() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_TIME + 20);
+        assertFalse(breaker.isRejecting());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.acquire());
+        }
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.isRejecting());
+        assertRefused(breaker);
+
+        // A trial that did not count as a failure lets another one through
+        breaker.released(true);
+        assertTrue(breaker.acquire());
+
+        breaker.succeeded(true);
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getStats().get("calls"));
+        assertFalse(breaker.acquire());
+    }
+
+    @Test
+    public void testFailedTrialOpensBreaker() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_TIME + 20);
+        assertTrue(breaker.acquire());
+
+        breaker.failed(failure());
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertEquals(2L, breaker.getStats().get("opens"));
+        assertRefused(breaker);
+    }
+
+    private static CircuitBreaker open() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, OPEN_TIME);
+        breaker.acquire();
+        breaker.failed(failure());
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void assertRefused(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail("The request should have been refused");
+        } catch (CircuitOpenException e) {
+            assertTrue(CircuitBreaker.isCircuitOpen(e));
+        }
+    }
+
+    private static Exception failure() {
+        return new SQLTransientConnectionException("Connection is not available, request timed out");
+    }
+}
@@ -0,0 +1,76 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarBundleTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private JDBC jdbc;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:columnarBundleTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE reading(id BIGINT, v DOUBLE, at TIMESTAMP, name VARCHAR(10))");
+        jdbc.processPublish("INSERT INTO reading VALUES (1, 0.5, '2024-01-02 03:04:05.678', 'a'), "
+                + "(2, NULL, NULL, NULL), (3, 1.5, '2024-01-02 03:04:06', 'c')");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP TABLE reading");
+        jdbc.close();
+    }
+
+    @Test
+    public void testColumnsAndNulls() throws Exception {
+        List<String> bundles = new ArrayList<>();
+        jdbc.processColumnarQuery("SELECT * FROM reading ORDER BY id", 0, 0,
+                (bundle, last) -> bundles.add(mapper.writeValueAsString(bundle.toResponse())), null);
+
+        long at = Timestamp.valueOf("2024-01-02 03:04:05.678").getTime();
+        assertEquals(1, bundles.size());
+        assertEquals("{\"columns\":[\"ID\",\"V\",\"AT\",\"NAME\"],\"rowCount\":3,\"data\":{\"ID\":[1,2,3],"
+                + "\"V\":[0.5,null,1.5],\"AT\":[" + at + ",null," + (at + 322) + "],\"NAME\":[\"a\",null,\"c\"]}}",
+                bundles.get(0));
+    }
+
+    @Test
+    public void testBundles() throws Exception {
+        List<Integer> sizes = new ArrayList<>();
+        List<Boolean> lasts = new ArrayList<>();
+        jdbc.processColumnarQuery("SELECT id FROM reading", 0, 2, (bundle, last) -> {
+            sizes.add(bundle.size());
+            lasts.add(last);
+        }, null);
+
+        assertEquals("[2, 1]", sizes.toString());
+        assertFalse(lasts.get(0));
+        assertTrue(lasts.get(1));
+    }
+
+    @Test
+    public void testEmptyResultSendsNoBundle() throws Exception {
+        boolean[] called = {false};
+        jdbc.processColumnarQuery("SELECT * FROM reading WHERE id > 10", 0, 2, (bundle, last) -> called[0] = true,
+                null);
+        assertFalse(called[0]);
+    }
+}
@@ -0,0 +1,99 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactRowTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final String[] COLUMNS = {"ID", "X", "NAME", "X", "X"};
+
+    @Test
+    public void testSameJsonAsHashMapRows() throws Exception {
+        Object[][] rows = {
+                {1, "a", "n", "b", "c"},
+                {2, "a", null, null, null},
+                {3, null, "n", "b", null},
+                {4, "a", "n", null, "c"},
+                {5, null, null, null, null},
+                {null, "a", null, "b", null},
+        };
+        RowSchema schema = new RowSchema(COLUMNS);
+        for (Object[] values : rows) {
+            Map<String, Object> expected = hashMapRow(values);
+            CompactRow row = new CompactRow(schema, values.clone());
+
+            assertEquals(mapper.readTree(mapper.writeValueAsString(expected)),
+                    mapper.readTree(mapper.writeValueAsString(row)));
+            assertEquals(expected, row);
+            assertEquals(expected.size(), row.size());
+            for (String column : COLUMNS) {
+                assertEquals(expected.get(column), row.get(column));
+                assertEquals(expected.containsKey(column), row.containsKey(column));
+            }
+        }
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        CompactRow row = new CompactRow(new RowSchema(COLUMNS), new Object[]{1, "a", null, "b", null});
+
+        assertEquals("b", row.put("X", "z"));
+        assertEquals("z", row.get("X"));
+        assertEquals(2, row.size());
+
+        assertEquals("z", row.remove("X"));
+        assertFalse(row.containsKey("X"));
+        assertNull(row.get("X"));
+
+        row.put("_op", "insert");
+        assertTrue(row.containsKey("_op"));
+        assertEquals(2, row.size());
+    }
+
+    @Test
+    public void testDuplicateColumnsOfQuery() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:compactRowTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        JDBC jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        try {
+            jdbc.processPublish("CREATE TABLE a(id INT, x VARCHAR(5))");
+            jdbc.processPublish("CREATE TABLE b(id INT, x VARCHAR(5))");
+            jdbc.processPublish("INSERT INTO a VALUES (1, 'a1'), (2, 'a2')");
+            jdbc.processPublish("INSERT INTO b VALUES (1, NULL), (2, 'b2')");
+
+            Map[] rows = jdbc.processQuery("SELECT a.x, b.x FROM a JOIN b ON a.id = b.id ORDER BY a.id", 0);
+            // The earlier column is kept when the later one is null
+            assertEquals("a1", rows[0].get("X"));
+            assertEquals("b2", rows[1].get("X"));
+        } finally {
+            jdbc.processPublish("DROP TABLE a");
+            jdbc.processPublish("DROP TABLE b");
+            jdbc.close();
+        }
+    }
+
+    /**
+     * Builds a row the way it was built before CompactRow, leaving out null values.
+     */
+    private static Map<String, Object> hashMapRow(Object[] values) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                row.put(COLUMNS[i], values[i]);
+            }
+        }
+        return row;
+    }
+}
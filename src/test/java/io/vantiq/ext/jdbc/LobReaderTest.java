@@ -0,0 +1,141 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LobReaderTest {
+
+    // Larger than the default stream threshold of Memory, so that the values are bound as streams
+    private static final int LENGTH = 5000;
+
+    private JDBC jdbc;
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP TABLE doc");
+        jdbc.close();
+    }
+
+    @Test
+    public void testSmallValuesAreInline() throws Exception {
+        open(LobReader.MODE_TRUNCATE, 10);
+        insert(1, "short", Collections.singletonMap("$base64", "AAE="));
+
+        Map row = jdbc.processQuery("SELECT * FROM doc", 0)[0];
+        assertEquals("short", row.get("BODY"));
+        assertArrayEquals(new byte[]{0, 1}, (byte[]) row.get("DATA"));
+    }
+
+    @Test
+    public void testLargeValuesAreTruncated() throws Exception {
+        open(LobReader.MODE_TRUNCATE, 10);
+        insert(1, text(), bytes());
+
+        Map row = jdbc.processQuery("SELECT * FROM doc", 0)[0];
+        Map body = (Map) row.get("BODY");
+        assertEquals("clob", body.get("$lob"));
+        assertEquals((long) LENGTH, body.get("length"));
+        assertEquals(true, body.get("truncated"));
+        assertEquals(text().substring(0, 10), body.get("value"));
+        Map data = (Map) row.get("DATA");
+        assertEquals("blob", data.get("$lob"));
+        assertEquals((long) LENGTH, data.get("length"));
+        assertArrayEquals(Arrays.copyOf(bytes(), 10), Base64.getDecoder().decode((String) data.get("value")));
+    }
+
+    @Test
+    public void testLargeValuesAreChunked() throws Exception {
+        open(LobReader.MODE_CHUNK, 1000);
+        insert(1, text(), bytes());
+
+        List<Map<String, Object>> chunks = new ArrayList<>();
+        SpillableResult result = new SpillableResult();
+        jdbc.processQuery("SELECT * FROM doc", 0, result, chunks::add);
+        Map row = result.toArray()[0];
+
+        Map body = (Map) row.get("BODY");
+        Map data = (Map) row.get("DATA");
+        assertEquals(5, body.get("chunks"));
+        assertEquals(5, data.get("chunks"));
+        assertEquals(10, chunks.size());
+
+        StringBuilder text = new StringBuilder();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (Map<String, Object> chunk : chunks) {
+            boolean last = (Integer) chunk.get("seq") == 4;
+            assertEquals(last, chunk.get("last"));
+            if (chunk.get("$lobChunk").equals(body.get("id"))) {
+                text.append(chunk.get("data"));
+            } else {
+                assertEquals(data.get("id"), chunk.get("$lobChunk"));
+                binary.write(Base64.getDecoder().decode((String) chunk.get("data")));
+            }
+        }
+        assertEquals(text(), text.toString());
+        assertArrayEquals(bytes(), binary.toByteArray());
+    }
+
+    @Test
+    public void testLargeBase64Parameter() throws Exception {
+        open(LobReader.MODE_TRUNCATE, 0);
+        insert(1, null, Collections.singletonMap("$base64", Base64.getEncoder().encodeToString(bytes())));
+        // Lengths that are not a multiple of 3 end in padding
+        insert(2, null, Collections.singletonMap("$base64", "AQIDBA=="));
+
+        Map[] rows = jdbc.processQuery("SELECT * FROM doc ORDER BY id", 0);
+        assertArrayEquals(bytes(), (byte[]) rows[0].get("DATA"));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, (byte[]) rows[1].get("DATA"));
+        assertNull(rows[0].get("BODY"));
+    }
+
+    private void open(String lobMode, int lobInlineLimit) throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:lobReaderTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        settings.put("lobMode", lobMode);
+        if (lobInlineLimit > 0) {
+            settings.put("lobInlineLimit", lobInlineLimit);
+        }
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE doc(id INT PRIMARY KEY, body CLOB, data BLOB)");
+    }
+
+    private void insert(int id, String body, Object data) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("body", body);
+        row.put("data", data);
+        jdbc.processInsert("doc", row);
+    }
+
+    private static String text() {
+        StringBuilder text = new StringBuilder(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+
+    private static byte[] bytes() {
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,70 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashIndexTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongHashIndex index = new LongHashIndex();
+        index.put(0, 10, null);
+        index.put(-1, 20, null);
+        index.put(Long.MIN_VALUE, 30, null);
+
+        assertEquals(3, index.size());
+        assertEquals(10, index.get(0, -1));
+        assertEquals(20, index.get(-1, -1));
+        assertEquals(30, index.get(Long.MIN_VALUE, -1));
+        assertEquals(-1, index.get(1, -1));
+        assertFalse(index.containsKey(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPutReplacesEntry() {
+        LongHashIndex index = new LongHashIndex();
+        index.put(7, 1, "a");
+        index.put(7, 2, null);
+
+        assertEquals(1, index.size());
+        assertEquals(2, index.get(7, -1));
+        Object[] attachment = {"unset"};
+        index.forEach((key, value, attached) -> attachment[0] = attached);
+        assertNull(attachment[0]);
+    }
+
+    @Test
+    public void testGrowsAndKeepsEntries() {
+        LongHashIndex index = new LongHashIndex(4);
+        // Keys that differ only in their high bits, and an attachment added half way
+        for (long i = 0; i < 10000; i++) {
+            index.put(i << 40, i, i == 5000 ? "half" : null);
+        }
+
+        assertEquals(10000, index.size());
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(index.containsKey(i << 40));
+            assertEquals(i, index.get(i << 40, -1));
+        }
+        assertFalse(index.containsKey(10000L << 40));
+
+        Map<Long, Object> attachments = new HashMap<>();
+        long[] sum = {0};
+        index.forEach((key, value, attachment) -> {
+            sum[0] += value;
+            if (attachment != null) {
+                attachments.put(key, attachment);
+            }
+        });
+        assertEquals(9999L * 10000 / 2, sum[0]);
+        assertEquals(1, attachments.size());
+        assertEquals("half", attachments.get(5000L << 40));
+    }
+}
@@ -0,0 +1,113 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiQueryTest {
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    private JDBC jdbc;
+
+    /**
+     * Called by the TRACK function of the queries, records how many run at once.
+     */
+    public static int track(int millis) throws InterruptedException {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(millis);
+        } finally {
+            running.decrementAndGet();
+        }
+        return millis;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:multiQueryTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        settings.put("poolSize", 8);
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE ALIAS IF NOT EXISTS TRACK FOR \"" + MultiQueryTest.class.getName() + ".track\"");
+        jdbc.processPublish("CREATE TABLE item(id INT PRIMARY KEY, name VARCHAR(10))");
+        jdbc.processPublish("INSERT INTO item VALUES (1, 'a'), (2, 'b'), (3, 'c')");
+        maxRunning.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP TABLE item");
+        jdbc.close();
+    }
+
+    @Test
+    public void testResponseIsKeyedByName() {
+        Map<String, Object> queries = new LinkedHashMap<>();
+        queries.put("stock", "SELECT * FROM item WHERE id > 1");
+        queries.put("count", "SELECT COUNT(*) AS n FROM item");
+        queries.put("one", "SELECT name FROM item WHERE id = 1");
+
+        Map<String, Object> response = new MultiQuery(jdbc, 4).execute(queries, 0, SpillableResult::new);
+        assertEquals(Arrays.asList("stock", "count", "one"), Arrays.asList(response.keySet().toArray()));
+        assertEquals(2, ((Map[]) response.get("stock")).length);
+        assertEquals(3L, ((Number) ((Map[]) response.get("count"))[0].get("N")).longValue());
+        assertEquals("a", ((Map[]) response.get("one"))[0].get("NAME"));
+    }
+
+    @Test
+    public void testFailedQueryKeepsOthers() {
+        Map<String, Object> queries = new LinkedHashMap<>();
+        queries.put("bad", "SELECT nope FROM item");
+        queries.put("good", "SELECT * FROM item");
+        queries.put("notSql", 42);
+
+        Map<String, Object> response = new MultiQuery(jdbc, 2).execute(queries, 0, SpillableResult::new);
+        assertTrue(error(response, "bad").contains("NOPE"));
+        assertEquals(3, ((Map[]) response.get("good")).length);
+        assertTrue(error(response, "notSql").contains("not a string"));
+    }
+
+    @Test
+    public void testResultOverBudgetIsAnError() {
+        Map<String, Object> queries = new LinkedHashMap<>();
+        queries.put("all", "SELECT * FROM item");
+
+        Map<String, Object> response = new MultiQuery(jdbc, 2).execute(queries, 0,
+                () -> new SpillableResult(1, null));
+        assertTrue(error(response, "all").contains("maxResultMemory"));
+    }
+
+    @Test
+    public void testParallelismIsCapped() {
+        Map<String, Object> queries = new LinkedHashMap<>();
+        for (int i = 0; i < 6; i++) {
+            queries.put("q" + i, "SELECT TRACK(100) AS t");
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, Object> response = new MultiQuery(jdbc, 2).execute(queries, 0, SpillableResult::new);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(6, response.size());
+        assertEquals(2, maxRunning.get());
+        // Three rounds of two queries
+        assertTrue("The queries took " + elapsed + " ms", elapsed >= 300);
+    }
+
+    private static String error(Map<String, Object> response, String name) {
+        return (String) ((Map) response.get(name)).get(MultiQuery.ERROR);
+    }
+}
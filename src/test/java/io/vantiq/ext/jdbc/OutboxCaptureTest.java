@@ -0,0 +1,92 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutboxCaptureTest {
+
+    private JDBC jdbc;
+    private final List<Map<String, Object>> sent = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:outboxCaptureTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE orders(id INT PRIMARY KEY, name VARCHAR(20))");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP ALL OBJECTS");
+        jdbc.close();
+    }
+
+    @Test
+    public void testDrainSendsAndDeletesChanges() throws Exception {
+        OutboxCapture capture = new OutboxCapture("OUTBOX", 2, true);
+        capture.install(jdbc, Collections.singletonList("ORDERS"));
+        jdbc.processPublish("INSERT INTO orders VALUES (1, 'a')");
+        jdbc.processPublish("INSERT INTO orders VALUES (2, 'b')");
+        jdbc.processPublish("UPDATE orders SET name = 'c' WHERE id = 1");
+        jdbc.processPublish("DELETE FROM orders WHERE id = 2");
+
+        assertEquals(4, capture.drain(jdbc, sent::add, () -> true));
+
+        assertEquals(4, sent.size());
+        assertEquals("insert", sent.get(0).get("op"));
+        assertEquals("update", sent.get(2).get("op"));
+        assertEquals("delete", sent.get(3).get("op"));
+        assertEquals("c", ((Map) sent.get(2).get("data")).get("NAME"));
+        assertEquals(0, outboxRows());
+        assertEquals(0, capture.drain(jdbc, sent::add, () -> true));
+    }
+
+    @Test
+    public void testDrainMarksChangesProcessed() throws Exception {
+        OutboxCapture capture = new OutboxCapture("OUTBOX", 2, false);
+        capture.install(jdbc, Collections.singletonList("ORDERS"));
+        jdbc.processPublish("INSERT INTO orders VALUES (1, 'a')");
+
+        assertEquals(1, capture.drain(jdbc, sent::add, () -> true));
+        assertEquals(0, capture.drain(jdbc, sent::add, () -> true));
+
+        assertEquals(1, sent.size());
+        assertEquals(1, outboxRows());
+        assertEquals(1, ((Number) jdbc.processQuery("SELECT processed FROM outbox")[0].get("PROCESSED")).intValue());
+    }
+
+    @Test
+    public void testClosedWebsocketKeepsBatch() throws Exception {
+        OutboxCapture capture = new OutboxCapture("OUTBOX", 10, true);
+        capture.install(jdbc, Collections.singletonList("ORDERS"));
+        jdbc.processPublish("INSERT INTO orders VALUES (1, 'a')");
+        jdbc.processPublish("INSERT INTO orders VALUES (2, 'b')");
+        jdbc.processPublish("INSERT INTO orders VALUES (3, 'c')");
+
+        // The websocket closes after the second notification of the batch
+        assertEquals(0, capture.drain(jdbc, sent::add, () -> sent.size() < 2));
+        assertEquals(2, sent.size());
+        assertEquals(3, outboxRows());
+
+        sent.clear();
+        assertEquals(3, capture.drain(jdbc, sent::add, () -> true));
+        assertEquals(3, sent.size());
+        assertEquals(0, outboxRows());
+    }
+
+    private int outboxRows() throws Exception {
+        return ((Number) jdbc.processQuery("SELECT COUNT(*) AS c FROM outbox")[0].get("C")).intValue();
+    }
+}
@@ -0,0 +1,142 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PollDiffTest {
+
+    private final List<SpillableResult> results = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (SpillableResult result : results) {
+            result.close();
+        }
+    }
+
+    @Test
+    public void testParseKey() {
+        assertEquals(Arrays.asList("a", "b"), PollDiff.parseKey(" a, b ,"));
+    }
+
+    @Test
+    public void testFirstResultIsInserted() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("id"));
+        List<Map<String, Object>> sent = apply(diff, result(false, row(1, "a"), row(2, "b")));
+
+        assertEquals(2, sent.size());
+        assertEquals(PollDiff.OP_INSERT, sent.get(0).get(PollDiff.OP));
+        assertEquals(PollDiff.OP_INSERT, sent.get(1).get(PollDiff.OP));
+        assertEquals(2, diff.size());
+    }
+
+    @Test
+    public void testChangesAreDetected() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("ID"));
+        apply(diff, result(false, row(1, "a"), row(2, "b"), row(3, "c")));
+        assertEquals(0, apply(diff, result(false, row(1, "a"), row(2, "b"), row(3, "c"))).size());
+
+        List<Map<String, Object>> sent = apply(diff, result(false, row(1, "a"), row(2, "changed"), row(4, "d")));
+        assertEquals(3, sent.size());
+        assertEquals(op(PollDiff.OP_UPDATE, "id", 2), opOf(sent.get(0)));
+        assertEquals("changed", sent.get(0).get("name"));
+        assertEquals(op(PollDiff.OP_INSERT, "id", 4), opOf(sent.get(1)));
+        assertEquals(op(PollDiff.OP_DELETE, "id", 3L), sent.get(2));
+    }
+
+    @Test
+    public void testCompositeKeyDelete() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("name,id"));
+        apply(diff, result(false, row(1, "a"), row(1, "b")));
+
+        List<Map<String, Object>> sent = apply(diff, result(false, row(1, "a")));
+        assertEquals(1, sent.size());
+        Map<String, Object> deleted = op(PollDiff.OP_DELETE, "name", "b");
+        deleted.put("id", 1);
+        assertEquals(deleted, sent.get(0));
+    }
+
+    @Test
+    public void testStringKeyDelete() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("name"));
+        apply(diff, result(false, row(1, "a"), row(2, "b")));
+
+        assertEquals(op(PollDiff.OP_DELETE, "name", "a"), apply(diff, result(false, row(2, "b"))).get(0));
+    }
+
+    @Test
+    public void testSpilledResultHashesLikeHeap() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("id"));
+        apply(diff, result(false, typedRow()));
+
+        // Read back from JSON as 2.5, 1 and a base64 string
+        SpillableResult spilled = result(true, typedRow());
+        assertTrue(spilled.isSpilled());
+        assertEquals(0, apply(diff, spilled).size());
+        assertEquals(0, apply(diff, result(false, typedRow())).size());
+    }
+
+    @Test
+    public void testMissingKeyColumn() throws Exception {
+        PollDiff diff = new PollDiff(PollDiff.parseKey("nope"));
+        try {
+            apply(diff, result(false, row(1, "a")));
+            fail("The missing pollKey column should have been reported");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @SafeVarargs
+    private final SpillableResult result(boolean spilled, Map<String, Object>... rows) throws Exception {
+        SpillableResult result = spilled ? new SpillableResult(1, null) : new SpillableResult();
+        results.add(result);
+        for (Map<String, Object> row : rows) {
+            result.add(row);
+        }
+        return result;
+    }
+
+    private static List<Map<String, Object>> apply(PollDiff diff, SpillableResult result) throws Exception {
+        List<Map<String, Object>> sent = new ArrayList<>();
+        diff.apply(result, sent::add);
+        return sent;
+    }
+
+    private static Map<String, Object> row(int id, String name) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("name", name);
+        return row;
+    }
+
+    private static Map<String, Object> typedRow() {
+        Map<String, Object> row = row(1, "a");
+        row.put("price", new BigDecimal("2.50"));
+        row.put("ratio", 1.0);
+        row.put("data", new byte[]{1, 2, 3});
+        return row;
+    }
+
+    private static Map<String, Object> op(String op, String column, Object value) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(PollDiff.OP, op);
+        row.put(column, value);
+        return row;
+    }
+
+    private static Map<String, Object> opOf(Map<String, Object> row) {
+        return op((String) row.get(PollDiff.OP), "id", row.get("id"));
+    }
+}
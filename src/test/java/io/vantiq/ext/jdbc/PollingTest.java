@@ -0,0 +1,82 @@
+package io.vantiq.ext.jdbc;
+
+import io.vantiq.extjsdk.ExtensionWebSocketClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class PollingTest {
+
+    private static final int ROWS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Object> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private JDBC jdbc;
+    private JDBCConnector connector;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:pollingTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE poll_rows(id INT PRIMARY KEY, name VARCHAR(20))");
+        for (int i = 1; i <= ROWS; i++) {
+            jdbc.processPublish("INSERT INTO poll_rows VALUES (" + i + ", 'row" + i + "')");
+        }
+
+        connector = new JDBCConnector();
+        Field client = JDBCConnector.class.getDeclaredField("vantiqClient");
+        client.setAccessible(true);
+        client.set(connector, new ExtensionWebSocketClient("pollingTest") {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void sendNotification(Object notification) {
+                sent.add(notification);
+            }
+        });
+        connector.swapJdbc(jdbc);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP TABLE poll_rows");
+        jdbc.close();
+    }
+
+    @Test
+    public void testSpilledPollSendsAllRows() throws Exception {
+        JDBCConnectorConfig config = new JDBCConnectorConfig();
+        config.maxResultMemory = 1024;
+        config.spillDirectory = folder.getRoot().getPath();
+        connector.setConfig(config);
+
+        connector.executePolling("SELECT * FROM poll_rows ORDER BY id");
+
+        assertEquals(ROWS, sent.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i + 1, ((Map) sent.get(i)).get("ID"));
+        }
+        // The spill file is deleted once the rows were sent
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,143 @@
+package io.vantiq.ext.jdbc;
+
+import io.vantiq.extjsdk.ExtensionServiceMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryCoalescerTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final List<ExtensionServiceMessage> sent = Collections.synchronizedList(new ArrayList<>());
+    private final List<ExtensionServiceMessage> failed = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("select * from t where x = 1",
+                QueryCoalescer.normalize("  select *\n\tfrom   t\r\n where x = 1 ;  "));
+        assertEquals("select * from t", QueryCoalescer.normalize("select * from t;;"));
+        // Quoted literals and identifiers are kept as is
+        assertEquals("select 'a  b;' from \"my  table\"",
+                QueryCoalescer.normalize("select  'a  b;'  from \"my  table\""));
+        assertEquals("select 'it''s  ok', `x  y`", QueryCoalescer.normalize("select 'it''s  ok',\n`x  y`"));
+        assertEquals("", QueryCoalescer.normalize(" ; "));
+    }
+
+    @Test
+    public void testRunningQueryIsShared() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExtensionServiceMessage first = message();
+        ExtensionServiceMessage second = message();
+
+        Future<?> leader = executor.submit(() -> coalescer.execute("select * from t", first, () -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return result();
+        }, delivery()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Attaches to the running query and returns at once
+        coalescer.execute("select *\n  from t;", second, this::result, delivery());
+        assertEquals(0, sent.size());
+
+        release.countDown();
+        leader.get(5, TimeUnit.SECONDS);
+        assertEquals(1, runs.get());
+        assertEquals(2, sent.size());
+        assertTrue(sent.contains(first) && sent.contains(second));
+        assertEquals(1, closed.get());
+
+        // Without a window the next message runs the query again
+        coalescer.execute("select * from t", message(), this::result, delivery());
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testFailureIsSentToAll() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?> leader = executor.submit(() -> coalescer.execute("select nope from t", message(), () -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new VantiqSQLException("Column NOPE not found");
+        }, delivery()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        coalescer.execute("select nope from t", message(), this::result, delivery());
+
+        release.countDown();
+        leader.get(5, TimeUnit.SECONDS);
+        assertEquals(2, failed.size());
+        assertEquals(0, sent.size());
+
+        // A failed query is not reused
+        coalescer.execute("select nope from t", message(), this::result, delivery());
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testWindowReusesResultUntilInvalidated() {
+        QueryCoalescer coalescer = new QueryCoalescer(60000);
+        for (int i = 0; i < 3; i++) {
+            coalescer.execute("select * from t", message(), this::result, delivery());
+        }
+        assertEquals(1, runs.get());
+        assertEquals(3, sent.size());
+        assertEquals(0, closed.get());
+
+        coalescer.invalidate();
+        assertEquals(1, closed.get());
+        coalescer.execute("select * from t", message(), this::result, delivery());
+        assertEquals(2, runs.get());
+    }
+
+    private SpillableResult result() {
+        runs.incrementAndGet();
+        return new SpillableResult() {
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+                super.close();
+            }
+        };
+    }
+
+    private QueryCoalescer.Delivery delivery() {
+        return new QueryCoalescer.Delivery() {
+            @Override
+            public void send(SpillableResult result, ExtensionServiceMessage message) {
+                sent.add(message);
+            }
+
+            @Override
+            public void fail(Exception e, ExtensionServiceMessage message) {
+                failed.add(message);
+            }
+        };
+    }
+
+    private static ExtensionServiceMessage message() {
+        return new ExtensionServiceMessage("");
+    }
+}
@@ -0,0 +1,69 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryDeadlineTest {
+
+    private static final String SLOW_QUERY =
+            "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b";
+
+    private JDBC jdbc;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:queryDeadlineTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        settings.put("poolSize", 1);
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+    }
+
+    @After
+    public void tearDown() {
+        jdbc.close();
+    }
+
+    @Test
+    public void testQueryWithinDeadline() throws Exception {
+        Map[] rows = jdbc.processQuery("SELECT 1 AS x", System.currentTimeMillis() + 5000);
+        assertEquals(1, rows.length);
+    }
+
+    @Test
+    public void testSlowQueryIsCancelled() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            jdbc.processQuery(SLOW_QUERY, start + 200);
+            fail("The query should have been cancelled");
+        } catch (QueryTimeoutException e) {
+            // Cancelled at the deadline
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // The only connection of the pool was given back
+        assertEquals(1, jdbc.processQuery("SELECT 1 AS x", 0).length);
+    }
+
+    @Test
+    public void testSlowPublishIsCancelled() throws Exception {
+        jdbc.processPublish("CREATE TABLE total(n BIGINT)");
+        try {
+            jdbc.processPublish("INSERT INTO total " + SLOW_QUERY, System.currentTimeMillis() + 200);
+            fail("The publish should have been cancelled");
+        } catch (QueryTimeoutException e) {
+            // Cancelled at the deadline
+        } finally {
+            jdbc.processPublish("DROP TABLE total");
+        }
+    }
+}
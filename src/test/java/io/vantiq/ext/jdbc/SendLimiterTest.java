@@ -0,0 +1,72 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SendLimiterTest {
+
+    private static final long FAST = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    public void testSendsArePaced() {
+        SendLimiter limiter = new SendLimiter(200, 10);
+        long start = System.nanoTime();
+        // The bucket holds 20 sends, the other 40 take 200 ms at 200 per second
+        for (int i = 0; i < 60; i++) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("60 sends took " + elapsed + " ms", elapsed >= 150);
+        assertTrue((Long) limiter.getStats().get("waits") > 0);
+    }
+
+    @Test
+    public void testDisconnectHalvesRate() {
+        SendLimiter limiter = new SendLimiter(1000, 400);
+        limiter.disconnected();
+        assertEquals(500, limiter.getRate(), 0.001);
+        limiter.disconnected();
+        assertEquals(400, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void testSlowSendsLowerRate() throws Exception {
+        SendLimiter limiter = new SendLimiter(1000, 10);
+        for (int i = 0; i < 5; i++) {
+            limiter.sent(FAST);
+        }
+        Thread.sleep(1100);
+        limiter.sent(SLOW);
+
+        assertEquals(700, limiter.getRate(), 0.001);
+        assertEquals(1L, limiter.getStats().get("decreases"));
+    }
+
+    @Test
+    public void testFastSendsRaiseRate() throws Exception {
+        SendLimiter limiter = new SendLimiter(1000, 10);
+        limiter.disconnected();
+        limiter.sent(FAST);
+        assertEquals(500, limiter.getRate(), 0.001);
+
+        Thread.sleep(1100);
+        limiter.sent(FAST);
+        assertEquals(550, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void testHasSettings() {
+        SendLimiter limiter = new SendLimiter(1000, 10);
+        assertTrue(limiter.hasSettings(1000, 10));
+        assertFalse(limiter.hasSettings(1000, 20));
+        // The minimum is capped at the maximum
+        assertTrue(new SendLimiter(5, 10).hasSettings(5, 50));
+    }
+}
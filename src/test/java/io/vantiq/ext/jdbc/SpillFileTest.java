@@ -0,0 +1,67 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SpillFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsCrossWindows() throws Exception {
+        // Records of 0 to 39 bytes in windows of 32 bytes, so that records and their lengths cross window ends and
+        // some records are larger than a window
+        List<byte[]> written = new ArrayList<>();
+        try (SpillFile file = new SpillFile(folder.getRoot().toPath(), 32)) {
+            for (int i = 0; i < 200; i++) {
+                byte[] record = new byte[i % 40];
+                Arrays.fill(record, (byte) i);
+                file.write(record);
+                written.add(record);
+            }
+            assertEquals(200, file.getRecordCount());
+
+            List<byte[]> read = new ArrayList<>();
+            file.read(read::add);
+            assertEquals(written.size(), read.size());
+            for (int i = 0; i < written.size(); i++) {
+                assertArrayEquals("record " + i, written.get(i), read.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testReadTwice() throws Exception {
+        try (SpillFile file = new SpillFile(folder.getRoot().toPath(), 16)) {
+            file.write("first".getBytes(StandardCharsets.UTF_8));
+            file.write("a record longer than the window".getBytes(StandardCharsets.UTF_8));
+            file.write("last".getBytes(StandardCharsets.UTF_8));
+
+            for (int pass = 0; pass < 2; pass++) {
+                List<String> read = new ArrayList<>();
+                file.read(record -> read.add(new String(record, StandardCharsets.UTF_8)));
+                assertEquals(Arrays.asList("first", "a record longer than the window", "last"), read);
+            }
+        }
+    }
+
+    @Test
+    public void testCloseDeletesFile() throws Exception {
+        SpillFile file = new SpillFile(folder.getRoot().toPath(), 16);
+        file.write(new byte[100]);
+        assertEquals(1, folder.getRoot().list().length);
+
+        file.close();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
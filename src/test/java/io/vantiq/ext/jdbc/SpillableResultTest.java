@@ -0,0 +1,83 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillableResultTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResultOnHeap() throws Exception {
+        try (SpillableResult result = new SpillableResult()) {
+            addRows(result, 5);
+            assertFalse(result.isSpilled());
+            assertEquals(5, result.toArray().length);
+            assertEquals("[2, 2, 1]", bundleSizes(result, 2).toString());
+        }
+    }
+
+    @Test
+    public void testResultSpillsOverBudget() throws Exception {
+        try (SpillableResult result = new SpillableResult(1000, folder.getRoot().getPath())) {
+            addRows(result, 5);
+            assertFalse(result.isSpilled());
+            addRows(result, 100);
+            assertTrue(result.isSpilled());
+            assertEquals(105, result.size());
+            assertEquals(1, folder.getRoot().list().length);
+            try {
+                result.toArray();
+                fail("A spilled result cannot be returned as an array");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            boolean[] last = {false};
+            result.forEachBundle(50, (bundle, isLast) -> {
+                assertFalse(last[0]);
+                rows.addAll(bundle);
+                sizes.add(bundle.size());
+                last[0] = isLast;
+            });
+            assertTrue(last[0]);
+            assertEquals("[50, 50, 5]", sizes.toString());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(i % 100, ((Number) rows.get(i).get("id")).intValue());
+            }
+            // Decimals keep their scale when read back
+            assertEquals(new BigDecimal("1.10"), rows.get(0).get("price"));
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private static void addRows(SpillableResult result, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", result.size() % 100);
+            row.put("price", new BigDecimal("1.10"));
+            result.add(row);
+        }
+    }
+
+    private static List<Integer> bundleSizes(SpillableResult result, int bundleSize) throws Exception {
+        List<Integer> sizes = new ArrayList<>();
+        result.forEachBundle(bundleSize, (bundle, last) -> sizes.add(bundle.size()));
+        return sizes;
+    }
+}
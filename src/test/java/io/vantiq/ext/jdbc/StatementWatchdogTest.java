@@ -0,0 +1,72 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatementWatchdogTest {
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:watchdog", "sa", "");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void testListsRunningStatements() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            StatementWatchdog.Watch watch = StatementWatchdog.getInstance().watch(stmt, 0, "SELECT 1");
+            assertTrue(StatementWatchdog.getInstance().getRunning().contains(watch));
+            watch.disarm();
+            assertFalse(StatementWatchdog.getInstance().getRunning().contains(watch));
+        }
+    }
+
+    @Test
+    public void testNoCancelAfterDisarm() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            StatementWatchdog.Watch watch = StatementWatchdog.getInstance().watch(stmt, 0, "SELECT 1");
+            watch.disarm();
+            assertFalse(StatementWatchdog.getInstance().cancel(watch.getId()));
+            assertFalse(watch.isCancelled());
+        }
+    }
+
+    @Test
+    public void testDeadlineCancelsStatement() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            StatementWatchdog.Watch watch = StatementWatchdog.getInstance()
+                    .watch(stmt, System.currentTimeMillis() + 200, "slow");
+            assertEquals(1, stmt.getQueryTimeout());
+            try {
+                stmt.executeQuery("SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b");
+            } catch (Exception e) {
+                // cancelled
+            } finally {
+                watch.disarm();
+            }
+            assertTrue(watch.hasFired());
+        }
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void testPassedDeadline() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            StatementWatchdog.getInstance().watch(stmt, System.currentTimeMillis() - 1, "late");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package io.vantiq.ext.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vantiq.extjsdk.ExtensionWebSocketClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TableLoaderTest {
+
+    private static final int ROWS = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Object> sent = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private volatile int failAt = -1;
+    // Sends block once this many rows were sent, until the load is closed
+    private volatile int blockAt = -1;
+
+    private JDBC jdbc;
+    private JDBCConnector connector;
+    private TableLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:tableLoaderTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE load_rows(id INT PRIMARY KEY, name VARCHAR(20))");
+        for (int i = 1; i <= ROWS; i++) {
+            jdbc.processPublish("INSERT INTO load_rows VALUES (" + i + ", 'row" + i + "')");
+        }
+
+        connector = new JDBCConnector();
+        Field client = JDBCConnector.class.getDeclaredField("vantiqClient");
+        client.setAccessible(true);
+        client.set(connector, new ExtensionWebSocketClient("tableLoaderTest") {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void sendNotification(Object notification) {
+                if (sent.size() == failAt) {
+                    failAt = -1;
+                    throw new IllegalStateException("The websocket failed");
+                }
+                if (blockAt >= 0 && sent.size() >= blockAt) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("The load was closed");
+                }
+                sent.add(notification);
+            }
+        });
+        connector.swapJdbc(jdbc);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        if (loader != null) {
+            loader.close();
+        }
+        jdbc.processPublish("DROP TABLE load_rows");
+        jdbc.close();
+    }
+
+    @Test
+    public void testLoadsAllRows() throws Exception {
+        loader = new TableLoader(connector, "LOAD_ROWS", "ID", 10, 10, 2, null);
+        loader.start();
+        waitForRows(ROWS);
+
+        assertEquals(ROWS, sent.size());
+        assertEquals(ROWS, sentIds().size());
+        assertEquals(ROWS, loader.getRowsSent());
+    }
+
+    @Test
+    public void testFailedSendLoadsPageAgain() throws Exception {
+        // Fails in the middle of the second page, after the first page was sent in full
+        failAt = 14;
+        loader = new TableLoader(connector, "LOAD_ROWS", "ID", 10, 10, 2, null);
+        loader.start();
+        waitForRows(ROWS + 4);
+
+        Set<Integer> ids = sentIds();
+        assertEquals(ROWS, ids.size());
+        assertEquals(1, (int) ids.iterator().next());
+        // The rows of the failed page that were sent before the error are sent again
+        assertEquals(ROWS + 4, sent.size());
+        assertEquals(ROWS, loader.getRowsSent());
+    }
+
+    @Test
+    public void testFailedSendByPageNumberLoadsPageAgain() throws Exception {
+        failAt = 14;
+        loader = new TableLoader(connector, "LOAD_ROWS", null, 10, 10, 2, null);
+        loader.start();
+        waitForRows(ROWS + 4);
+
+        assertEquals(ROWS, sentIds().size());
+        assertEquals(ROWS, loader.getRowsSent());
+    }
+
+    @Test
+    public void testCheckpointIsWrittenAfterEachPage() throws Exception {
+        LoadCheckpoint checkpoint = checkpoint("ID", 10);
+        blockAt = 15;
+        loader = new TableLoader(connector, "LOAD_ROWS", "ID", 10, 10, 2, checkpoint);
+        loader.start();
+        waitForRows(15);
+
+        // The second page is not sent in full
+        LoadCheckpoint.Position position = checkpoint.read();
+        assertEquals(10, position.getRowsSent());
+        assertEquals(10L, position.getLastKey());
+
+        loader.close();
+        blockAt = -1;
+        sent.clear();
+        loader = new TableLoader(connector, "LOAD_ROWS", "ID", 10, 10, 2, checkpoint);
+        loader.start();
+        waitForRows(15);
+        position = checkpoint.read();
+        assertEquals(ROWS, position.getRowsSent());
+        assertEquals((long) ROWS, position.getLastKey());
+    }
+
+    @Test
+    public void testResumesByKey() throws Exception {
+        assertResumes("ID");
+    }
+
+    @Test
+    public void testResumesByPageNumber() throws Exception {
+        assertResumes(null);
+    }
+
+    @Test
+    public void testCheckpointOfOtherLoadIsIgnored() throws Exception {
+        checkpoint("NAME", 10).write(new LoadCheckpoint.Position(2, "row5", 10));
+        assertNull(checkpoint("ID", 10).read());
+        loader = new TableLoader(connector, "LOAD_ROWS", "ID", 10, 10, 2, checkpoint("ID", 10));
+        loader.start();
+        waitForRows(ROWS);
+        assertEquals(ROWS, sentIds().size());
+        loader.close();
+
+        // Page 3 of 5 rows is not page 3 of 10 rows
+        sent.clear();
+        checkpoint(null, 5).write(new LoadCheckpoint.Position(3, null, 10));
+        assertNull(checkpoint(null, 10).read());
+        loader = new TableLoader(connector, "LOAD_ROWS", null, 10, 10, 2, checkpoint(null, 10));
+        loader.start();
+        waitForRows(ROWS);
+        assertEquals(ROWS, sent.size());
+        assertEquals(ROWS, sentIds().size());
+    }
+
+    @Test
+    public void testRestartDeletesCheckpoint() throws Exception {
+        LoadCheckpoint checkpoint = checkpoint(null, 10);
+        loader = new TableLoader(connector, "LOAD_ROWS", null, 10, 10, 2, checkpoint);
+        loader.start();
+        waitForRows(ROWS);
+        assertEquals(4, checkpoint.read().getPageNo());
+
+        sent.clear();
+        loader.restart();
+        waitForRows(ROWS);
+        assertEquals(ROWS, sent.size());
+        assertEquals(1, (int) sentIds().iterator().next());
+        assertEquals(ROWS, checkpoint.read().getRowsSent());
+    }
+
+    /**
+     * Stops a load in the middle of its second page, and checks that a new loader sends the rest of the table.
+     */
+    private void assertResumes(String loadKey) throws Exception {
+        blockAt = 15;
+        loader = new TableLoader(connector, "LOAD_ROWS", loadKey, 10, 10, 2, checkpoint(loadKey, 10));
+        loader.start();
+        waitForRows(15);
+        loader.close();
+
+        blockAt = -1;
+        sent.clear();
+        // As after a restart of the connector
+        loader = new TableLoader(connector, "LOAD_ROWS", loadKey, 10, 10, 2, checkpoint(loadKey, 10));
+        loader.start();
+        waitForRows(ROWS - 10);
+
+        Set<Integer> ids = sentIds();
+        assertEquals(ROWS - 10, sent.size());
+        assertEquals(11, (int) ids.iterator().next());
+        assertEquals(ROWS - 10, ids.size());
+        assertEquals(ROWS, loader.getRowsSent());
+    }
+
+    private LoadCheckpoint checkpoint(String loadKey, int loadSize) {
+        return new LoadCheckpoint(folder.getRoot().getPath(), "tableLoaderTest", "LOAD_ROWS", loadKey, loadSize);
+    }
+
+    private void waitForRows(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Leaves time for rows that should not be sent
+        Thread.sleep(200);
+        assertTrue("Only " + sent.size() + " rows were sent", sent.size() >= count);
+    }
+
+    private Set<Integer> sentIds() {
+        Set<Integer> ids = new TreeSet<>();
+        synchronized (sent) {
+            for (Object row : sent) {
+                ids.add(((JsonNode) row).get("ID").asInt());
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,107 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TableMirrorTest {
+
+    private JDBC jdbc;
+    private TableMirror mirror;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dbURL", "jdbc:h2:mem:tableMirrorTest;DB_CLOSE_DELAY=-1");
+        settings.put("username", "sa");
+        settings.put("password", "");
+        jdbc = new JDBC(JDBCConnectorConfig.fromMap(settings));
+        jdbc.processPublish("CREATE TABLE dev(id INT PRIMARY KEY, site VARCHAR(10), name VARCHAR(20), "
+                + "rate DECIMAL(6,2), label VARCHAR_IGNORECASE(20))");
+        jdbc.processPublish("CREATE INDEX dev_site ON dev(site)");
+        for (int i = 0; i < 100; i++) {
+            jdbc.processPublish("INSERT INTO dev VALUES (" + i + ", 's" + (i % 10) + "', 'n" + i + "', "
+                    + (i % 7) + ".50, 'l" + i + "')");
+        }
+        jdbc.processPublish("INSERT INTO dev VALUES (100, 's1', 'it''s', 1, 'x')");
+
+        mirror = new TableMirror(Collections.singletonList("dev"),
+                Collections.singletonMap("dev", Collections.singletonList("name")));
+        mirror.refresh(jdbc);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbc.processPublish("DROP TABLE dev");
+        jdbc.close();
+    }
+
+    @Test
+    public void testPrimaryKeyLookup() {
+        Map[] rows = mirror.lookup("select * from dev where id = 1");
+        assertEquals(1, rows.length);
+        assertEquals("n1", rows[0].get("NAME"));
+        assertEquals(0, mirror.lookup("SELECT * FROM dev WHERE id = 5000").length);
+    }
+
+    @Test
+    public void testConditionsAndProjection() {
+        Map[] rows = mirror.lookup("SELECT name, rate FROM dev WHERE site = 's3' AND rate = 3.5;");
+        // Rows 3 and 73 are on site s3 with a rate of 3.50
+        assertEquals(2, rows.length);
+        assertEquals(Arrays.asList("NAME", "RATE"), Arrays.asList(rows[0].keySet().toArray()));
+        // Numbers are compared by value, whether quoted or not
+        assertEquals(1, mirror.lookup("select * from dev where rate = '2.50' and id = 9").length);
+    }
+
+    @Test
+    public void testQuotedLiteral() {
+        Map[] rows = mirror.lookup("select * from dev where name = 'it''s'");
+        assertEquals(1, rows.length);
+        assertEquals(100, ((Number) rows[0].get("ID")).intValue());
+    }
+
+    @Test
+    public void testUnsupportedQueriesGoToDatabase() {
+        assertNull(mirror.lookup("select * from dev where id > 1"));
+        assertNull(mirror.lookup("select count(*) from dev where id = 1"));
+        assertNull(mirror.lookup("select * from dev where nope = 1"));
+        assertNull(mirror.lookup("select * from dev where id = 1 or id = 2"));
+        assertNull(mirror.lookup("select * from other where id = 1"));
+        assertNull(mirror.lookup("select * from dev d where d.id = 1"));
+    }
+
+    @Test
+    public void testCaseInsensitiveColumnGoesToDatabase() {
+        assertNull(mirror.lookup("select * from dev where label = 'L1'"));
+    }
+
+    @Test
+    public void testRefreshAppliesChanges() throws Exception {
+        jdbc.processPublish("UPDATE dev SET name = 'renamed' WHERE id = 42");
+        jdbc.processPublish("DELETE FROM dev WHERE id = 1");
+        mirror.markStale();
+        assertNull(mirror.lookup("select * from dev where id = 2"));
+
+        mirror.refresh(jdbc);
+        assertEquals(0, mirror.lookup("select * from dev where name = 'n42'").length);
+        assertEquals(1, mirror.lookup("select * from dev where name = 'renamed'").length);
+        assertEquals(0, mirror.lookup("select * from dev where id = 1").length);
+    }
+
+    @Test
+    public void testIndexKey() {
+        assertEquals("0", TableMirror.indexKey(new BigDecimal("0.00")));
+        assertEquals("2.5", TableMirror.indexKey(new BigDecimal("2.50")));
+        assertEquals("42", TableMirror.indexKey(42L));
+    }
+}
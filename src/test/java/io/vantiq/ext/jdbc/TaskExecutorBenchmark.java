@@ -0,0 +1,87 @@
+package io.vantiq.ext.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the platform and virtual thread modes of {@link TaskExecutor} under a burst of requests that all need a
+ * pooled connection. The connection pool is simulated by a semaphore and each "query" holds a connection for a
+ * fixed time, so both modes have the same ceiling and the difference is in thread usage and queueing.
+ *
+ * The virtual mode is only available from the multi-release jar built with the java21 profile, run on Java 21:
+ * <pre>
+ * mvn -Pjava21 package -Dmaven.test.skip=false
+ * java -cp target/jdbc-connector-1.0-SNAPSHOT.jar:target/test-classes:&lt;dependencies&gt; \
+ *      io.vantiq.ext.jdbc.TaskExecutorBenchmark [requests] [poolSize] [queryMillis]
+ * </pre>
+ */
+public class TaskExecutorBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int queryMillis = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.println("requests=" + requests + ", poolSize=" + poolSize + ", queryMillis=" + queryMillis);
+        run(TaskExecutor.MODE_PLATFORM, requests, poolSize, queryMillis);
+        if (TaskExecutor.isVirtualThreadSupported()) {
+            run(TaskExecutor.MODE_VIRTUAL, requests, poolSize, queryMillis);
+        } else {
+            System.out.println("virtual: skipped, run the java21 build on Java 21 or later");
+        }
+    }
+
+    private static void run(String mode, int requests, int poolSize, int queryMillis) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        // Queue sized to accept the whole burst, so that both modes complete every request
+        TaskExecutor executor = new TaskExecutor("benchmark", poolSize, requests, mode);
+        Semaphore connections = new Semaphore(poolSize);
+        CountDownLatch done = new CountDownLatch(requests);
+        long[] latencies = new long[requests];
+        AtomicInteger rejected = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            long submitted = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try {
+                        connections.acquire();
+                        try {
+                            Thread.sleep(queryMillis);
+                        } finally {
+                            connections.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        latencies[request] = System.nanoTime() - submitted;
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                done.countDown();
+            }
+        }
+        long submitNanos = System.nanoTime() - start;
+        done.await();
+        long totalNanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%s: submit=%d ms, total=%d ms, throughput=%.0f req/s, "
+                        + "p50=%d ms, p99=%d ms, peakThreads=%d, rejected=%d",
+                executor.getMode(), submitNanos / 1_000_000, totalNanos / 1_000_000,
+                requests / (totalNanos / 1e9), latencies[requests / 2] / 1_000_000,
+                latencies[(int) (requests * 0.99)] / 1_000_000, threads.getPeakThreadCount(), rejected.get()));
+    }
+}
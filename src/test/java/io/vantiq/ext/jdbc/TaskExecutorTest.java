@@ -0,0 +1,122 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+public class TaskExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private TaskExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueIsBounded() throws Exception {
+        executor = new TaskExecutor("taskExecutorTest", 1, 2, TaskExecutor.MODE_PLATFORM);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            await();
+            ran.incrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(ran::incrementAndGet);
+        executor.execute(ran::incrementAndGet);
+
+        assertEquals(1, executor.getActiveTasks());
+        assertEquals(2, executor.getQueuedTasks());
+        try {
+            executor.execute(ran::incrementAndGet);
+            fail("The task should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // The queue is full
+        }
+
+        release.countDown();
+        executor.shutdown();
+        waitFor(() -> ran.get() == 3);
+        assertEquals(3, ran.get());
+    }
+
+    @Test
+    public void testActiveTasksAreLimited() throws Exception {
+        executor = new TaskExecutor("taskExecutorTest", 2, 10, TaskExecutor.MODE_PLATFORM);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testShutdownRejectsTasks() {
+        executor = new TaskExecutor("taskExecutorTest", 1, 1, TaskExecutor.MODE_PLATFORM);
+        executor.shutdown();
+        try {
+            executor.execute(() -> { });
+            fail("The task should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    @Test
+    public void testVirtualFallsBackToPlatform() {
+        assumeFalse(TaskExecutor.isVirtualThreadSupported());
+        executor = new TaskExecutor("taskExecutorTest", 3, 5, TaskExecutor.MODE_VIRTUAL);
+
+        assertEquals(TaskExecutor.MODE_PLATFORM, executor.getMode());
+        assertEquals(3, executor.getMaxActiveTasks());
+        assertEquals(5, executor.getMaxQueuedTasks());
+    }
+
+    private void await() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.vantiq.ext.jdbc;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TracerTest {
+
+    @After
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void testUnsampledTrace() {
+        Tracer tracer = new Tracer(0, 0, 10);
+        assertSame(Trace.NONE, tracer.start("query"));
+    }
+
+    @Test
+    public void testSlowTraceIsKept() {
+        Tracer tracer = new Tracer(1, 0, 2);
+        for (String kind : new String[]{"query", "publish", "poll"}) {
+            Trace trace = tracer.start(kind);
+            assertTrue(trace.isSampled());
+            trace.finish();
+        }
+
+        List<Map<String, Object>> traces = tracer.dump();
+        assertEquals(2, traces.size());
+        assertEquals("poll", traces.get(0).get("kind"));
+        assertEquals("publish", traces.get(1).get("kind"));
+    }
+
+    @Test
+    public void testFinishedTraceLeavesNoIdInMdc() {
+        Tracer tracer = new Tracer(1, 0, 10);
+        tracer.start("load").finish();
+
+        assertNull(MDC.get(Trace.MDC_TRACE_ID));
+        assertNull(MDC.get("traceKind"));
+    }
+
+    @Test
+    public void testFinishedTraceRestoresActiveId() {
+        Tracer tracer = new Tracer(1, 0, 10);
+        Trace active = tracer.start("query");
+        try (Trace.Scope scope = active.activate()) {
+            // A page of a load finishing on the thread of another request
+            tracer.start("load").finish();
+            assertEquals(active.getId(), MDC.get(Trace.MDC_TRACE_ID));
+        }
+        assertNull(MDC.get(Trace.MDC_TRACE_ID));
+    }
+}